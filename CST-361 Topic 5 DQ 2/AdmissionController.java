@@ -0,0 +1,374 @@
+package service;
+
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Limits how many DBService calls of each class can hold a connection at once,
+ * so when Postgres slows down, calls are turned away quickly instead of every
+ * thread piling up waiting on the pool.
+ * 
+ * Each class has its own bulkhead, so a flood of one kind of call can't starve
+ * the others:
+ * 
+ * READ        = 0 (selects, counts and existence checks)
+ * WRITE       = 1 (inserts, updates and deletes)
+ * BULK        = 2 (streams and batch inserts, which hold a connection for a long time)
+ * TRANSACTION = 3 (`DBService.transaction`, including WriteBehindQueue's groups)
+ * 
+ * A call over its class's limit waits in a bounded queue until a slot frees up
+ * or its deadline passes. If the queue is full it's rejected straight away. Either
+ * way it fails with a SQLTransientConnectionException, which DBService reports like
+ * any other failed statement.
+ * 
+ * Limits with a latency target adapt to it (AIMD): every call under the target
+ * raises the limit by `1 / limit`, so it grows by about one per round of calls,
+ * and a call over the target (or one that couldn't get a connection) cuts it by
+ * `DECREASE`. The cut happens at most once per round, as the calls that were
+ * already running when the database slowed down are all late for the same reason.
+ * A call's latency is how long it held its slot, so only the classes whose calls
+ * are a single statement have a target. A transaction holds its slot while the
+ * application's work runs, which says nothing about how the database is doing.
+ * 
+ * Admission control is off until `setEnabled(true)` or the
+ * `polyopus.db.admissionControl` system property turns it on.
+ */
+public class AdmissionController {
+	public static final int READ        = 0;
+	public static final int WRITE       = 1;
+	public static final int BULK        = 2;
+	public static final int TRANSACTION = 3;
+	
+	private static final String[] CLASS_NAMES = { "read", "write", "bulk", "transaction" };
+	
+	// How much of the limit is kept when latency goes over the target
+	private static final double DECREASE = 0.9;
+	
+	// The SQLState of a call that was turned away (SQL-server rejected establishment of SQL-connection)
+	private static final String REJECTED = "08004";
+	
+	private static AdmissionController instance;
+	
+	private final Bulkhead[] bulkheads = new Bulkhead[CLASS_NAMES.length];
+	
+	private volatile boolean enabled = Boolean.getBoolean("polyopus.db.admissionControl");
+	
+	/**
+	 * A class's slot in a bulkhead, released once the call gives its connection back.
+	 */
+	static final class Permit {
+		final Bulkhead bulkhead;
+		final long     start;
+		
+		Permit(Bulkhead bulkhead) {
+			this.bulkhead = bulkhead;
+			this.start    = System.nanoTime();
+		}
+	}
+	
+	/**
+	 * The limit and wait queue of one class of calls.
+	 */
+	static final class Bulkhead {
+		private final String name;
+		
+		private final ReentrantLock lock      = new ReentrantLock();
+		private final Condition     available = lock.newCondition();
+		
+		// Guarded by `lock`
+		private double limit;
+		private int    minLimit;
+		private int    maxLimit;
+		private int    maxQueue;
+		private long   queueTimeout;
+		private long   latencyTarget;
+		private int    inFlight;
+		private int    waiting;
+		private long   lastDecrease;
+		
+		private final AtomicLong admitted = new AtomicLong();
+		private final AtomicLong queued   = new AtomicLong();
+		private final AtomicLong rejected = new AtomicLong();
+		private final AtomicLong timedOut = new AtomicLong();
+		
+		Bulkhead(String name) {
+			this.name         = name;
+			this.lastDecrease = System.nanoTime();
+		}
+		
+		void configure(int limit, int minLimit, int maxLimit, int maxQueue, long queueTimeout, long latencyTarget) {
+			lock.lock();
+			
+			try {
+				this.minLimit      = Math.max(1, minLimit);
+				this.maxLimit      = Math.max(this.minLimit, maxLimit);
+				this.limit         = Math.min(this.maxLimit, Math.max(this.minLimit, limit));
+				this.maxQueue      = Math.max(0, maxQueue);
+				this.queueTimeout  = TimeUnit.MILLISECONDS.toNanos(queueTimeout);
+				this.latencyTarget = TimeUnit.MILLISECONDS.toNanos(latencyTarget);
+				
+				available.signalAll();
+			}
+			
+			finally {
+				lock.unlock();
+			}
+		}
+		
+		Permit admit() throws SQLException {
+			lock.lock();
+			
+			try {
+				if (inFlight < (int)limit) {
+					inFlight++;
+					admitted.incrementAndGet();
+					
+					return new Permit(this);
+				}
+				
+				if (waiting >= maxQueue) {
+					rejected.incrementAndGet();
+					
+					throw new SQLTransientConnectionException("Rejected a " + name + " call: " + inFlight + " running and "
+						+ waiting + " queued", REJECTED);
+				}
+				
+				queued.incrementAndGet();
+				waiting++;
+				
+				try {
+					long remaining = queueTimeout;
+					
+					while (inFlight >= (int)limit) {
+						if (remaining <= 0) {
+							timedOut.incrementAndGet();
+							
+							throw new SQLTransientConnectionException("Timed out after " + TimeUnit.NANOSECONDS.toMillis(queueTimeout)
+								+ "ms waiting to run a " + name + " call", REJECTED);
+						}
+						
+						remaining = available.awaitNanos(remaining);
+					}
+				}
+				
+				finally {
+					waiting--;
+				}
+				
+				inFlight++;
+				admitted.incrementAndGet();
+				
+				return new Permit(this);
+			}
+			
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				
+				throw new SQLTransientConnectionException("Interrupted while waiting to run a " + name + " call", REJECTED, e);
+			}
+			
+			finally {
+				lock.unlock();
+			}
+		}
+		
+		/**
+		 * Frees a permit's slot and adjusts the limit.
+		 * 
+		 * @param permit - The permit
+		 * @param failed - Whether the call couldn't get a connection
+		 */
+		void release(Permit permit, boolean failed) {
+			long now = System.nanoTime();
+			
+			lock.lock();
+			
+			try {
+				inFlight--;
+				
+				if (latencyTarget > 0) {
+					if (failed || now - permit.start > latencyTarget) {
+						
+						// Only calls started after the last cut say anything new about the database
+						if (permit.start - lastDecrease > 0) {
+							limit        = Math.max(minLimit, limit * DECREASE);
+							lastDecrease = now;
+						}
+					}
+					
+					else {
+						limit = Math.min(maxLimit, limit + 1 / limit);
+					}
+				}
+				
+				for (int free = (int)limit - inFlight; free > 0; free--)
+					available.signal();
+			}
+			
+			finally {
+				lock.unlock();
+			}
+		}
+		
+		int getLimit() {
+			lock.lock();
+			
+			try {
+				return (int)limit;
+			}
+			
+			finally {
+				lock.unlock();
+			}
+		}
+		
+		int getInFlight() {
+			lock.lock();
+			
+			try {
+				return inFlight;
+			}
+			
+			finally {
+				lock.unlock();
+			}
+		}
+		
+		int getWaiting() {
+			lock.lock();
+			
+			try {
+				return waiting;
+			}
+			
+			finally {
+				lock.unlock();
+			}
+		}
+	}
+	
+	public AdmissionController() {
+		for (int i = 0; i < bulkheads.length; i++)
+			bulkheads[i] = new Bulkhead(CLASS_NAMES[i]);
+		
+		configure(READ,        20, 2, 200, 100, 1000, 50);
+		configure(WRITE,       10, 2, 100, 100, 1000, 100);
+		configure(BULK,        2,  1, 2,   4,   5000, 0);
+		configure(TRANSACTION, 10, 1, 10,  100, 1000, 0);
+	}
+	
+	/**
+	 * @return The controller shared by every DBService
+	 */
+	public static synchronized AdmissionController getInstance() {
+		if (instance == null)
+			instance = new AdmissionController();
+		
+		return instance;
+	}
+	
+	/**
+	 * Sets a class's limits. Calls already running or queued are unaffected.
+	 * 
+	 * @param callClass     - READ, WRITE, BULK or TRANSACTION
+	 * @param limit         - How many calls may run at once to start with
+	 * @param minLimit      - The lowest the limit can be cut to
+	 * @param maxLimit      - The highest the limit can grow to
+	 * @param maxQueue      - How many calls may wait for a slot (0 to reject as soon as the limit is reached)
+	 * @param queueTimeout  - How long (ms) a call waits for a slot before it's rejected
+	 * @param latencyTarget - The latency (ms) the limit adapts to, or 0 to keep it fixed
+	 */
+	public void configure(int callClass, int limit, int minLimit, int maxLimit, int maxQueue, long queueTimeout, long latencyTarget) {
+		bulkheads[callClass].configure(limit, minLimit, maxLimit, maxQueue, queueTimeout, latencyTarget);
+	}
+	
+	/**
+	 * Waits for a slot for a call.
+	 * 
+	 * @param callClass - READ, WRITE, BULK or TRANSACTION
+	 * 
+	 * @return The permit to give to `release`, or null if admission control is off
+	 * 
+	 * @throws SQLException If the call was rejected or timed out waiting
+	 */
+	Permit admit(int callClass) throws SQLException {
+		return enabled ? bulkheads[callClass].admit() : null;
+	}
+	
+	/**
+	 * Gives a call's slot back.
+	 * 
+	 * @param permit - The permit from `admit` (null is ignored)
+	 * @param failed - Whether the call couldn't get a connection
+	 */
+	void release(Permit permit, boolean failed) {
+		if (permit != null)
+			permit.bulkhead.release(permit, failed);
+	}
+	
+	public boolean isEnabled() {
+		return enabled;
+	}
+	
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+	
+	/**
+	 * @return The name of a class (e.g. `read`), as used in the metrics
+	 */
+	public static String getClassName(int callClass) {
+		return CLASS_NAMES[callClass];
+	}
+	
+	public static int getClassCount() {
+		return CLASS_NAMES.length;
+	}
+	
+	/**
+	 * @return How many calls of a class may run at once right now
+	 */
+	public int getLimit(int callClass) {
+		return bulkheads[callClass].getLimit();
+	}
+	
+	public int getInFlight(int callClass) {
+		return bulkheads[callClass].getInFlight();
+	}
+	
+	/**
+	 * @return How many calls of a class are waiting for a slot
+	 */
+	public int getWaiting(int callClass) {
+		return bulkheads[callClass].getWaiting();
+	}
+	
+	public long getAdmitted(int callClass) {
+		return bulkheads[callClass].admitted.get();
+	}
+	
+	/**
+	 * @return How many calls of a class had to wait for a slot
+	 */
+	public long getQueued(int callClass) {
+		return bulkheads[callClass].queued.get();
+	}
+	
+	/**
+	 * @return How many calls of a class were turned away because the queue was full
+	 */
+	public long getRejected(int callClass) {
+		return bulkheads[callClass].rejected.get();
+	}
+	
+	/**
+	 * @return How many calls of a class gave up waiting for a slot
+	 */
+	public long getTimedOut(int callClass) {
+		return bulkheads[callClass].timedOut.get();
+	}
+}
@@ -0,0 +1,53 @@
+package service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+import model.User;
+
+/**
+ * The asynchronous counterpart of DBInterface. Every method returns straight
+ * away, so independent queries can run at the same time.
+ * 
+ * The query builders (`createLocation`, `where`, ...) don't touch the database,
+ * so use them from DBInterface.
+ */
+public interface AsyncDBInterface {
+	public CompletableFuture<HashMap<String, Object>> select(String location, String whereStatement, Object[] whereObjects);
+	public CompletableFuture<Map<String, Object>>     select(String location, String[] columns, String whereStatement, Object[] whereObjects);
+	
+	public CompletableFuture<ArrayList<HashMap<String, Object>>> selectMany(String location, String whereStatement, Object[] whereObjects);
+	public CompletableFuture<ArrayList<Map<String, Object>>>     selectMany(String location, String[] columns, String whereStatement, Object[] whereObjects);
+	public CompletableFuture<ArrayList<HashMap<String, Object>>> selectAll (String location);
+	public CompletableFuture<ArrayList<Map<String, Object>>>     selectAll (String location, String[] columns);
+	
+	public CompletableFuture<Page> selectPage   (String location, String whereStatement, Object[] whereObjects, String orderColumn, Object after, int pageSize);
+	public CompletableFuture<Page> selectAllPage(String location, String orderColumn,    Object   after,        int    pageSize);
+	
+	public CompletableFuture<Boolean> authenticate(User user);
+	
+	public CompletableFuture<Boolean> delete         (String location, String   whereStatement, Object[] whereObjects);
+	public CompletableFuture<Boolean> insert         (String location, String[] fieldNames,     Object[] values);
+	public CompletableFuture<Object>  insertAndReturn(String location, String[] fieldNames,     Object[] values,     String columnToReturn);
+	
+	public CompletableFuture<int[]>             insertBatch         (String location, String[] fieldNames, List<Object[]> rows);
+	public CompletableFuture<ArrayList<Object>> insertBatchAndReturn(String location, String[] fieldNames, List<Object[]> rows, String columnToReturn);
+	
+	public CompletableFuture<Boolean> update         (String location, String   setStatement,   Object[] setObjects, String whereStatement, Object[] whereObjects);
+	public CompletableFuture<Integer> count          (String location, String   whereStatement, Object[] whereObjects);
+	public CompletableFuture<Boolean> exists         (String location, String   whereStatement, Object[] whereObjects);
+	
+	public CompletableFuture<Boolean> usernameExists   (String username);
+	public CompletableFuture<Boolean> emailExists      (String email);
+	public CompletableFuture<Integer> insertUser       (User   user);
+	public CompletableFuture<User>    getUserbyID      (UUID   userID);
+	public CompletableFuture<User>    getUserbyUsername(String username);
+	
+	public CompletableFuture<Map<UUID, User>>   getUsersByIds      (Collection<UUID>   userIDs);
+	public CompletableFuture<Map<String, User>> getUsersByUsernames(Collection<String> usernames);
+}
@@ -0,0 +1,352 @@
+package service;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import model.User;
+
+/**
+ * Runs DBService calls in the background and hands back CompletableFutures.
+ * 
+ * Calls run on virtual threads when the JVM has them (Java 21+) and on a
+ * fixed pool of `limit` daemon threads otherwise. Either way, at most `limit`
+ * calls run at once (by default the size of the connection pool), so extra
+ * calls queue here instead of piling up waiting for a connection.
+ * 
+ * Each call shares the calling thread's read-your-writes stamp (see
+ * `DBService.setReadYourWritesWindow`), so a write made here keeps the
+ * caller's reads on the primary once its future completes, and a call
+ * made just after the caller wrote reads from the primary too.
+ */
+public class AsyncDBService implements AsyncDBInterface {
+	// Shared by every instance, or null before Java 21
+	private static final ExecutorService virtualThreads = createVirtualThreadExecutor();
+	
+	// How long an idle thread of a fixed pool is kept
+	private static final long KEEP_ALIVE_SECONDS = 60;
+	
+	private final DBService       db;
+	private final ExecutorService executor;
+	
+	// Limits the virtual threads; null when the executor is a fixed pool, which limits itself
+	private final Semaphore permits;
+	
+	/**
+	 * @param db - The service to run the calls on
+	 */
+	public AsyncDBService(DBService db) {
+		this(db, db.getPool().getMaxSize());
+	}
+	
+	/**
+	 * @param db    - The service to run the calls on
+	 * @param limit - How many calls may run at once
+	 */
+	public AsyncDBService(DBService db, int limit) {
+		this.db = db;
+		
+		if (virtualThreads != null) {
+			this.executor = virtualThreads;
+			this.permits  = new Semaphore(limit);
+		}
+		
+		else {
+			this.executor = createFixedExecutor(limit);
+			this.permits  = null;
+		}
+	}
+	
+	/**
+	 * Creates a virtual-thread-per-task executor if the JVM supports them.
+	 * Looked up reflectively so this still builds and runs on older JVMs.
+	 * 
+	 * @return The executor, or null if the JVM doesn't have virtual threads
+	 */
+	private static ExecutorService createVirtualThreadExecutor() {
+		try {
+			Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			
+			return (ExecutorService)factory.invoke(null);
+		}
+		
+		catch (ReflectiveOperationException e) {
+			return null;
+		}
+	}
+	
+	/**
+	 * Creates a pool of at most `limit` daemon threads that queues the calls
+	 * it can't run yet, so waiting calls don't each hold a platform thread.
+	 * Idle threads stop after a while.
+	 * 
+	 * @param limit - How many calls may run at once
+	 */
+	private static ExecutorService createFixedExecutor(int limit) {
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(limit, limit, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "AsyncDBService");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		
+		pool.allowCoreThreadTimeOut(true);
+		
+		return pool;
+	}
+	
+	/**
+	 * Runs a call in the background once a thread (and, on virtual threads, a permit) is free.
+	 * 
+	 * @param call - The call to run
+	 * 
+	 * @return A future completed with the call's result (or its exception)
+	 */
+	private <T> CompletableFuture<T> submit(final Supplier<T> call) {
+		final CompletableFuture<T> future = new CompletableFuture<T>();
+		
+		// The caller's read-your-writes stamp, which moves with the call
+		final long[] writeStamp = DBService.getWriteStamp();
+		
+		executor.execute(new Runnable() {
+			public void run() {
+				if (permits != null) {
+					try {
+						permits.acquire();
+					}
+					
+					catch (InterruptedException e) {
+						future.completeExceptionally(e);
+						
+						return;
+					}
+				}
+				
+				long[] ownStamp = DBService.useWriteStamp(writeStamp);
+				
+				try {
+					future.complete(call.get());
+				}
+				
+				catch (Throwable t) {
+					future.completeExceptionally(t);
+				}
+				
+				finally {
+					DBService.useWriteStamp(ownStamp);
+					
+					if (permits != null)
+						permits.release();
+				}
+			}
+		});
+		
+		return future;
+	}
+	
+	public CompletableFuture<HashMap<String, Object>> select(final String location, final String whereStatement, final Object[] whereObjects) {
+		return submit(new Supplier<HashMap<String, Object>>() {
+			public HashMap<String, Object> get() {
+				return db.select(location, whereStatement, whereObjects);
+			}
+		});
+	}
+	
+	public CompletableFuture<Map<String, Object>> select(final String location, final String[] columns, final String whereStatement, final Object[] whereObjects) {
+		return submit(new Supplier<Map<String, Object>>() {
+			public Map<String, Object> get() {
+				return db.select(location, columns, whereStatement, whereObjects);
+			}
+		});
+	}
+	
+	public CompletableFuture<ArrayList<HashMap<String, Object>>> selectMany(final String location, final String whereStatement, final Object[] whereObjects) {
+		return submit(new Supplier<ArrayList<HashMap<String, Object>>>() {
+			public ArrayList<HashMap<String, Object>> get() {
+				return db.selectMany(location, whereStatement, whereObjects);
+			}
+		});
+	}
+	
+	public CompletableFuture<ArrayList<Map<String, Object>>> selectMany(final String location, final String[] columns, final String whereStatement, final Object[] whereObjects) {
+		return submit(new Supplier<ArrayList<Map<String, Object>>>() {
+			public ArrayList<Map<String, Object>> get() {
+				return db.selectMany(location, columns, whereStatement, whereObjects);
+			}
+		});
+	}
+	
+	public CompletableFuture<ArrayList<HashMap<String, Object>>> selectAll(final String location) {
+		return submit(new Supplier<ArrayList<HashMap<String, Object>>>() {
+			public ArrayList<HashMap<String, Object>> get() {
+				return db.selectAll(location);
+			}
+		});
+	}
+	
+	public CompletableFuture<ArrayList<Map<String, Object>>> selectAll(final String location, final String[] columns) {
+		return submit(new Supplier<ArrayList<Map<String, Object>>>() {
+			public ArrayList<Map<String, Object>> get() {
+				return db.selectAll(location, columns);
+			}
+		});
+	}
+	
+	public CompletableFuture<Page> selectPage(final String location, final String whereStatement, final Object[] whereObjects, final String orderColumn, final Object after, final int pageSize) {
+		return submit(new Supplier<Page>() {
+			public Page get() {
+				return db.selectPage(location, whereStatement, whereObjects, orderColumn, after, pageSize);
+			}
+		});
+	}
+	
+	public CompletableFuture<Page> selectAllPage(final String location, final String orderColumn, final Object after, final int pageSize) {
+		return submit(new Supplier<Page>() {
+			public Page get() {
+				return db.selectAllPage(location, orderColumn, after, pageSize);
+			}
+		});
+	}
+	
+	public CompletableFuture<Boolean> authenticate(final User user) {
+		return submit(new Supplier<Boolean>() {
+			public Boolean get() {
+				return db.authenticate(user);
+			}
+		});
+	}
+	
+	public CompletableFuture<Boolean> delete(final String location, final String whereStatement, final Object[] whereObjects) {
+		return submit(new Supplier<Boolean>() {
+			public Boolean get() {
+				return db.delete(location, whereStatement, whereObjects);
+			}
+		});
+	}
+	
+	public CompletableFuture<Boolean> insert(final String location, final String[] fieldNames, final Object[] values) {
+		return submit(new Supplier<Boolean>() {
+			public Boolean get() {
+				return db.insert(location, fieldNames, values);
+			}
+		});
+	}
+	
+	public CompletableFuture<Object> insertAndReturn(final String location, final String[] fieldNames, final Object[] values, final String columnToReturn) {
+		return submit(new Supplier<Object>() {
+			public Object get() {
+				return db.insertAndReturn(location, fieldNames, values, columnToReturn);
+			}
+		});
+	}
+	
+	public CompletableFuture<int[]> insertBatch(final String location, final String[] fieldNames, final List<Object[]> rows) {
+		return submit(new Supplier<int[]>() {
+			public int[] get() {
+				return db.insertBatch(location, fieldNames, rows);
+			}
+		});
+	}
+	
+	public CompletableFuture<ArrayList<Object>> insertBatchAndReturn(final String location, final String[] fieldNames, final List<Object[]> rows, final String columnToReturn) {
+		return submit(new Supplier<ArrayList<Object>>() {
+			public ArrayList<Object> get() {
+				return db.insertBatchAndReturn(location, fieldNames, rows, columnToReturn);
+			}
+		});
+	}
+	
+	public CompletableFuture<Boolean> update(final String location, final String setStatement, final Object[] setObjects, final String whereStatement, final Object[] whereObjects) {
+		return submit(new Supplier<Boolean>() {
+			public Boolean get() {
+				return db.update(location, setStatement, setObjects, whereStatement, whereObjects);
+			}
+		});
+	}
+	
+	public CompletableFuture<Integer> count(final String location, final String whereStatement, final Object[] whereObjects) {
+		return submit(new Supplier<Integer>() {
+			public Integer get() {
+				return db.count(location, whereStatement, whereObjects);
+			}
+		});
+	}
+	
+	public CompletableFuture<Boolean> exists(final String location, final String whereStatement, final Object[] whereObjects) {
+		return submit(new Supplier<Boolean>() {
+			public Boolean get() {
+				return db.exists(location, whereStatement, whereObjects);
+			}
+		});
+	}
+	
+	public CompletableFuture<Boolean> usernameExists(final String username) {
+		return submit(new Supplier<Boolean>() {
+			public Boolean get() {
+				return db.usernameExists(username);
+			}
+		});
+	}
+	
+	public CompletableFuture<Boolean> emailExists(final String email) {
+		return submit(new Supplier<Boolean>() {
+			public Boolean get() {
+				return db.emailExists(email);
+			}
+		});
+	}
+	
+	public CompletableFuture<Integer> insertUser(final User user) {
+		return submit(new Supplier<Integer>() {
+			public Integer get() {
+				return db.insertUser(user);
+			}
+		});
+	}
+	
+	public CompletableFuture<User> getUserbyID(final UUID userID) {
+		return submit(new Supplier<User>() {
+			public User get() {
+				return db.getUserbyID(userID);
+			}
+		});
+	}
+	
+	public CompletableFuture<User> getUserbyUsername(final String username) {
+		return submit(new Supplier<User>() {
+			public User get() {
+				return db.getUserbyUsername(username);
+			}
+		});
+	}
+	
+	public CompletableFuture<Map<UUID, User>> getUsersByIds(final Collection<UUID> userIDs) {
+		return submit(new Supplier<Map<UUID, User>>() {
+			public Map<UUID, User> get() {
+				return db.getUsersByIds(userIDs);
+			}
+		});
+	}
+	
+	public CompletableFuture<Map<String, User>> getUsersByUsernames(final Collection<String> usernames) {
+		return submit(new Supplier<Map<String, User>>() {
+			public Map<String, User> get() {
+				return db.getUsersByUsernames(usernames);
+			}
+		});
+	}
+}
@@ -0,0 +1,136 @@
+package service;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A thread-safe Bloom filter of Strings.
+ * 
+ * `mightContain` never returns false for a String that was added, but may
+ * return true for one that wasn't (with roughly the configured probability
+ * once `expectedInsertions` Strings have been added).
+ */
+public class BloomFilter {
+	private final AtomicLongArray bits;
+	private final long            bitCount;
+	private final int             hashCount;
+	private final double          falsePositiveRate;
+	
+	private final AtomicLong insertions = new AtomicLong();
+	
+	/**
+	 * @param expectedInsertions - How many Strings the filter is sized for
+	 * @param falsePositiveRate  - The false positive rate wanted at that size (e.g. 0.01)
+	 */
+	public BloomFilter(long expectedInsertions, double falsePositiveRate) {
+		expectedInsertions = Math.max(1, expectedInsertions);
+		
+		// The optimal size and number of hashes for n insertions at a rate of p:
+		//
+		//     m = -n ln(p) / ln(2)^2
+		//     k = m / n ln(2)
+		long m = (long)Math.ceil(-expectedInsertions * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+		
+		bits                   = new AtomicLongArray((int)Math.max(1, (m + 63) / 64));
+		bitCount               = bits.length() * 64L;
+		hashCount              = Math.max(1, (int)Math.round((double)bitCount / expectedInsertions * Math.log(2)));
+		this.falsePositiveRate = falsePositiveRate;
+	}
+	
+	/**
+	 * @param value - The String to add (null is ignored)
+	 */
+	public void add(String value) {
+		if (value == null)
+			return;
+		
+		long h1 = hash(value);
+		long h2 = mix(h1 ^ 0x9E3779B97F4A7C15L) | 1;
+		
+		for (int i = 0; i < hashCount; i++) {
+			long bit = Math.floorMod(h1 + i * h2, bitCount);
+			
+			int  index = (int)(bit >>> 6);
+			long mask  = 1L << bit;
+			
+			long word;
+			
+			while (((word = bits.get(index)) & mask) == 0) {
+				if (bits.compareAndSet(index, word, word | mask))
+					break;
+			}
+		}
+		
+		insertions.incrementAndGet();
+	}
+	
+	/**
+	 * @param value - The String to check for
+	 * 
+	 * @return False if the String was definitely never added, true if it might have been
+	 */
+	public boolean mightContain(String value) {
+		if (value == null)
+			return false;
+		
+		long h1 = hash(value);
+		long h2 = mix(h1 ^ 0x9E3779B97F4A7C15L) | 1;
+		
+		for (int i = 0; i < hashCount; i++) {
+			long bit = Math.floorMod(h1 + i * h2, bitCount);
+			
+			if ((bits.get((int)(bit >>> 6)) & (1L << bit)) == 0)
+				return false;
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * 64-bit FNV-1a over the String's characters, then mixed.
+	 */
+	private static long hash(String value) {
+		long h = 0xCBF29CE484222325L;
+		
+		for (int i = 0; i < value.length(); i++) {
+			h ^= value.charAt(i);
+			h *= 0x100000001B3L;
+		}
+		
+		return mix(h);
+	}
+	
+	/**
+	 * MurmurHash3's 64-bit finalizer.
+	 */
+	private static long mix(long h) {
+		h ^= h >>> 33;
+		h *= 0xFF51AFD7ED558CCDL;
+		h ^= h >>> 33;
+		h *= 0xC4CEB9FE1A85EC53L;
+		h ^= h >>> 33;
+		
+		return h;
+	}
+	
+	/**
+	 * @return The false positive rate the filter was sized for
+	 */
+	public double getFalsePositiveRate() {
+		return falsePositiveRate;
+	}
+	
+	/**
+	 * @return The false positive rate expected for the number of Strings added so far
+	 */
+	public double getExpectedFalsePositiveRate() {
+		return Math.pow(1 - Math.exp(-(double)hashCount * insertions.get() / bitCount), hashCount);
+	}
+	
+	/**
+	 * @return How many Strings have been added (counting duplicates)
+	 */
+	public long getInsertions() {
+		return insertions.get();
+	}
+}
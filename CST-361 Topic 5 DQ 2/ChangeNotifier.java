@@ -0,0 +1,492 @@
+package service;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+
+/**
+ * Tells the other app nodes when a table changes, so they can drop what they've
+ * cached from it, using PostgreSQL's `LISTEN`/`NOTIFY`.
+ * 
+ * DBService publishes a notification on the writing connection whenever it writes
+ * to a watched table (one with a listener). Inside a transaction, Postgres only
+ * delivers it if the transaction commits. Each node keeps one dedicated connection
+ * listening on the channel, and a background thread hands every notification from
+ * another node to the listeners registered for its table. A node's own writes are
+ * skipped, as DBService already invalidates its local caches.
+ * 
+ * If the listening connection is lost, notifications sent in the meantime are
+ * missed, so every listener is called with an UNKNOWN change once it reconnects.
+ * 
+ * The payload is `[node ID]|[location]|[operation]|[rows]|[values]`, where the
+ * rows and values are `column=value` pairs separated by `,` (with `\`, `|`, `,`
+ * and `=` escaped by a `\`), or `*` if they aren't known. Postgres limits a
+ * payload to 8000 bytes, so a change whose pairs don't fit is sent without them.
+ */
+public class ChangeNotifier {
+	
+	/**
+	 * Receives the changes to a table made by other nodes.
+	 */
+	public interface Listener {
+		
+		/**
+		 * Called on the notifier's thread, so it shouldn't block.
+		 * 
+		 * @param change - What changed
+		 */
+		public void changed(Change change);
+	}
+	
+	// Operations
+	public static final char INSERT  = 'I';
+	public static final char UPDATE  = 'U';
+	public static final char DELETE  = 'D';
+	public static final char UNKNOWN = '?';
+	
+	/**
+	 * A write to a table. The rows and values are `{ column, value }` pairs of
+	 * whichever columns the writer sends (DBService sends "UserID", "Username"
+	 * and "Email").
+	 */
+	public static final class Change {
+		
+		// The table that changed (as built by `createLocation`)
+		public final String location;
+		
+		// INSERT, UPDATE or DELETE, or UNKNOWN if anything may have changed
+		public final char operation;
+		
+		// Identify every row that changed, or null if any row may have
+		public final List<String[]> rows;
+		
+		// The values written, or null if they aren't known
+		public final List<String[]> values;
+		
+		Change(String location, char operation, List<String[]> rows, List<String[]> values) {
+			this.location  = location;
+			this.operation = operation;
+			this.rows      = rows;
+			this.values    = values;
+		}
+	}
+	
+	static final String CHANNEL = "polyopus_changes";
+	
+	private static final String NOTIFY = "SELECT pg_notify('" + CHANNEL + "', ?)";
+	
+	// Identifies this process, so it can skip its own notifications
+	private static final String NODE_ID = UUID.randomUUID().toString();
+	private static final String OWN     = NODE_ID + '|';
+	
+	// The longest payload Postgres accepts, in bytes
+	private static final int MAX_PAYLOAD = 7999;
+	
+	// How long (ms) the listener waits for notifications before checking whether it's been closed
+	private static final int POLL_TIMEOUT = 500;
+	
+	// How long (ms) to wait before reconnecting, doubling after each failure
+	private static final long MIN_RECONNECT_DELAY = 1000;
+	private static final long MAX_RECONNECT_DELAY = 30000;
+	
+	private static final ConcurrentHashMap<String, ChangeNotifier> instances = new ConcurrentHashMap<String, ChangeNotifier>();
+	
+	private final String     url;
+	private final Properties properties;
+	
+	private final ConcurrentHashMap<String, Set<Listener>> listeners = new ConcurrentHashMap<String, Set<Listener>>();
+	
+	private final Thread     listenerThread;
+	private volatile boolean closed;
+	private volatile boolean listening;
+	
+	private final AtomicLong published  = new AtomicLong();
+	private final AtomicLong received   = new AtomicLong();
+	private final AtomicLong reconnects = new AtomicLong();
+	
+	/**
+	 * Creates a notifier and starts listening.
+	 * 
+	 * @param url      - The JDBC url of the primary
+	 * @param username - The database user
+	 * @param password - The database user's password
+	 */
+	public ChangeNotifier(String url, String username, String password) {
+		this.url = url;
+		
+		properties = new Properties();
+		properties.setProperty("user",     username);
+		properties.setProperty("password", password);
+		
+		listenerThread = new Thread(new Runnable() {
+			public void run() {
+				listen();
+			}
+		}, "ChangeNotifier-listener");
+		
+		listenerThread.setDaemon(true);
+		listenerThread.start();
+	}
+	
+	/**
+	 * Gets the shared notifier for a database and user, creating it on first use.
+	 * 
+	 * @param url      - The JDBC url of the primary
+	 * @param username - The database user
+	 * @param password - The database user's password
+	 * 
+	 * @return The notifier
+	 */
+	public static ChangeNotifier getInstance(String url, String username, String password) {
+		String key = username + '@' + url;
+		
+		ChangeNotifier notifier = instances.get(key);
+		
+		if (notifier == null) {
+			synchronized (instances) {
+				notifier = instances.get(key);
+				
+				if (notifier == null) {
+					notifier = new ChangeNotifier(url, username, password);
+					instances.put(key, notifier);
+				}
+			}
+		}
+		
+		return notifier;
+	}
+	
+	/**
+	 * Registers a listener for a table, which also makes DBService publish its changes.
+	 * Adding the same listener twice does nothing.
+	 * 
+	 * @param location - The table (use `createLocation`)
+	 * @param listener - The listener
+	 */
+	public void addListener(String location, Listener listener) {
+		Set<Listener> set = listeners.get(location);
+		
+		if (set == null) {
+			listeners.putIfAbsent(location, new CopyOnWriteArraySet<Listener>());
+			set = listeners.get(location);
+		}
+		
+		set.add(listener);
+	}
+	
+	public void removeListener(String location, Listener listener) {
+		Set<Listener> set = listeners.get(location);
+		
+		if (set != null)
+			set.remove(listener);
+	}
+	
+	/**
+	 * @return Whether any listener wants to hear about changes to a table
+	 */
+	boolean isWatched(String location) {
+		Set<Listener> set = listeners.get(location);
+		
+		return set != null && !set.isEmpty();
+	}
+	
+	/**
+	 * Publishes a change on the connection that made it. Inside a transaction it's
+	 * only delivered if the transaction commits.
+	 * 
+	 * @param conn   - The connection the change was written on
+	 * @param change - The change
+	 * 
+	 * @throws SQLException If the notification couldn't be sent
+	 */
+	void publish(PooledConnection conn, Change change) throws SQLException {
+		String head    = OWN + escape(change.location) + '|' + change.operation + '|';
+		String payload = head + pairs(change.rows) + '|' + pairs(change.values);
+		
+		// Too big to send, so the other nodes will have to assume anything changed
+		if (payload.length() > MAX_PAYLOAD / 3 && payload.getBytes(StandardCharsets.UTF_8).length > MAX_PAYLOAD)
+			payload = head + "*|*";
+		
+		PreparedStatement stmt = conn.prepare(NOTIFY);
+		
+		stmt.setString(1, payload);
+		
+		ResultSet res = stmt.executeQuery();
+		res.close();
+		
+		published.incrementAndGet();
+	}
+	
+	/**
+	 * @return The pairs as `column=value,...`, or `*` if they're null
+	 */
+	private static String pairs(List<String[]> pairs) {
+		if (pairs == null)
+			return "*";
+		
+		StringBuilder b = new StringBuilder();
+		
+		for (String[] pair : pairs) {
+			if (b.length() != 0)
+				b.append(',');
+			
+			b.append(escape(pair[0])).append('=').append(escape(pair[1]));
+		}
+		
+		return b.toString();
+	}
+	
+	private static String escape(String text) {
+		StringBuilder b = new StringBuilder(text.length());
+		
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			
+			if (c == '\\' || c == '|' || c == ',' || c == '=')
+				b.append('\\');
+			
+			b.append(c);
+		}
+		
+		return b.toString();
+	}
+	
+	private static String unescape(String text) {
+		StringBuilder b = new StringBuilder(text.length());
+		
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			
+			if (c == '\\' && i + 1 < text.length())
+				c = text.charAt(++i);
+			
+			b.append(c);
+		}
+		
+		return b.toString();
+	}
+	
+	/**
+	 * Splits text on a separator, skipping escaped ones. The parts are left escaped.
+	 */
+	private static List<String> split(String text, char separator) {
+		ArrayList<String> parts = new ArrayList<String>();
+		
+		int start = 0;
+		
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			
+			if (c == '\\')
+				i++;
+			
+			else if (c == separator) {
+				parts.add(text.substring(start, i));
+				start = i + 1;
+			}
+		}
+		
+		parts.add(text.substring(start));
+		
+		return parts;
+	}
+	
+	/**
+	 * @return The pairs written by `pairs`, or null for `*`
+	 */
+	private static List<String[]> parsePairs(String text) {
+		if ("*".equals(text))
+			return null;
+		
+		ArrayList<String[]> pairs = new ArrayList<String[]>();
+		
+		if (text.isEmpty())
+			return pairs;
+		
+		for (String pair : split(text, ',')) {
+			List<String> parts = split(pair, '=');
+			
+			if (parts.size() != 2)
+				return null;
+			
+			pairs.add(new String[] { unescape(parts.get(0)), unescape(parts.get(1)) });
+		}
+		
+		return pairs;
+	}
+	
+	/**
+	 * Keeps a connection listening on the channel and dispatches what arrives, until closed.
+	 */
+	private void listen() {
+		Connection conn  = null;
+		long       delay = MIN_RECONNECT_DELAY;
+		
+		// Whether a connection has been lost, so there may be changes that were never heard about
+		boolean missed = false;
+		
+		while (!closed) {
+			try {
+				if (conn == null) {
+					conn = DriverManager.getConnection(url, properties);
+					
+					Statement stmt = conn.createStatement();
+					stmt.execute("LISTEN " + CHANNEL);
+					stmt.close();
+					
+					listening = true;
+					delay     = MIN_RECONNECT_DELAY;
+					
+					if (missed) {
+						for (String location : listeners.keySet())
+							dispatch(new Change(location, UNKNOWN, null, null));
+						
+						missed = false;
+					}
+				}
+				
+				PGNotification[] notifications = conn.unwrap(PGConnection.class).getNotifications(POLL_TIMEOUT);
+				
+				if (notifications == null)
+					continue;
+				
+				for (PGNotification notification : notifications)
+					received(notification.getParameter());
+			}
+			
+			catch (SQLException e) {
+				e.printStackTrace();
+				
+				listening = false;
+				missed    = true;
+				
+				close(conn);
+				conn = null;
+				
+				reconnects.incrementAndGet();
+				
+				try {
+					Thread.sleep(delay);
+				}
+				
+				catch (InterruptedException interrupted) {
+					return;
+				}
+				
+				delay = Math.min(delay * 2, MAX_RECONNECT_DELAY);
+			}
+		}
+		
+		listening = false;
+		close(conn);
+	}
+	
+	private void received(String payload) {
+		List<String> parts = split(payload, '|');
+		
+		// Not one of ours, or this node's own write
+		if (parts.size() < 2 || payload.startsWith(OWN))
+			return;
+		
+		received.incrementAndGet();
+		
+		String location = unescape(parts.get(1));
+		
+		// Only the location (e.g. from a node that hasn't been upgraded), so anything may have changed
+		if (parts.size() != 5 || parts.get(2).length() != 1) {
+			dispatch(new Change(location, UNKNOWN, null, null));
+			
+			return;
+		}
+		
+		dispatch(new Change(location, parts.get(2).charAt(0), parsePairs(parts.get(3)), parsePairs(parts.get(4))));
+	}
+	
+	private void dispatch(Change change) {
+		Set<Listener> set = listeners.get(change.location);
+		
+		if (set == null)
+			return;
+		
+		for (Listener listener : set) {
+			try {
+				listener.changed(change);
+			}
+			
+			catch (RuntimeException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+	
+	private static void close(Connection conn) {
+		try {
+			if (conn != null)
+				conn.close();
+		}
+		
+		catch (SQLException e) {
+			// Nothing more can be done with a connection that failed to close
+		}
+	}
+	
+	/**
+	 * Stops listening and closes the listening connection.
+	 */
+	public void close() {
+		closed = true;
+		
+		instances.values().remove(this);
+		
+		try {
+			listenerThread.join();
+		}
+		
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	/**
+	 * @return Whether the listening connection is up
+	 */
+	public boolean isListening() {
+		return listening;
+	}
+	
+	/**
+	 * @return How many notifications this node sent
+	 */
+	public long getPublished() {
+		return published.get();
+	}
+	
+	/**
+	 * @return How many notifications from other nodes this node received
+	 */
+	public long getReceived() {
+		return received.get();
+	}
+	
+	/**
+	 * @return How many times the listening connection was lost
+	 */
+	public long getReconnects() {
+		return reconnects.get();
+	}
+}
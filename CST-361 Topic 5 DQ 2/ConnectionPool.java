@@ -0,0 +1,465 @@
+package service;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.Iterator;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded JDBC connection pool.
+ * 
+ * Connections are created lazily up to `maxSize`, kept warm down to `minSize`,
+ * validated before being handed out, and evicted once they've sat idle for
+ * longer than `idleTimeout`. When leak detection is on (`leakThreshold` > 0),
+ * a background housekeeper also reports any connection that has been borrowed
+ * for longer than `leakThreshold`. Where it was borrowed is only included if
+ * `traceBorrows` is on, as that costs a stack trace on every borrow.
+ * 
+ * There is one pool per (url, username), shared by every DBService instance
+ * (see `getInstance`).
+ */
+public class ConnectionPool {
+	private static final ConcurrentHashMap<String, ConnectionPool> instances = new ConcurrentHashMap<String, ConnectionPool>();
+	
+	private final String     url;
+	private final Properties properties;
+	
+	private final int  minSize;
+	private final int  maxSize;
+	private final long acquireTimeout;
+	private final long idleTimeout;
+	private final long leakThreshold;
+	private final int  validationTimeout;
+	
+	// Whether to record a stack trace on every borrow for the leak reports
+	private final boolean traceBorrows;
+	private final int  statementCacheSize;
+	
+	// Idle connections, most recently returned first
+	private final LinkedBlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<PooledConnection>();
+	
+	// Every connection currently handed out
+	private final ConcurrentHashMap<PooledConnection, Boolean> borrowed = new ConcurrentHashMap<PooledConnection, Boolean>();
+	
+	// One permit per connection that may still be handed out
+	private final Semaphore permits;
+	
+	private final AtomicInteger size = new AtomicInteger();
+	
+	private final ScheduledExecutorService housekeeper;
+	
+	// Metrics
+	private final AtomicLong borrowCount    = new AtomicLong();
+	private final AtomicLong waitNanosTotal = new AtomicLong();
+	private final AtomicLong waitNanosMax   = new AtomicLong();
+	private final AtomicLong timeoutCount   = new AtomicLong();
+	private final AtomicLong createdCount   = new AtomicLong();
+	private final AtomicLong destroyedCount = new AtomicLong();
+	private final AtomicLong invalidCount   = new AtomicLong();
+	private final AtomicLong leakCount      = new AtomicLong();
+	
+	private final AtomicLong statementHits      = new AtomicLong();
+	private final AtomicLong statementMisses    = new AtomicLong();
+	private final AtomicLong statementEvictions = new AtomicLong();
+	
+	/**
+	 * Creates a pool.
+	 * 
+	 * @param url                - The JDBC url to connect to
+	 * @param username           - The database user
+	 * @param password           - The database user's password
+	 * @param minSize            - Connections to keep open even when idle
+	 * @param maxSize            - The most connections that may be open at once
+	 * @param acquireTimeout     - How long (ms) `borrow` waits for a free connection before failing
+	 * @param idleTimeout        - How long (ms) a connection above `minSize` may sit idle before being closed
+	 * @param leakThreshold      - How long (ms) a connection may be borrowed before being reported as leaked, or 0 to not check
+	 * @param traceBorrows       - Whether leak reports say where the connection was borrowed (a stack trace per borrow)
+	 * @param validationTimeout  - How long (s) to wait on `Connection.isValid` when borrowing
+	 * @param statementCacheSize - How many prepared statements to cache per connection
+	 */
+	public ConnectionPool(String url, String username, String password,
+						  int minSize, int maxSize,
+						  long acquireTimeout, long idleTimeout, long leakThreshold, boolean traceBorrows, int validationTimeout,
+						  int statementCacheSize) {
+		if (minSize < 0 || maxSize < 1 || minSize > maxSize)
+			throw new IllegalArgumentException("Invalid pool size: min=" + minSize + ", max=" + maxSize);
+		
+		this.url                = url;
+		this.minSize            = minSize;
+		this.maxSize            = maxSize;
+		this.acquireTimeout     = acquireTimeout;
+		this.idleTimeout        = idleTimeout;
+		this.leakThreshold      = leakThreshold;
+		this.traceBorrows       = traceBorrows;
+		this.validationTimeout  = validationTimeout;
+		this.statementCacheSize = statementCacheSize;
+		
+		properties = new Properties();
+		properties.setProperty("user",     username);
+		properties.setProperty("password", password);
+		
+		// Have the driver use a named server-side statement from the first execution
+		// of a cached statement, so Postgres only parses and plans it once
+		properties.setProperty("prepareThreshold", "1");
+		
+		// Send JDBC batches of inserts as multi-row `VALUES`
+		properties.setProperty("reWriteBatchedInserts", "true");
+		
+		permits = new Semaphore(maxSize, true);
+		
+		housekeeper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "ConnectionPool-housekeeper");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		
+		long period = Math.max(1000, (leakThreshold > 0 ? Math.min(idleTimeout, leakThreshold) : idleTimeout) / 2);
+		
+		housekeeper.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				housekeep();
+			}
+		}, period, period, TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * Gets the shared pool for the given credentials, creating it with the
+	 * default settings on first use. Connections borrowed for longer than four
+	 * times the acquire timeout are reported as leaks (the
+	 * `polyopus.db.leakThresholdMillis` system property changes that, or 0 turns
+	 * it off). Reports only say where the connection was borrowed when the
+	 * `polyopus.db.traceBorrows` system property is set.
+	 * 
+	 * @param url      - The JDBC url to connect to
+	 * @param username - The database user
+	 * @param password - The database user's password
+	 * 
+	 * @return The pool
+	 */
+	public static ConnectionPool getInstance(final String url, final String username, final String password) {
+		String key = username + '@' + url;
+		
+		ConnectionPool pool = instances.get(key);
+		
+		if (pool == null) {
+			synchronized (instances) {
+				pool = instances.get(key);
+				
+				if (pool == null) {
+					pool = new ConnectionPool(url, username, password,
+											  2, 20,
+											  30000, 600000, Long.getLong("polyopus.db.leakThresholdMillis", 4 * 30000),
+											  Boolean.getBoolean("polyopus.db.traceBorrows"), 5,
+											  64);
+					instances.put(key, pool);
+				}
+			}
+		}
+		
+		return pool;
+	}
+	
+	/**
+	 * Borrows a connection from the pool, waiting up to `acquireTimeout` for
+	 * one to become free. Every borrowed connection MUST be given back through
+	 * `release`, preferably in a `finally` block.
+	 * 
+	 * @return A validated connection
+	 * 
+	 * @throws SQLException If no connection could be acquired in time or a new one could not be opened
+	 */
+	public PooledConnection borrow() throws SQLException {
+		long start = System.nanoTime();
+		
+		try {
+			if (!permits.tryAcquire(acquireTimeout, TimeUnit.MILLISECONDS)) {
+				timeoutCount.incrementAndGet();
+				
+				throw new SQLTimeoutException("Timed out after " + acquireTimeout + "ms waiting for a connection to " + url);
+			}
+		}
+		
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			
+			throw new SQLException("Interrupted while waiting for a connection", e);
+		}
+		
+		try {
+			PooledConnection conn;
+			
+			// Reuse an idle connection if a valid one exists, otherwise open a new one
+			while ((conn = idle.pollFirst()) != null) {
+				if (conn.getConnection().isValid(validationTimeout))
+					break;
+				
+				invalidCount.incrementAndGet();
+				destroy(conn);
+			}
+			
+			if (conn == null)
+				conn = create();
+			
+			conn.lease(traceBorrows && leakThreshold > 0);
+			borrowed.put(conn, Boolean.TRUE);
+			
+			recordWait(System.nanoTime() - start);
+			
+			return conn;
+		}
+		
+		catch (SQLException e) {
+			permits.release();
+			
+			throw e;
+		}
+	}
+	
+	/**
+	 * Returns a connection to the pool. Any open transaction is rolled back,
+	 * and connections that are closed or broken are discarded.
+	 * 
+	 * @param conn - The connection to return (null is ignored)
+	 */
+	public void release(PooledConnection conn) {
+		if (conn == null || borrowed.remove(conn) == null)
+			return;
+		
+		try {
+			Connection c = conn.getConnection();
+			
+			if (c.isClosed()) {
+				destroy(conn);
+			}
+			
+			else {
+				if (!c.getAutoCommit()) {
+					c.rollback();
+					c.setAutoCommit(true);
+				}
+				
+				conn.touch();
+				idle.offerFirst(conn);
+			}
+		}
+		
+		catch (SQLException e) {
+			e.printStackTrace();
+			destroy(conn);
+		}
+		
+		finally {
+			permits.release();
+		}
+	}
+	
+	/**
+	 * Closes every idle connection and stops the housekeeper. Borrowed
+	 * connections are closed as they're returned.
+	 */
+	public void close() {
+		housekeeper.shutdownNow();
+		
+		PooledConnection conn;
+		
+		while ((conn = idle.pollFirst()) != null)
+			destroy(conn);
+	}
+	
+	private PooledConnection create() throws SQLException {
+		Connection conn = DriverManager.getConnection(url, properties);
+		
+		size.incrementAndGet();
+		createdCount.incrementAndGet();
+		
+		return new PooledConnection(conn, this, statementCacheSize);
+	}
+	
+	private void destroy(PooledConnection conn) {
+		size.decrementAndGet();
+		destroyedCount.incrementAndGet();
+		
+		conn.closeStatements();
+		
+		try {
+			conn.getConnection().close();
+		}
+		
+		catch (SQLException e) {
+			// Nothing more can be done with a connection that failed to close
+		}
+	}
+	
+	private void recordWait(long nanos) {
+		borrowCount.incrementAndGet();
+		waitNanosTotal.addAndGet(nanos);
+		
+		long max;
+		
+		while (nanos > (max = waitNanosMax.get()))
+			if (waitNanosMax.compareAndSet(max, nanos))
+				break;
+	}
+	
+	/**
+	 * Evicts idle connections above `minSize`, tops the pool back up to
+	 * `minSize`, and reports leaked connections.
+	 */
+	private void housekeep() {
+		long now = System.currentTimeMillis();
+		
+		// The oldest idle connections sit at the end of the deque
+		Iterator<PooledConnection> it = idle.descendingIterator();
+		
+		while (it.hasNext() && size.get() > minSize) {
+			PooledConnection conn = it.next();
+			
+			if (now - conn.getLastUsed() > idleTimeout && idle.remove(conn))
+				destroy(conn);
+		}
+		
+		try {
+			while (size.get() < minSize)
+				idle.offerLast(create());
+		}
+		
+		catch (SQLException e) {
+			e.printStackTrace();
+		}
+		
+		for (PooledConnection conn : borrowed.keySet()) {
+			if (leakThreshold > 0 && !conn.isReportedLeak() && now - conn.getBorrowedAt() > leakThreshold) {
+				conn.reportLeak();
+				leakCount.incrementAndGet();
+				
+				Throwable trace = conn.getBorrowTrace();
+				
+				System.err.println("Possible connection leak: a connection to " + url + " has been borrowed for "
+								   + (now - conn.getBorrowedAt()) + "ms. "
+								   + (trace != null ? "It was borrowed at:" : "Set polyopus.db.traceBorrows to see where it was borrowed."));
+				
+				if (trace != null)
+					trace.printStackTrace();
+			}
+		}
+	}
+	
+	public int getMinSize() {
+		return minSize;
+	}
+	
+	public int getMaxSize() {
+		return maxSize;
+	}
+	
+	/**
+	 * @return The number of connections currently open (idle and borrowed)
+	 */
+	public int getSize() {
+		return size.get();
+	}
+	
+	public int getIdleCount() {
+		return idle.size();
+	}
+	
+	public int getBorrowedCount() {
+		return borrowed.size();
+	}
+	
+	/**
+	 * @return The number of threads currently waiting for a connection
+	 */
+	public int getWaitingCount() {
+		return permits.getQueueLength();
+	}
+	
+	public long getBorrowCount() {
+		return borrowCount.get();
+	}
+	
+	/**
+	 * @return The average time (ns) callers waited in `borrow`
+	 */
+	public long getAverageWaitNanos() {
+		long count = borrowCount.get();
+		
+		return count == 0 ? 0 : waitNanosTotal.get() / count;
+	}
+	
+	/**
+	 * @return The longest time (ns) a caller waited in `borrow`
+	 */
+	public long getMaxWaitNanos() {
+		return waitNanosMax.get();
+	}
+	
+	public long getTimeoutCount() {
+		return timeoutCount.get();
+	}
+	
+	public long getCreatedCount() {
+		return createdCount.get();
+	}
+	
+	public long getDestroyedCount() {
+		return destroyedCount.get();
+	}
+	
+	/**
+	 * @return The number of idle connections that failed validation on borrow
+	 */
+	public long getInvalidCount() {
+		return invalidCount.get();
+	}
+	
+	public long getLeakCount() {
+		return leakCount.get();
+	}
+	
+	void statementHit() {
+		statementHits.incrementAndGet();
+	}
+	
+	void statementMiss() {
+		statementMisses.incrementAndGet();
+	}
+	
+	void statementEvicted() {
+		statementEvictions.incrementAndGet();
+	}
+	
+	/**
+	 * @return How many times a cached prepared statement was reused
+	 */
+	public long getStatementCacheHits() {
+		return statementHits.get();
+	}
+	
+	/**
+	 * @return How many times a statement had to be prepared because it wasn't cached
+	 */
+	public long getStatementCacheMisses() {
+		return statementMisses.get();
+	}
+	
+	/**
+	 * @return How many cached statements were closed to make room for others
+	 */
+	public long getStatementCacheEvictions() {
+		return statementEvictions.get();
+	}
+}
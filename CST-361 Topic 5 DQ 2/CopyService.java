@@ -0,0 +1,339 @@
+package service;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+import org.postgresql.copy.CopyOut;
+
+/**
+ * Bulk loads and exports tables with PostgreSQL's `COPY` protocol, which is
+ * far faster than even batched inserts for large imports and exports.
+ * 
+ * Rows are streamed in both directions: `copyIn` only pulls the next row from
+ * its iterator once the previous ones have been written to the server, and
+ * `copyOut` only reads the next row from the server once the handler has
+ * finished with the previous one. Neither side ever buffers the whole table.
+ * 
+ * Values use `COPY`'s text format, so they're sent as their `toString` and
+ * read back as Strings (nulls are kept as nulls).
+ */
+public class CopyService {
+	
+	/**
+	 * Receives the rows of a `copyOut`.
+	 */
+	public interface RowHandler {
+		
+		/**
+		 * @param values - The values of the row, in the same order as the field names
+		 */
+		public void row(String[] values);
+	}
+	
+	// How many bytes to buffer before sending them to the server
+	private static final int BUFFER_SIZE = 64 * 1024;
+	
+	// Shared by every CopyService (see `DBMetrics`)
+	private static final OperationMetrics copyInMetrics  = DBMetrics.getInstance().operation("copyIn");
+	private static final OperationMetrics copyOutMetrics = DBMetrics.getInstance().operation("copyOut");
+	
+	private final DBService db;
+	
+	/**
+	 * @param db - The DBService whose connections to use. Copies are admitted as
+	 *             AdmissionController.BULK calls, like the batch inserts.
+	 */
+	public CopyService(DBService db) {
+		this.db = db;
+	}
+	
+	/**
+	 * Loads rows into a table with `COPY ... FROM STDIN`.
+	 * The load is all-or-nothing: if any row fails, nothing is inserted.
+	 * 
+	 * @param location   - Schema and table to load into (use `createLocation`)
+	 * @param fieldNames - An array of the names of each field
+	 * @param rows       - The values of each row, in the same order as `fieldNames`
+	 * 
+	 * @return The number of rows loaded, or -1 on failure
+	 */
+	public long copyIn(String location, String[] fieldNames, Iterator<Object[]> rows) {
+		OperationMetrics.Call call = copyInMetrics.begin();
+		
+		String query = "COPY " + location + " (" + columns(fieldNames) + ") FROM STDIN";
+		
+		PooledConnection conn = null;
+		CopyIn           copy = null;
+		
+		try {
+			conn = db.acquire(call, AdmissionController.BULK);
+			
+			call.statement(query, null);
+			
+			copy = conn.getConnection().unwrap(PGConnection.class).getCopyAPI().copyIn(query);
+			
+			byte[]        buffer = new byte[BUFFER_SIZE];
+			int           length = 0;
+			StringBuilder line   = new StringBuilder();
+			
+			// The user table's Bloom filters need to hear about every username and email
+			boolean users = DBService.USERS.equals(location);
+			
+			while (rows.hasNext()) {
+				Object[] values = rows.next();
+				
+				if (users)
+					UserFilter.getInstance().add(fieldNames, values);
+				
+				line.setLength(0);
+				
+				for (int i = 0; i < values.length; i++) {
+					if (i != 0)
+						line.append('\t');
+					
+					appendValue(line, values[i]);
+				}
+				
+				line.append('\n');
+				
+				byte[] bytes = line.toString().getBytes(StandardCharsets.UTF_8);
+				
+				// Send what's buffered once this row won't fit
+				if (length + bytes.length > buffer.length) {
+					copy.writeToCopy(buffer, 0, length);
+					length = 0;
+				}
+				
+				// Rows larger than the buffer are sent as they are
+				if (bytes.length > buffer.length) {
+					copy.writeToCopy(bytes, 0, bytes.length);
+				}
+				
+				else {
+					System.arraycopy(bytes, 0, buffer, length, bytes.length);
+					length += bytes.length;
+				}
+			}
+			
+			if (length > 0)
+				copy.writeToCopy(buffer, 0, length);
+			
+			long count = copy.endCopy();
+			copy = null;
+			
+			call.executed();
+			call.rows(count);
+			
+			// The rows are committed, so the user cache and the other nodes can hear about them
+			db.copied(conn, location);
+			
+			return count;
+		}
+		
+		catch (SQLException e) {
+			db.failed(call, e);
+		}
+		
+		finally {
+			cancel(copy);
+			db.release(conn);
+			call.end();
+		}
+		
+		return -1;
+	}
+	
+	/**
+	 * Exports a table's rows with `COPY ... TO STDOUT`, handing each row to the
+	 * handler as it arrives.
+	 * 
+	 * @param location   - Schema and table to export (use `createLocation`)
+	 * @param fieldNames - An array of the names of each field to export
+	 * @param handler    - Receives each row
+	 * 
+	 * @return The number of rows exported, or -1 on failure
+	 */
+	public long copyOut(String location, String[] fieldNames, RowHandler handler) {
+		OperationMetrics.Call call = copyOutMetrics.begin();
+		
+		String query = "COPY " + location + " (" + columns(fieldNames) + ") TO STDOUT";
+		
+		PooledConnection conn = null;
+		CopyOut          copy = null;
+		
+		try {
+			conn = db.acquireRead(call, AdmissionController.BULK);
+			
+			call.statement(query, null);
+			
+			copy = conn.getConnection().unwrap(PGConnection.class).getCopyAPI().copyOut(query);
+			call.executed();
+			
+			ArrayList<String> values = new ArrayList<String>(fieldNames.length);
+			StringBuilder     value  = new StringBuilder();
+			
+			long count = 0;
+			
+			byte[] data;
+			
+			// Postgres sends one row per message
+			while ((data = copy.readFromCopy()) != null) {
+				parseRow(new String(data, StandardCharsets.UTF_8), values, value);
+				
+				handler.row(values.toArray(new String[values.size()]));
+				
+				count++;
+			}
+			
+			copy = null;
+			call.rows(count);
+			
+			return count;
+		}
+		
+		catch (SQLException e) {
+			db.failed(call, e);
+		}
+		
+		finally {
+			cancel(copy);
+			db.release(conn);
+			call.end();
+		}
+		
+		return -1;
+	}
+	
+	/**
+	 * Creates the column list of a `COPY` statement.
+	 * NOTE THAT THE NAMES ARE NOT INJECTION SAFE!!!
+	 */
+	private static String columns(String[] fieldNames) {
+		StringBuilder b = new StringBuilder();
+		
+		for (int i = 0; i < fieldNames.length; i++) {
+			b.append('"' + fieldNames[i] + '"');
+			
+			if (i != fieldNames.length - 1)
+				b.append(',');
+		}
+		
+		return b.toString();
+	}
+	
+	/**
+	 * Appends a value in `COPY`'s text format.
+	 */
+	private static void appendValue(StringBuilder b, Object value) {
+		if (value == null) {
+			b.append("\\N");
+			
+			return;
+		}
+		
+		// bytea's hex format, with its backslash escaped
+		if (value instanceof byte[]) {
+			b.append("\\\\x");
+			
+			for (byte v : (byte[])value) {
+				b.append(Character.forDigit((v >> 4) & 0xF, 16));
+				b.append(Character.forDigit(v & 0xF, 16));
+			}
+			
+			return;
+		}
+		
+		String s = value.toString();
+		
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			
+			switch (c) {
+				case '\\': b.append("\\\\"); break;
+				case '\t': b.append("\\t");  break;
+				case '\n': b.append("\\n");  break;
+				case '\r': b.append("\\r");  break;
+				default:   b.append(c);
+			}
+		}
+	}
+	
+	/**
+	 * Splits a row in `COPY`'s text format into its values.
+	 * 
+	 * @param line   - The row (with or without its trailing newline)
+	 * @param values - Cleared, then filled with the row's values
+	 * @param value  - A scratch builder
+	 */
+	private static void parseRow(String line, ArrayList<String> values, StringBuilder value) {
+		values.clear();
+		value.setLength(0);
+		
+		int length = line.length();
+		
+		if (length > 0 && line.charAt(length - 1) == '\n')
+			length--;
+		
+		boolean isNull = false;
+		
+		for (int i = 0; i <= length; i++) {
+			
+			// End of a value
+			if (i == length || line.charAt(i) == '\t') {
+				values.add(isNull ? null : value.toString());
+				
+				value.setLength(0);
+				isNull = false;
+				
+				continue;
+			}
+			
+			char c = line.charAt(i);
+			
+			if (c != '\\' || i + 1 == length) {
+				value.append(c);
+				
+				continue;
+			}
+			
+			char next = line.charAt(++i);
+			
+			switch (next) {
+				case 'N': isNull = true;       break;
+				case 't': value.append('\t');  break;
+				case 'n': value.append('\n');  break;
+				case 'r': value.append('\r');  break;
+				case 'b': value.append('\b');  break;
+				case 'f': value.append('\f');  break;
+				case 'v': value.append('\u000B'); break;
+				default:  value.append(next);
+			}
+		}
+	}
+	
+	private static void cancel(CopyIn copy) {
+		try {
+			if (copy != null && copy.isActive())
+				copy.cancelCopy();
+		}
+		
+		catch (SQLException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	private static void cancel(CopyOut copy) {
+		try {
+			if (copy != null && copy.isActive())
+				copy.cancelCopy();
+		}
+		
+		catch (SQLException e) {
+			e.printStackTrace();
+		}
+	}
+}
@@ -1,8 +1,12 @@
 package service;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.stream.Stream;
 
 import javax.ejb.Local;
 
@@ -19,23 +23,43 @@ public interface DBInterface {
 	
 	public HashMap<String, Object> select(String location, String whereStatement, Object[] whereObjects);
 	public HashMap<String, Object> select(String location, String whereStatement, Object whereObject);
+	public Map<String, Object>     select(String location, String[] columns, String whereStatement, Object[] whereObjects);
 	
 	public ArrayList<HashMap<String, Object>> selectMany(String location, String whereStatement, Object[] whereObjects);
 	public ArrayList<HashMap<String, Object>> selectMany(String location, String whereStatement, Object value);
+	public ArrayList<Map<String, Object>>     selectMany(String location, String[] columns, String whereStatement, Object[] whereObjects);
 	
 	public ArrayList<HashMap<String, Object>> selectAll (String location);
+	public ArrayList<Map<String, Object>>     selectAll (String location, String[] columns);
+	
+	public Page selectPage   (String location, String whereStatement, Object[] whereObjects, String orderColumn, Object after, int pageSize);
+	public Page selectAllPage(String location, String orderColumn,    Object   after,        int    pageSize);
+	
+	public Stream<Map<String, Object>> stream   (String location, String whereStatement, Object[] whereObjects);
+	public Stream<Map<String, Object>> streamAll(String location);
 	
 	public boolean authenticate(User user);
 	
 	public boolean delete         (String location, String   whereStatement, Object[] whereObjects);
 	public boolean insert         (String location, String[] fieldNames,     Object[] values);
 	public Object  insertAndReturn(String location, String[] fieldNames,     Object[] values,     String columnToReturn);
+	
+	public int[]             insertBatch         (String location, String[] fieldNames, List<Object[]> rows);
+	public ArrayList<Object> insertBatchAndReturn(String location, String[] fieldNames, List<Object[]> rows, String columnToReturn);
+	
 	public boolean update         (String location, String   setStatement,   Object[] setObjects, String whereStatement, Object[] whereObjects);
 	public int     count          (String location, String   whereStatement, Object[] whereObjects);
+	public boolean exists         (String location, String   whereStatement, Object[] whereObjects);
+	
+	public <T> T transaction(UnitOfWork<T> work);
+	public <T> T transaction(UnitOfWork<T> work, boolean readOnly, int isolationLevel);
 	
 	public boolean  usernameExists   (String username);
 	public boolean  emailExists      (String email);
 	public int 	    insertUser       (User 	 user);
 	public User 	getUserbyID      (UUID 	 userID);
 	public User 	getUserbyUsername(String username);
+	
+	public Map<UUID, User>   getUsersByIds      (Collection<UUID>   userIDs);
+	public Map<String, User> getUsersByUsernames(Collection<String> usernames);
 }
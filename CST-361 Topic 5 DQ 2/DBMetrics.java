@@ -0,0 +1,187 @@
+package service;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * The metrics of every DBService operation, shared by every DBService.
+ * 
+ * Each operation is registered over JMX as `service:type=DBMetrics,operation=<name>`,
+ * and this as `service:type=DBMetrics`. `getSnapshot` gives the same numbers as
+ * text, one `name{labels} value` line per metric, for scraping.
+ */
+public class DBMetrics implements DBMetricsMBean {
+	private static DBMetrics instance;
+	
+	private static final String OBJECT_NAME = "service:type=DBMetrics";
+	
+	private static final double[] QUANTILES = { 0.5, 0.99, 0.999 };
+	
+	// Sorted so the snapshot is stable
+	private final ConcurrentSkipListMap<String, OperationMetrics> operations = new ConcurrentSkipListMap<String, OperationMetrics>();
+	
+	private final SlowQueryLog        slowQueries = SlowQueryLog.getInstance();
+	private final AdmissionController admission   = AdmissionController.getInstance();
+	
+	/**
+	 * @return The metrics shared by every DBService, registered over JMX
+	 */
+	public static synchronized DBMetrics getInstance() {
+		if (instance == null) {
+			instance = new DBMetrics();
+			
+			register(instance, OBJECT_NAME);
+		}
+		
+		return instance;
+	}
+	
+	/**
+	 * Gets the metrics of an operation, creating and registering them if needed.
+	 * 
+	 * @param name - The operation's name (e.g. `select`)
+	 * 
+	 * @return The operation's metrics
+	 */
+	public synchronized OperationMetrics operation(String name) {
+		OperationMetrics operation = operations.get(name);
+		
+		if (operation == null) {
+			operation = new OperationMetrics(name, slowQueries);
+			operations.put(name, operation);
+			
+			register(operation, OBJECT_NAME + ",operation=" + name);
+		}
+		
+		return operation;
+	}
+	
+	private static void register(Object mbean, String name) {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName  object = new ObjectName(name);
+			
+			// Another copy of this class (e.g. from a redeployed application) got there first
+			if (server.isRegistered(object))
+				server.unregisterMBean(object);
+			
+			server.registerMBean(mbean, object);
+		}
+		
+		catch (JMException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * @return The log of statements slower than its threshold
+	 */
+	public SlowQueryLog getSlowQueryLog() {
+		return slowQueries;
+	}
+	
+	public long getSlowQueries() {
+		return slowQueries.getRecorded();
+	}
+	
+	/**
+	 * @return Every operation's metrics, by name
+	 */
+	public Map<String, OperationMetrics> getOperations() {
+		return operations;
+	}
+	
+	public long getCalls() {
+		long calls = 0;
+		
+		for (OperationMetrics operation : operations.values())
+			calls += operation.getCalls();
+		
+		return calls;
+	}
+	
+	public long getErrors() {
+		long errors = 0;
+		
+		for (OperationMetrics operation : operations.values())
+			errors += operation.getErrors();
+		
+		return errors;
+	}
+	
+	public long getInFlight() {
+		long inFlight = 0;
+		
+		for (OperationMetrics operation : operations.values())
+			inFlight += operation.getInFlight();
+		
+		return inFlight;
+	}
+	
+	public String getSnapshot() {
+		return snapshot();
+	}
+	
+	/**
+	 * Writes every metric as text, e.g.
+	 * 
+	 *     db_calls{op="select"} 1520
+	 *     db_latency_us{op="select",quantile="0.99"} 830
+	 *     db_errors{op="insert",state="23505"} 2
+	 * 
+	 * Errors are only written by state (every failure has one), so summing
+	 * db_errors over an operation gives its total without double counting.
+	 * 
+	 * @return The metrics, one per line
+	 */
+	public String snapshot() {
+		StringBuilder b = new StringBuilder();
+		
+		line(b, "db_slow_queries",         "", slowQueries.getRecorded());
+		line(b, "db_slow_queries_dropped", "", slowQueries.getDropped());
+		
+		for (int i = 0; i < AdmissionController.getClassCount(); i++) {
+			String labels = "class=\"" + AdmissionController.getClassName(i) + '"';
+			
+			line(b, "db_admission_limit",     labels, admission.getLimit(i));
+			line(b, "db_admission_in_flight", labels, admission.getInFlight(i));
+			line(b, "db_admission_waiting",   labels, admission.getWaiting(i));
+			line(b, "db_admission_queued",    labels, admission.getQueued(i));
+			line(b, "db_admission_rejected",  labels, admission.getRejected(i));
+			line(b, "db_admission_timed_out", labels, admission.getTimedOut(i));
+		}
+		
+		for (OperationMetrics operation : operations.values()) {
+			String op = "op=\"" + operation.getName() + "\"";
+			
+			line(b, "db_calls",     op, operation.getCalls());
+			line(b, "db_rows",      op, operation.getRows());
+			line(b, "db_in_flight", op, operation.getInFlight());
+			line(b, "db_coalesced", op, operation.getCoalesced());
+			
+			for (Map.Entry<String, Long> entry : operation.getErrorCounts().entrySet())
+				line(b, "db_errors", op + ",state=\"" + entry.getKey() + "\"", entry.getValue());
+			
+			for (double quantile : QUANTILES) {
+				String labels = op + ",quantile=\"" + quantile + "\"";
+				
+				line(b, "db_latency_us", labels, operation.getLatency()       .percentile(quantile) / 1000);
+				line(b, "db_acquire_us", labels, operation.getAcquireLatency().percentile(quantile) / 1000);
+			}
+			
+			line(b, "db_latency_us_mean", op, operation.getMeanMicros());
+			line(b, "db_latency_us_max",  op, operation.getMaxMicros());
+		}
+		
+		return b.toString();
+	}
+	
+	private static void line(StringBuilder b, String name, String labels, long value) {
+		b.append(name).append('{').append(labels).append("} ").append(value).append('\n');
+	}
+}
@@ -0,0 +1,13 @@
+package service;
+
+/**
+ * The JMX view of `DBMetrics`.
+ */
+public interface DBMetricsMBean {
+	public long   getCalls();
+	public long   getErrors();
+	public long   getInFlight();
+	public long   getSlowQueries();
+	
+	public String getSnapshot();
+}
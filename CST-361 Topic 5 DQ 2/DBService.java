@@ -1,14 +1,27 @@
 package service;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.sql.Array;
+import java.sql.BatchUpdateException;
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
-import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.AbstractMap;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
 
 import javax.ejb.Stateless;
 import javax.enterprise.inject.Alternative;
@@ -22,6 +35,162 @@ public class DBService implements DBInterface {
 	private 	  String username;
 	private 	  String password;
 	
+	// Shared by every DBService using the same credentials
+	private final ConnectionPool pool;
+	
+	// Pools of the read replicas the reads are spread over (empty to read from the primary)
+	private final ConnectionPool[] replicas;
+	private final AtomicInteger    nextReplica = new AtomicInteger();
+	
+	// How long (ms) after a write a thread's reads stay on the primary, so it sees
+	// its own writes despite replication lag (0 to turn off)
+	private volatile long readYourWritesWindow = Long.getLong("polyopus.db.readYourWritesMillis", 2000);
+	
+	// When the current thread last wrote, by `System.currentTimeMillis`. AsyncDBService
+	// lends the caller's stamp to the thread running its call (see `useWriteStamp`)
+	private static final ThreadLocal<long[]> lastWrite = new ThreadLocal<long[]>() {
+		@Override
+		protected long[] initialValue() {
+			return new long[1];
+		}
+	};
+	
+	// The user table, as built by `createLocation`
+	static final String USERS = "\"SiteData\".\"UserDat\"";
+	
+	// Inserts a user unless the username or email is taken, and reports which one was
+	//
+	// The `EXISTS` checks use the statement's snapshot, so they see the table as it was
+	// before the insert
+	private static final String INSERT_USER =
+		"WITH ins AS (INSERT INTO " + USERS + " (\"Username\",\"Password\",\"Email\") VALUES (?,?,?) "
+		+ "ON CONFLICT DO NOTHING RETURNING \"UserID\") "
+		+ "SELECT (SELECT \"UserID\" FROM ins), "
+		+ "EXISTS (SELECT 1 FROM " + USERS + " WHERE \"Username\"=?), "
+		+ "EXISTS (SELECT 1 FROM " + USERS + " WHERE \"Email\"=?)";
+	
+	// The columns the user lookups read, in the order User's constructor takes them
+	private static final String[] USER_COLUMNS = { "UserID", "Username", "Password", "Email" };
+	
+	private static final RowMapper<User> USER_MAPPER = RowMappers.constructor(User.class, USER_COLUMNS);
+	
+	// How many keys the multi-get lookups send in one array parameter
+	private static final int USER_LOOKUP_CHUNK = 1000;
+	
+	// A user along with its ID, which the user cache is indexed by
+	private static final RowMapper<Map.Entry<UUID, User>> USER_WITH_ID = new RowMapper<Map.Entry<UUID, User>>() {
+		public Map.Entry<UUID, User> map(ResultSet res) throws SQLException {
+			return new AbstractMap.SimpleImmutableEntry<UUID, User>(res.getObject(1, UUID.class), USER_MAPPER.map(res));
+		}
+	};
+	
+	private static final int SELECT_CACHE_SIZE = 512;
+	
+	// `SELECT [columns] FROM [location]` by columns and location (see `selectFrom`)
+	private static final Map<List<Object>, String> selects = new LinkedHashMap<List<Object>, String>(SELECT_CACHE_SIZE, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+		
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<List<Object>, String> eldest) {
+			return size() > SELECT_CACHE_SIZE;
+		}
+	};
+	
+	// Shared by every DBService
+	private final UserCache  users  = UserCache.getInstance();
+	private final UserFilter filter = UserFilter.getInstance();
+	
+	private final Runnable invalidateUsers = new Runnable() {
+		public void run() {
+			users.invalidateAll();
+		}
+	};
+	
+	// The user table's columns whose values are sent with its changes (see `ChangeNotifier.Change`)
+	private static final String[] USER_KEYS = { "UserID", "Username", "Email" };
+	
+	// Drops the cached users another node changed or deleted (every cached user if it
+	// didn't say which), and adds the usernames and emails it wrote to the Bloom filters
+	// (filling them again if it didn't say). Static, so every DBService registers the same one.
+	private static final ChangeNotifier.Listener usersChanged = new ChangeNotifier.Listener() {
+		public void changed(ChangeNotifier.Change change) {
+			UserCache cache = UserCache.getInstance();
+			
+			// New rows can't be cached yet
+			if (change.operation != ChangeNotifier.INSERT) {
+				if (change.rows == null)
+					cache.invalidateAll();
+				
+				else
+					invalidate(cache, change.rows);
+			}
+			
+			UserFilter filter = UserFilter.getInstance();
+			
+			if (change.values == null)
+				filter.invalidate();
+			
+			else
+				filter.add(change.values);
+		}
+	};
+	
+	// Tells the other nodes about writes (null unless `polyopus.db.notifyChanges` is set)
+	private final ChangeNotifier notifier;
+	
+	// Shared by every DBService (see `DBMetrics`)
+	private static final DBMetrics metrics = DBMetrics.getInstance();
+	
+	// Shared by every DBService, so the limits cover every call to the database
+	private static final AdmissionController admission = AdmissionController.getInstance();
+	
+	private static final OperationMetrics selectMetrics               = metrics.operation("select");
+	private static final OperationMetrics selectManyMetrics           = metrics.operation("selectMany");
+	private static final OperationMetrics selectAllMetrics            = metrics.operation("selectAll");
+	private static final OperationMetrics selectPageMetrics           = metrics.operation("selectPage");
+	private static final OperationMetrics streamMetrics               = metrics.operation("stream");
+	private static final OperationMetrics streamAllMetrics            = metrics.operation("streamAll");
+	private static final OperationMetrics writeJsonMetrics            = metrics.operation("writeJson");
+	private static final OperationMetrics updateMetrics               = metrics.operation("update");
+	private static final OperationMetrics deleteMetrics               = metrics.operation("delete");
+	private static final OperationMetrics insertMetrics               = metrics.operation("insert");
+	private static final OperationMetrics insertAndReturnMetrics      = metrics.operation("insertAndReturn");
+	private static final OperationMetrics insertBatchMetrics          = metrics.operation("insertBatch");
+	private static final OperationMetrics insertBatchAndReturnMetrics = metrics.operation("insertBatchAndReturn");
+	private static final OperationMetrics countMetrics                = metrics.operation("count");
+	private static final OperationMetrics existsMetrics               = metrics.operation("exists");
+	private static final OperationMetrics authenticateMetrics         = metrics.operation("authenticate");
+	private static final OperationMetrics usernameExistsMetrics       = metrics.operation("usernameExists");
+	private static final OperationMetrics emailExistsMetrics          = metrics.operation("emailExists");
+	private static final OperationMetrics insertUserMetrics           = metrics.operation("insertUser");
+	private static final OperationMetrics getUserbyIDMetrics          = metrics.operation("getUserbyID");
+	private static final OperationMetrics getUserbyUsernameMetrics    = metrics.operation("getUserbyUsername");
+	private static final OperationMetrics getUsersMetrics             = metrics.operation("getUsers");
+	private static final OperationMetrics transactionMetrics          = metrics.operation("transaction");
+	private static final OperationMetrics explainMetrics              = metrics.operation("explain");
+	
+	// Identical concurrent selects and existence checks share one query while
+	// `coalesceReads` is on. Each caller gets its own copy of a shared row.
+	private volatile boolean coalesceReads = Boolean.getBoolean("polyopus.db.coalesceReads");
+	
+	private static final SingleFlight<List<Object>, Map<String, Object>> selectFlights = new SingleFlight<List<Object>, Map<String, Object>>(
+		new SingleFlight.Copier<Map<String, Object>>() {
+			public Map<String, Object> copy(Map<String, Object> row) {
+				return row instanceof Row ? ((Row)row).copy() : new HashMap<String, Object>(row);
+			}
+		}, selectMetrics);
+	
+	private static final SingleFlight<List<Object>, Boolean> existsFlights = new SingleFlight<List<Object>, Boolean>(null, existsMetrics);
+	
+	// The transaction (if any) of the `transaction` call running on this thread
+	private static final ThreadLocal<Transaction> transaction = new ThreadLocal<Transaction>();
+	
+	// How many rows `stream`, `streamAll` and `writeJson` fetch from the cursor at a time
+	private int fetchSize = 1000;
+	
+	// How many rows `insertBatch` and `insertBatchAndReturn` send at a time
+	private int batchSize = 500;
+	
 	public final int OK    = 0;
 	public final int ERROR = -1;
 	
@@ -34,870 +203,2695 @@ public class DBService implements DBInterface {
 	public final int DATABASE_ERROR  = 3;
 	
 	public DBService(String username, String password) {
+		this(username, password, replicaUrls());
+	}
+	
+	/**
+	 * @param username    - The user to connect as
+	 * @param password    - The user's password
+	 * @param replicaUrls - The JDBC URLs of read replicas to send reads to (may be empty)
+	 */
+	public DBService(String username, String password, String[] replicaUrls) {
 		this.username = username;
 		this.password = password;
+		
+		pool = ConnectionPool.getInstance(url, username, password);
+		
+		replicas = new ConnectionPool[replicaUrls.length];
+		
+		for (int i = 0; i < replicaUrls.length; i++)
+			replicas[i] = ConnectionPool.getInstance(replicaUrls[i], username, password);
+		
+		if (Boolean.getBoolean("polyopus.db.notifyChanges")) {
+			notifier = ChangeNotifier.getInstance(url, username, password);
+			notifier.addListener(USERS, usersChanged);
+		}
+		
+		else {
+			notifier = null;
+		}
+		
+		// Only the first DBService actually starts loading it. Without notifications the
+		// filters can't hear about other nodes' writes, so they're never trusted.
+		if (notifier != null)
+			filter.load(this);
 	}
 	
 	public DBService() {
-		username = "postgres";
-		password = "";
+		this("postgres", "");
 	}
-
+	
 	/**
-	 * Creates a location (schema.table).
-	 * Note that this IS injection safe.
+	 * @return The read replica URLs from the comma-separated `polyopus.db.replicas` system property
+	 */
+	private static String[] replicaUrls() {
+		String property = System.getProperty("polyopus.db.replicas", "").trim();
+		
+		return property.isEmpty() ? new String[0] : property.split("\\s*,\\s*");
+	}
+	
+	/**
+	 * @return The connection pool of the primary, which every write goes to
+	 */
+	ConnectionPool getPool() {
+		return pool;
+	}
+	
+	/**
+	 * @return The connection pools of the read replicas
+	 */
+	ConnectionPool[] getReplicaPools() {
+		return replicas.clone();
+	}
+	
+	/**
+	 * @return How long (ms) after a write a thread's reads stay on the primary
+	 */
+	public long getReadYourWritesWindow() {
+		return readYourWritesWindow;
+	}
+	
+	/**
+	 * @param readYourWritesWindow - How long (ms) after a write a thread's reads should stay on the primary (0 to turn off)
+	 */
+	public void setReadYourWritesWindow(long readYourWritesWindow) {
+		this.readYourWritesWindow = readYourWritesWindow;
+	}
+	
+	/**
+	 * Gets the connection to run a statement on: the current transaction's if this thread
+	 * is inside `transaction`, or one borrowed from the pool otherwise.
 	 * 
-	 * @param schema - The schema to use
-	 * @param table  - The table to use
+	 * @param call - The call to record the wait for a connection against
 	 * 
-	 * @return [schema].[table]
+	 * @return The connection (give it back with `release`)
+	 * 
+	 * @throws SQLException If no connection could be borrowed
 	 */
-	public String createLocation(String schema, String table) {
-		return '"' + schema + '"' + '.' + '"' + table + '"';
+	PooledConnection acquire(OperationMetrics.Call call) throws SQLException {
+		return acquire(call, AdmissionController.WRITE);
 	}
 	
 	/**
-	 * Creates a `SET` statement for updates.
-	 * NOTE THAT THE NAMES ARE NOT INJECTION SAFE!!!
+	 * Gets the connection to run a write on. See `acquire(OperationMetrics.Call)`.
 	 * 
-	 * @param names  - A list of the field names
+	 * @param call      - The call to record the wait for a connection against
+	 * @param callClass - The AdmissionController class the call is admitted as
+	 */
+	PooledConnection acquire(OperationMetrics.Call call, int callClass) throws SQLException {
+		return acquirePrimary(call, callClass);
+	}
+	
+	/**
+	 * Gets a connection to the primary for a read that mustn't see a lagging replica:
+	 * the current transaction's, or one borrowed from the pool.
 	 * 
-	 * @return A `SET` statement in the structure of [name]=?,[name2]=?,...
+	 * @param call      - The call to record the wait for a connection against
+	 * @param callClass - The AdmissionController class the call is admitted as
 	 */
-	public String set(String[] names) {
-		StringBuilder b = new StringBuilder();
+	private PooledConnection acquirePrimary(OperationMetrics.Call call, int callClass) throws SQLException {
+		Transaction tx = transaction.get();
 		
-		for (int i = 0; i < names.length; i++) {
-			b.append('"' + names[i] + '"');
-			b.append("=?");
+		if (tx != null && tx.pool == pool)
+			return tx.conn;
+		
+		return borrow(pool, call, callClass);
+	}
+	
+	/**
+	 * Keeps this thread's reads on the primary (and out of coalesced reads) for a while,
+	 * once a write has actually run.
+	 */
+	private static void wrote() {
+		lastWrite.get()[0] = System.currentTimeMillis();
+	}
+	
+	/**
+	 * @return The current thread's last-write stamp, to hand to `useWriteStamp` on
+	 *         another thread running work for this one
+	 */
+	static long[] getWriteStamp() {
+		return lastWrite.get();
+	}
+	
+	/**
+	 * Makes the current thread share another thread's last-write stamp, so writes made
+	 * here keep that thread's reads on the primary (and the other way around). The
+	 * stamp is a plain field, so the other thread is only sure to see a write once it
+	 * has waited for the work (e.g. joined its future).
+	 * 
+	 * @param stamp - The stamp from `getWriteStamp`
+	 * 
+	 * @return The stamp this thread had, to put back with `useWriteStamp` when done
+	 */
+	static long[] useWriteStamp(long[] stamp) {
+		long[] previous = lastWrite.get();
+		lastWrite.set(stamp);
+		
+		return previous;
+	}
+	
+	/**
+	 * Gets the connection to run a read on: the current transaction's, the primary's if
+	 * this thread wrote within the read-your-writes window, or else a replica's (taken
+	 * in turn). Reads fall back to the primary if the replica can't give a connection.
+	 * 
+	 * Replicas can lag behind the primary, so reads that fill the user cache use
+	 * `acquirePrimary` instead.
+	 * 
+	 * @param call - The call to record the wait for a connection against
+	 * 
+	 * @return The connection (give it back with `release`)
+	 * 
+	 * @throws SQLException If no connection could be borrowed
+	 */
+	PooledConnection acquireRead(OperationMetrics.Call call) throws SQLException {
+		return acquireRead(call, AdmissionController.READ);
+	}
+	
+	/**
+	 * Gets the connection to run a read on. See `acquireRead(OperationMetrics.Call)`.
+	 * 
+	 * @param call      - The call to record the wait for a connection against
+	 * @param callClass - The AdmissionController class the call is admitted as
+	 */
+	PooledConnection acquireRead(OperationMetrics.Call call, int callClass) throws SQLException {
+		Transaction tx = transaction.get();
+		
+		if (tx != null && tx.pool == pool)
+			return tx.conn;
+		
+		if (replicas.length == 0 || wroteRecently())
+			return borrow(pool, call, callClass);
+		
+		ConnectionPool replica = replicas[(nextReplica.getAndIncrement() & Integer.MAX_VALUE) % replicas.length];
+		
+		try {
+			return borrow(replica, call, callClass);
+		}
+		
+		catch (SQLException e) {
+			e.printStackTrace();
 			
-			if (i != names.length - 1)
-				b.append(',');
+			return borrow(pool, call, callClass);
 		}
+	}
+	
+	/**
+	 * @return Whether this thread wrote within the read-your-writes window
+	 */
+	private boolean wroteRecently() {
+		return System.currentTimeMillis() - lastWrite.get()[0] < readYourWritesWindow;
+	}
+	
+	/**
+	 * @return Whether a read on this thread may share an identical read's result. Reads in a
+	 *         transaction or just after a write could miss changes, so they never do.
+	 */
+	private boolean coalesce() {
+		return coalesceReads && transaction.get() == null && !wroteRecently();
+	}
+	
+	/**
+	 * @return Whether identical concurrent reads share one query
+	 */
+	public boolean isCoalesceReads() {
+		return coalesceReads;
+	}
+	
+	/**
+	 * @param coalesceReads - Whether identical concurrent `select`s and `exists` checks should share one query
+	 */
+	public void setCoalesceReads(boolean coalesceReads) {
+		this.coalesceReads = coalesceReads;
+	}
+	
+	/**
+	 * Borrows a connection once the call has been admitted. The wait for admission
+	 * counts towards the call's wait for a connection.
+	 */
+	private static PooledConnection borrow(ConnectionPool pool, OperationMetrics.Call call, int callClass) throws SQLException {
+		long start = System.nanoTime();
 		
-		return b.toString();
+		AdmissionController.Permit permit = admission.admit(callClass);
+		
+		PooledConnection conn;
+		
+		try {
+			conn = pool.borrow();
+		}
+		
+		catch (SQLException e) {
+			admission.release(permit, true);
+			
+			throw e;
+		}
+		
+		conn.setPermit(permit);
+		call.acquired(System.nanoTime() - start);
+		
+		return conn;
 	}
 	
 	/**
-	 * Creates a `WHERE` statement (`WHERE [name]=?`).
-	 * NOTE THAT THE NAMES ARE NOT INJECTION SAFE!!!
+	 * Gives back a connection from `acquire`. The current transaction's connection
+	 * is kept until the transaction ends.
 	 * 
-	 * @param name - The name of the column
+	 * @param conn - The connection (null is ignored)
+	 */
+	void release(PooledConnection conn) {
+		Transaction tx = transaction.get();
+		
+		if (conn == null || (tx != null && tx.conn == conn))
+			return;
+		
+		admission.release(conn.takePermit(), false);
+		
+		// Reads may have come from a replica
+		conn.getPool().release(conn);
+	}
+	
+	/**
+	 * Starts a transaction for a multi-statement method, unless it's already part of one.
+	 */
+	private void begin(PooledConnection conn) throws SQLException {
+		if (transaction.get() == null)
+			conn.getConnection().setAutoCommit(false);
+	}
+	
+	/**
+	 * Commits a multi-statement method's transaction, unless it's part of a larger one.
+	 */
+	private void commit(PooledConnection conn) throws SQLException {
+		if (transaction.get() == null)
+			conn.getConnection().commit();
+	}
+	
+	/**
+	 * Runs an action once the current transaction ends, or straight away if there isn't one.
 	 * 
-	 * @return A `WHERE` statement in the structure of `WHERE [name]=?`
+	 * @param action - The action to run
 	 */
-	public String where(String name) {
-		return '"' + name + '"' + "=?";
+	private void afterCommit(Runnable action) {
+		Transaction tx = transaction.get();
+		
+		if (tx != null)
+			tx.afterCompletion.add(action);
+		
+		else
+			action.run();
 	}
 	
 	/**
-	 * Creates a conditional chain of statements (call the respective method on each statement before calling this. This simply appends statements and conditionals).
-	 * This should be structured like:
+	 * Drops the cached users a change identifies.
 	 * 
-	 * statement AND/OR statement AND/OR statement...
+	 * @param cache - The user cache
+	 * @param rows  - The `{ column, value }` pairs of the changed rows
+	 */
+	private static void invalidate(UserCache cache, List<String[]> rows) {
+		for (String[] key : rows) {
+			if ("UserID".equals(key[0])) {
+				try {
+					cache.invalidate(UUID.fromString(key[1]));
+				}
+				
+				catch (IllegalArgumentException e) {
+					e.printStackTrace();
+					
+					cache.invalidateAll();
+				}
+			}
+			
+			else if ("Username".equals(key[0]))
+				cache.invalidate(key[1], null);
+			
+			else if ("Email".equals(key[0]))
+				cache.invalidate(null, key[1]);
+		}
+	}
+	
+	/**
+	 * @return Whether another node listens for changes to a table (see ChangeNotifier)
+	 */
+	private boolean watched(String location) {
+		return notifier != null && notifier.isWatched(location);
+	}
+	
+	/**
+	 * Adds the values of the user table's keys (see `USER_KEYS`) among some columns to a change.
 	 * 
-	 * @param statements - An array of the statements
+	 * @param columns - The names of the columns
+	 * @param values  - Their values, in the same order
+	 * @param pairs   - The pairs to add to
+	 */
+	private static void keys(String[] columns, Object[] values, List<String[]> pairs) {
+		for (int i = 0; i < columns.length && i < values.length; i++) {
+			if (values[i] == null)
+				continue;
+			
+			for (String key : USER_KEYS) {
+				if (key.equals(columns[i]))
+					pairs.add(new String[] { key, values[i].toString() });
+			}
+		}
+	}
+	
+	/**
+	 * @return The key the rows of a write were found by, or null unless the `WHERE`
+	 *         statement is a single key (e.g. `where("UserID")`)
+	 */
+	private static List<String[]> rowKeys(String whereStatement, Object[] whereObjects) {
+		if (whereObjects == null || whereObjects.length != 1 || whereObjects[0] == null)
+			return null;
+		
+		for (String key : USER_KEYS) {
+			if (whereStatement.trim().equals('"' + key + "\"=?")) {
+				ArrayList<String[]> rows = new ArrayList<String[]>(1);
+				rows.add(new String[] { key, whereObjects[0].toString() });
+				
+				return rows;
+			}
+		}
+		
+		return null;
+	}
+	
+	/**
+	 * Describes inserted rows for the other nodes.
+	 */
+	private static ChangeNotifier.Change inserted(String location, String[] fieldNames, List<Object[]> rows) {
+		ArrayList<String[]> values = new ArrayList<String[]>();
+		
+		for (Object[] row : rows)
+			keys(fieldNames, row, values);
+		
+		return new ChangeNotifier.Change(location, ChangeNotifier.INSERT, values, values);
+	}
+	
+	/**
+	 * Describes an update for the other nodes.
+	 */
+	private static ChangeNotifier.Change updated(String location, String setStatement, Object[] setObjects, String whereStatement, Object[] whereObjects) {
+		ArrayList<String[]> values = new ArrayList<String[]>();
+		keys(setNames(setStatement), setObjects, values);
+		
+		return new ChangeNotifier.Change(location, ChangeNotifier.UPDATE, rowKeys(whereStatement, whereObjects), values);
+	}
+	
+	/**
+	 * Describes a deletion for the other nodes.
+	 */
+	private static ChangeNotifier.Change deleted(String location, String whereStatement, Object[] whereObjects) {
+		return new ChangeNotifier.Change(location, ChangeNotifier.DELETE, rowKeys(whereStatement, whereObjects), new ArrayList<String[]>());
+	}
+	
+	/**
+	 * Tells the other nodes a table changed, if any of them listen for it (see
+	 * ChangeNotifier). Inside a transaction the notification is only sent if it commits.
 	 * 
-	 * @return A conditional chain of statements
+	 * @param conn   - The connection the write was made on
+	 * @param change - The change (only built if `watched`)
+	 * 
+	 * @throws SQLException If the notification couldn't be sent (which aborts a transaction)
 	 */
-	public String conditionals(String[] statements) {
-		StringBuilder b = new StringBuilder();
+	private void publishChange(PooledConnection conn, ChangeNotifier.Change change) throws SQLException {
+		notifier.publish(conn, change);
+	}
+	
+	/**
+	 * Publishes the change made by a single statement (see `publishChange`). A failure
+	 * doesn't fail the write, which has already been committed outside of `transaction`,
+	 * but inside one it fails the transaction, as Postgres has aborted it.
+	 * 
+	 * @param conn   - The connection the write was made on
+	 * @param change - The change (only built if `watched`)
+	 */
+	private void changed(PooledConnection conn, ChangeNotifier.Change change) {
+		try {
+			publishChange(conn, change);
+		}
 		
-		for (int i = 0; i < statements.length; i++) {
+		catch (SQLException e) {
+			e.printStackTrace();
+			
+			Transaction tx = transaction.get();
+			
+			if (tx != null)
+				tx.rollbackOnly = true;
+		}
+	}
+	
+	/**
+	 * Reports rows that CopyService has loaded into a table and committed, so the other
+	 * nodes are told, as for DBService's own inserts. The rows are streamed rather than
+	 * kept, so the change doesn't say what was inserted. New rows can't be cached yet,
+	 * so the user cache is left alone.
+	 * 
+	 * @param conn     - The connection the rows were loaded on
+	 * @param location - The table that was loaded into
+	 */
+	void copied(PooledConnection conn, String location) {
+		if (!watched(location))
+			return;
+		
+		try {
+			publishChange(conn, new ChangeNotifier.Change(location, ChangeNotifier.INSERT, null, null));
+		}
+		
+		catch (SQLException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Reports a failed statement. If it ran inside `transaction`, the transaction
+	 * will be rolled back, as Postgres has already aborted it.
+	 * 
+	 * @param call - The call that failed
+	 * @param e    - The failure
+	 */
+	void failed(OperationMetrics.Call call, SQLException e) {
+		e.printStackTrace();
+		call.failed(e);
+		
+		Transaction tx = transaction.get();
+		
+		if (tx != null)
+			tx.rollbackOnly = true;
+	}
+	
+	/**
+	 * Runs a unit of work in a single read-write transaction at the connection's
+	 * default isolation level. See `transaction(UnitOfWork, boolean, int)`.
+	 * 
+	 * @param work - The work to run
+	 * 
+	 * @return The work's result, or null if the transaction was rolled back
+	 */
+	public <T> T transaction(UnitOfWork<T> work) {
+		return transaction(work, false, -1);
+	}
+	
+	/**
+	 * Runs a unit of work in a single transaction. Every call the work makes on
+	 * this thread shares one connection and the transaction commits once at the end.
+	 * 
+	 * The transaction is rolled back if the work throws or any statement in it fails.
+	 * Calls made inside another `transaction` join the outer one. If the outer one is
+	 * on another pool (another database), this one runs on its own and the outer
+	 * one carries on once it's done.
+	 * 
+	 * @param work           - The work to run
+	 * @param readOnly       - Whether the transaction is read-only
+	 * @param isolationLevel - One of `Connection.TRANSACTION_*`, or -1 for the connection's default
+	 * 
+	 * @return The work's result, or null if the transaction was rolled back
+	 */
+	public <T> T transaction(UnitOfWork<T> work, boolean readOnly, int isolationLevel) {
+		Transaction outer = transaction.get();
+		
+		// Join the transaction that's already running
+		if (outer != null && outer.pool == pool) {
+			try {
+				return work.run(this);
+			}
+			
+			catch (Exception e) {
+				e.printStackTrace();
+				outer.rollbackOnly = true;
+			}
+			
+			return null;
+		}
+		
+		OperationMetrics.Call call = transactionMetrics.begin();
+		
+		PooledConnection conn = null;
+		Transaction      tx   = null;
+		
+		int defaultIsolation = -1;
+		
+		try {
+			conn = acquire(call, AdmissionController.TRANSACTION);
+			
+			Connection c = conn.getConnection();
+			
+			if (isolationLevel != -1) {
+				defaultIsolation = c.getTransactionIsolation();
+				c.setTransactionIsolation(isolationLevel);
+			}
+			
+			c.setReadOnly(readOnly);
+			c.setAutoCommit(false);
+			
+			tx = new Transaction(pool, conn, readOnly);
+			transaction.set(tx);
+			
+			T result = work.run(this);
+			
+			if (tx.rollbackOnly) {
+				c.rollback();
+				
+				return null;
+			}
+			
+			c.commit();
+			
+			return result;
+		}
+		
+		catch (Exception e) {
+			e.printStackTrace();
+			call.failed(e);
+		}
+		
+		finally {
+			// Streams can't outlive the transaction's connection
+			if (tx != null) {
+				for (RowIterator cursor : tx.cursors)
+					cursor.expire();
+			}
+			
+			// A transaction on another database's pool carries on once this one is done
+			if (outer != null)
+				transaction.set(outer);
+			
+			else
+				transaction.remove();
+			
+			if (conn != null) {
+				try {
+					Connection c = conn.getConnection();
+					
+					// Settings can only be changed outside of a transaction
+					c.rollback();
+					c.setAutoCommit(true);
+					c.setReadOnly(false);
+					
+					if (defaultIsolation != -1)
+						c.setTransactionIsolation(defaultIsolation);
+				}
+				
+				catch (SQLException e) {
+					e.printStackTrace();
+				}
+				
+				admission.release(conn.takePermit(), false);
+				pool.release(conn);
+			}
+			
+			if (tx != null) {
+				for (Runnable action : tx.afterCompletion)
+					action.run();
+			}
+			
+			call.end();
+		}
+		
+		return null;
+	}
+	
+	/**
+	 * Sets whether the current transaction's commit waits for its WAL records to be
+	 * flushed to disk (`SET LOCAL synchronous_commit`). With it off the commit returns
+	 * sooner, but the transaction can be lost (never half-applied) if the server
+	 * crashes right after. Only the current transaction is affected.
+	 * 
+	 * @param synchronous - Whether the commit waits for the flush
+	 * 
+	 * @return Whether the setting was changed (false outside `transaction` or on failure)
+	 */
+	boolean setSynchronousCommit(boolean synchronous) {
+		Transaction tx = transaction.get();
+		
+		if (tx == null)
+			return false;
+		
+		Statement stmt = null;
+		
+		try {
+			stmt = tx.conn.getConnection().createStatement();
+			stmt.execute("SET LOCAL synchronous_commit TO " + (synchronous ? "ON" : "OFF"));
+			
+			return true;
+		}
+		
+		catch (SQLException e) {
+			e.printStackTrace();
+			tx.rollbackOnly = true;
+		}
+		
+		finally {
+			try {
+				if (stmt != null)
+					stmt.close();
+			}
+			
+			catch (SQLException e) {
+				e.printStackTrace();
+			}
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * Closes a statement that isn't in the connection's statement cache, ignoring any failure.
+	 * 
+	 * @param stmt - The statement to close (null is ignored)
+	 */
+	private static void close(Statement stmt) {
+		if (stmt == null)
+			return;
+		
+		try {
+			stmt.close();
+		}
+		
+		catch (SQLException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Closes a result set, ignoring any failure (the connection is still returned to the pool).
+	 * The statement itself stays open in the connection's statement cache.
+	 * 
+	 * @param res - The result set to close (null is ignored)
+	 */
+	private static void close(ResultSet res) {
+		if (res == null)
+			return;
+		
+		try {
+			res.close();
+		}
+		
+		catch (SQLException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Creates a location (schema.table).
+	 * Note that this IS injection safe.
+	 * 
+	 * @param schema - The schema to use
+	 * @param table  - The table to use
+	 * 
+	 * @return [schema].[table]
+	 */
+	public String createLocation(String schema, String table) {
+		return '"' + schema + '"' + '.' + '"' + table + '"';
+	}
+	
+	/**
+	 * Creates a `SET` statement for updates.
+	 * NOTE THAT THE NAMES ARE NOT INJECTION SAFE!!!
+	 * 
+	 * @param names  - A list of the field names
+	 * 
+	 * @return A `SET` statement in the structure of [name]=?,[name2]=?,...
+	 */
+	public String set(String[] names) {
+		StringBuilder b = new StringBuilder();
+		
+		for (int i = 0; i < names.length; i++) {
+			b.append('"' + names[i] + '"');
+			b.append("=?");
+			
+			if (i != names.length - 1)
+				b.append(',');
+		}
+		
+		return b.toString();
+	}
+	
+	/**
+	 * Creates a `WHERE` statement (`WHERE [name]=?`).
+	 * NOTE THAT THE NAMES ARE NOT INJECTION SAFE!!!
+	 * 
+	 * @param name - The name of the column
+	 * 
+	 * @return A `WHERE` statement in the structure of `WHERE [name]=?`
+	 */
+	public String where(String name) {
+		return '"' + name + '"' + "=?";
+	}
+	
+	/**
+	 * Creates a conditional chain of statements (call the respective method on each statement before calling this. This simply appends statements and conditionals).
+	 * This should be structured like:
+	 * 
+	 * statement AND/OR statement AND/OR statement...
+	 * 
+	 * @param statements - An array of the statements
+	 * 
+	 * @return A conditional chain of statements
+	 */
+	public String conditionals(String[] statements) {
+		StringBuilder b = new StringBuilder();
+		
+		for (int i = 0; i < statements.length; i++) {
 			b.append(statements[i]);
 			b.append(' ');
 			b.append(statements[++i]);
 			
-			if (i != statements.length - 1)
-				b.append(' ');
+			if (i != statements.length - 1)
+				b.append(' ');
+		}
+		
+		return b.toString();
+	}
+	
+	/**
+	 * Creates a `LIKE` statement. Note the type is based off of the
+	 * location of the value, not the type itself.
+	 * 
+	 * PREFIX   = 1 (`?%`)
+	 * POSTFIX  = 2 (`%?`)
+	 * ANYWHERE = 3 (`%?%`)
+	 * 
+	 * @param fieldName - The name of the field
+	 * @param type      - An enum of the type (PREFIX, POSTFIX, ANYWHERE)
+	 * 
+	 * @return A `LIKE` statement in the structure of `[fieldName] LIKE [?][type][?]`
+	 */
+	public String like(String fieldName, int type) {
+		if (type == PREFIX)
+			return '"' + fieldName + '"' + " LIKE 1?";
+		
+		else if (type == POSTFIX)
+			return '"' + fieldName + '"' + " LIKE 2?";
+		
+		else if (type == ANYWHERE)
+			return '"' + fieldName + '"' + " LIKE 3?";
+		
+		else
+			return null;
+	}
+
+	/**
+	 * Reads every remaining row of a result. All of the rows share one schema,
+	 * and each row is just an array of its values.
+	 * 
+	 * @param res - The result to read
+	 * 
+	 * @return An ArrayList of the rows
+	 */
+	private static ArrayList<Map<String, Object>> readRows(ResultSet res) throws SQLException {
+		RowSchema schema = new RowSchema(res.getMetaData());
+		
+		ArrayList<Map<String, Object>> objects = new ArrayList<Map<String, Object>>();
+		
+		while (res.next()) {
+			objects.add(schema.read(res));
+		}
+		
+		return objects;
+	}
+	
+	/**
+	 * @return A mapper that reads each row of a result into a Row (see `RowSchema.read`). The
+	 *         schema is built from the first row, so use a new mapper for each query.
+	 */
+	private static RowMapper<Map<String, Object>> rowReader() {
+		return new RowMapper<Map<String, Object>>() {
+			private RowSchema schema;
+			
+			public Map<String, Object> map(ResultSet res) throws SQLException {
+				if (schema == null)
+					schema = new RowSchema(res.getMetaData());
+				
+				return schema.read(res);
+			}
+		};
+	}
+	
+	/**
+	 * @return A mapper that reads each row of a result straight into a HashMap, for the
+	 *         methods that have always returned one. See `rowReader`.
+	 */
+	private static RowMapper<HashMap<String, Object>> hashMapReader() {
+		return new RowMapper<HashMap<String, Object>>() {
+			private RowSchema schema;
+			
+			public HashMap<String, Object> map(ResultSet res) throws SQLException {
+				if (schema == null)
+					schema = new RowSchema(res.getMetaData());
+				
+				return schema.readMap(res);
+			}
+		};
+	}
+	
+	/**
+	 * Creates the column list of a `SELECT`.
+	 * NOTE THAT THE NAMES ARE NOT INJECTION SAFE!!!
+	 * 
+	 * @param columns - The names of the columns, or null for every column
+	 * 
+	 * @return `"[columns[0]]","[columns[1]]"...`, or `*`
+	 */
+	private static String projection(String[] columns) {
+		if (columns == null)
+			return "*";
+		
+		StringBuilder b = new StringBuilder();
+		
+		for (int i = 0; i < columns.length; i++) {
+			b.append('"' + columns[i] + '"');
+			
+			if (i != columns.length - 1)
+				b.append(',');
+		}
+		
+		return b.toString();
+	}
+	
+	/**
+	 * Gets `SELECT [columns] FROM [location]`, only building it the first time the
+	 * columns and location are seen together. Handing QueryTemplate the same head
+	 * every time also turns its key comparison into an identity check.
+	 * NOTE THAT THE NAMES ARE NOT INJECTION SAFE!!!
+	 * 
+	 * @param columns  - The names of the columns, or null for every column
+	 * @param location - Schema and table to select from, or "" for just the head
+	 * 
+	 * @return The start of the query
+	 */
+	private static String selectFrom(String[] columns, String location) {
+		List<Object> key = Arrays.<Object>asList(columns == null ? null : Arrays.asList(columns), location);
+		
+		String select;
+		
+		synchronized (selects) {
+			select = selects.get(key);
+		}
+		
+		if (select == null) {
+			select = "SELECT " + projection(columns) + " FROM " + location;
+			
+			synchronized (selects) {
+				selects.put(key, select);
+			}
+		}
+		
+		return select;
+	}
+	
+	/**
+	 * Selects a singular object from the database
+	 * Pulled from https://stackoverflow.com/a/11826814
+	 * 
+	 * @param location       - Location to search (use `createLocation`)
+	 * @param whereStatement - The `WHERE` statement to search by
+	 * @param whereObjects   - The value(s) to search by
+	 * 
+	 * @return A HashMap of the column names and values, where the values are objects
+	 *         (the `columns` overload returns a more compact Row)
+	 */
+	public HashMap<String, Object> select(final String location, final String whereStatement, final Object[] whereObjects) {
+		if (!coalesce())
+			return (HashMap<String, Object>)selectOnce(location, null, whereStatement, whereObjects, hashMapReader());
+		
+		// Only shared with other calls of this overload, as the `columns` overload's rows aren't HashMaps
+		List<Object> key = Arrays.asList(pool, location, HashMap.class, whereStatement, Arrays.asList(whereObjects));
+		
+		return (HashMap<String, Object>)selectFlights.run(key, new SingleFlight.Call<Map<String, Object>>() {
+			public Map<String, Object> run() {
+				return selectOnce(location, null, whereStatement, whereObjects, hashMapReader());
+			}
+		});
+	}
+	
+	/**
+	 * Selects some of the columns of a singular object from the database. Only those
+	 * columns are sent by the database and decoded.
+	 * 
+	 * @param location       - Location to search (use `createLocation`)
+	 * @param columns        - The names of the columns to select, or null for every column
+	 * @param whereStatement - The `WHERE` statement to search by
+	 * @param whereObjects   - The value(s) to search by
+	 * 
+	 * @return A Map of the column names and values (empty if nothing matched), or null on failure
+	 */
+	public Map<String, Object> select(final String location, final String[] columns, final String whereStatement, final Object[] whereObjects) {
+		if (!coalesce())
+			return selectOnce(location, columns, whereStatement, whereObjects, rowReader());
+		
+		List<Object> key = Arrays.asList(pool, location, columns == null ? null : Arrays.asList(columns), whereStatement, Arrays.asList(whereObjects));
+		
+		return selectFlights.run(key, new SingleFlight.Call<Map<String, Object>>() {
+			public Map<String, Object> run() {
+				return selectOnce(location, columns, whereStatement, whereObjects, rowReader());
+			}
+		});
+	}
+	
+	/**
+	 * @param reader - Reads the row (`rowReader` or `hashMapReader`)
+	 */
+	private Map<String, Object> selectOnce(String location, String[] columns, String whereStatement, Object[] whereObjects, RowMapper<? extends Map<String, Object>> reader) {
+		OperationMetrics.Call call = selectMetrics.begin();
+		
+		QueryTemplate template = QueryTemplate.compile(selectFrom(columns, ""), location, whereStatement, " LIMIT 1");
+		
+		PooledConnection  conn = null;
+		PreparedStatement stmt = null;
+		ResultSet         res  = null;
+		
+		try {
+			conn = acquireRead(call);
+			stmt = conn.prepare(template.getSql());
+			
+			// Bind all of the objects for the `WHERE` statement, adding the `LIKE` wildcards where needed
+			template.bind(stmt, 0, whereObjects);
+			call.statement(template, whereObjects);
+	
+			res = stmt.executeQuery();
+			call.executed();
+			
+			// Read the row by column index rather than by name
+			if (res.next()) {
+				call.rows(1);
+				
+				return reader.map(res);
+			}
+			
+			return new HashMap<String, Object>();
+		}
+		
+		catch (SQLException e) {
+			failed(call, e);
+		}
+		
+		finally {
+			close(res);
+			release(conn);
+			call.end();
+		}
+		
+		return null;
+	}
+	
+	/**
+	 * Selects a singular object from the database. Simple wrapper where you don't have to create a list.
+	 * 
+	 * @param location       - Location to search (use `createLocation`)
+	 * @param whereStatement - The `WHERE` statement to search by
+	 * @param whereObject    - The value to search by
+	 * 
+	 * @return A HashMap of the column names and values, where the values are objects
+	 */
+	public HashMap<String, Object> select(String location, String whereStatement, Object whereObject) {
+		return select(location, whereStatement, new Object[] { whereObject } );
+	}
+	
+	/**
+	 * Selects a list of objects from the database
+	 * Pulled from https://stackoverflow.com/a/11826814
+	 * 
+	 * @param location       - Schema and table to search (use `createLocation`)
+	 * @param whereStatement - The `WHERE` statement to search by
+	 * @param whereObjects   - The value(s) to search by
+	 * 
+	 * @return An ArrayList of HashMaps of the column names and values, where the values are objects
+	 *         (the `columns` overload returns more compact Rows)
+	 */
+	public ArrayList<HashMap<String, Object>> selectMany(String location, String whereStatement, Object[] whereObjects) {
+		return selectMany(location, null, whereStatement, whereObjects, hashMapReader());
+	}
+	
+	/**
+	 * Selects some of the columns of a list of objects from the database.
+	 * 
+	 * @param location       - Schema and table to search (use `createLocation`)
+	 * @param columns        - The names of the columns to select, or null for every column
+	 * @param whereStatement - The `WHERE` statement to search by
+	 * @param whereObjects   - The value(s) to search by
+	 * 
+	 * @return An ArrayList of Maps of the column names and values, or null on failure
+	 */
+	public ArrayList<Map<String, Object>> selectMany(String location, String[] columns, String whereStatement, Object[] whereObjects) {
+		return selectMany(location, columns, whereStatement, whereObjects, rowReader());
+	}
+	
+	/**
+	 * Selects a singular object from the database and maps it straight from the
+	 * result to an object, without building a Map.
+	 * 
+	 * @param location       - Location to search (use `createLocation`)
+	 * @param columns        - The names of the columns to select, in the order the mapper reads them
+	 * @param whereStatement - The `WHERE` statement to search by
+	 * @param whereObjects   - The value(s) to search by
+	 * @param mapper         - Maps the row (see `RowMappers`)
+	 * 
+	 * @return The mapped object, or null if nothing matched or the select failed
+	 */
+	public <T> T select(String location, String[] columns, String whereStatement, Object[] whereObjects, RowMapper<T> mapper) {
+		return select(location, columns, whereStatement, whereObjects, mapper, false);
+	}
+	
+	/**
+	 * @param primary - Whether to read from the primary even if there are replicas
+	 *                  (for rows that will be cached, which mustn't be stale)
+	 */
+	private <T> T select(String location, String[] columns, String whereStatement, Object[] whereObjects, RowMapper<T> mapper, boolean primary) {
+		OperationMetrics.Call call = selectMetrics.begin();
+		
+		QueryTemplate template = QueryTemplate.compile(selectFrom(columns, ""), location, whereStatement, " LIMIT 1");
+		
+		PooledConnection  conn = null;
+		PreparedStatement stmt = null;
+		ResultSet         res  = null;
+		
+		try {
+			conn = primary ? acquirePrimary(call, AdmissionController.READ) : acquireRead(call);
+			stmt = conn.prepare(template.getSql());
+			
+			template.bind(stmt, 0, whereObjects);
+			call.statement(template, whereObjects);
+			
+			res = stmt.executeQuery();
+			call.executed();
+			
+			if (res.next()) {
+				call.rows(1);
+				
+				return mapper.map(res);
+			}
+		}
+		
+		catch (SQLException e) {
+			failed(call, e);
+		}
+		
+		finally {
+			close(res);
+			release(conn);
+			call.end();
+		}
+		
+		return null;
+	}
+	
+	/**
+	 * Selects a list of objects from the database, mapping each row straight from
+	 * the result to an object.
+	 * 
+	 * @param location       - Schema and table to search (use `createLocation`)
+	 * @param columns        - The names of the columns to select, in the order the mapper reads them
+	 * @param whereStatement - The `WHERE` statement to search by
+	 * @param whereObjects   - The value(s) to search by
+	 * @param mapper         - Maps each row (see `RowMappers`)
+	 * 
+	 * @return An ArrayList of the mapped objects, or null on failure
+	 */
+	public <T> ArrayList<T> selectMany(String location, String[] columns, String whereStatement, Object[] whereObjects, RowMapper<T> mapper) {
+		OperationMetrics.Call call = selectManyMetrics.begin();
+		
+		QueryTemplate template = QueryTemplate.compile(selectFrom(columns, ""), location, whereStatement, "");
+		
+		PooledConnection  conn = null;
+		PreparedStatement stmt = null;
+		ResultSet         res  = null;
+		
+		try {
+			conn = acquireRead(call);
+			stmt = conn.prepare(template.getSql());
+			
+			template.bind(stmt, 0, whereObjects);
+			call.statement(template, whereObjects);
+			
+			res = stmt.executeQuery();
+			call.executed();
+			
+			ArrayList<T> objects = new ArrayList<T>();
+			
+			while (res.next())
+				objects.add(mapper.map(res));
+			
+			call.rows(objects.size());
+			
+			return objects;
+		}
+		
+		catch (SQLException e) {
+			failed(call, e);
+		}
+		
+		finally {
+			close(res);
+			release(conn);
+			call.end();
+		}
+		
+		return null;
+	}
+	
+	/**
+	 * A wrapper over `selectObjectList` that doesn't make you have to create a list when only checking one object.
+	 * 
+	 * @param location       - Schema and table to search (use `createLocation`)
+	 * @param whereStatement - The `WHERE` statement to search by
+	 * @param whereObjects   - The value to search by
+	 * 
+	 * @return An ArrayList of HashMaps of the column names and values, where the values are objects
+	 */
+	public ArrayList<HashMap<String, Object>> selectMany(String location, String whereStatement, Object value) {
+		return selectMany(location, whereStatement, new Object[] { value } );
+	}
+	
+	@Override
+	public ArrayList<HashMap<String, Object>> selectAll(String location) {
+		return selectAll(location, null, hashMapReader());
+	}
+	
+	/**
+	 * Selects some of the columns of every row in a table.
+	 * 
+	 * @param location - Schema and table to search (use `createLocation`)
+	 * @param columns  - The names of the columns to select, or null for every column
+	 * 
+	 * @return An ArrayList of Maps of the column names and values, or null on failure
+	 */
+	public ArrayList<Map<String, Object>> selectAll(String location, String[] columns) {
+		return selectAll(location, columns, rowReader());
+	}
+	
+	/**
+	 * @param mapper - Maps each row
+	 */
+	private <T> ArrayList<T> selectAll(String location, String[] columns, RowMapper<T> mapper) {
+		OperationMetrics.Call call = selectAllMetrics.begin();
+		
+		String query = selectFrom(columns, location);
+
+		PooledConnection  conn = null;
+		PreparedStatement stmt = null;
+		ResultSet         res  = null;
+		
+		try {
+			conn = acquireRead(call);
+			stmt = conn.prepare(query);
+			call.statement(query, null);
+			
+			res = stmt.executeQuery();
+			call.executed();
+			
+			ArrayList<T> rows = new ArrayList<T>();
+			
+			while (res.next())
+				rows.add(mapper.map(res));
+			
+			call.rows(rows.size());
+			
+			return rows;
+		}
+		
+		catch (SQLException e) {
+			failed(call, e);
+		}
+		
+		finally {
+			close(res);
+			release(conn);
+			call.end();
+		}
+		
+		return null;
+	}
+	
+	/**
+	 * Selects one page of rows, ordered by a column. Pages are found by seeking past
+	 * the previous page's last value (`WHERE orderColumn > after`) rather than with
+	 * `OFFSET`, so with an index on the column deep pages cost the same as the first.
+	 * 
+	 * The order column must be unique (e.g. the primary key), or rows sharing a value
+	 * across a page boundary would be skipped. Rows whose order column is null are
+	 * never returned, same as MemoryDBService: a null can't be sought past, so a page
+	 * ending on one would have no cursor.
+	 * 
+	 * @param location       - Schema and table to search (use `createLocation`)
+	 * @param whereStatement - The `WHERE` statement to search by, or null for every row
+	 * @param whereObjects   - The value(s) to search by
+	 * @param orderColumn    - The column to order and seek by
+	 * @param after          - The previous page's `getNextCursor`, or null for the first page
+	 * @param pageSize       - The most rows to return
+	 * 
+	 * @return The page, or null on failure
+	 */
+	public Page selectPage(String location, String whereStatement, Object[] whereObjects, String orderColumn, Object after, int pageSize) {
+		OperationMetrics.Call call = selectPageMetrics.begin();
+		
+		String column = '"' + orderColumn + '"';
+		
+		// A page needs at least one row for there to be a cursor to the next one
+		pageSize = Math.max(1, pageSize);
+		
+		if (whereObjects == null)
+			whereObjects = new Object[0];
+		
+		// The caller's conditions, then the seek past the previous page (which also skips nulls)
+		String seek = after == null ? column + " IS NOT NULL" : column + " > ?";
+		String where;
+		
+		if (whereStatement == null)
+			where = seek;
+		
+		else
+			where = "(" + whereStatement + ") AND " + seek;
+		
+		QueryTemplate template = QueryTemplate.compile("SELECT * FROM ", location, where, " ORDER BY " + column + " LIMIT ?");
+		
+		// The `WHERE` values, the cursor, and the limit (one extra row, to tell whether there's another page)
+		Object[] params = Arrays.copyOf(whereObjects, whereObjects.length + (after == null ? 1 : 2));
+		
+		if (after != null)
+			params[whereObjects.length] = after;
+		
+		params[params.length - 1] = pageSize + 1;
+		
+		PooledConnection  conn = null;
+		PreparedStatement stmt = null;
+		ResultSet         res  = null;
+		
+		try {
+			conn = acquireRead(call);
+			stmt = conn.prepare(template.getSql());
+			
+			template.bind(stmt, 0, params);
+			call.statement(template, params);
+			
+			res = stmt.executeQuery();
+			call.executed();
+			
+			ArrayList<Map<String, Object>> rows = readRows(res);
+			
+			Object nextCursor = null;
+			
+			if (rows.size() > pageSize) {
+				rows.remove(pageSize);
+				
+				nextCursor = rows.get(pageSize - 1).get(orderColumn);
+			}
+			
+			call.rows(rows.size());
+			
+			return new Page(rows, nextCursor);
+		}
+		
+		catch (SQLException e) {
+			failed(call, e);
+		}
+		
+		finally {
+			close(res);
+			release(conn);
+			call.end();
+		}
+		
+		return null;
+	}
+	
+	/**
+	 * Selects one page of every row in a table, ordered by a column. See `selectPage`.
+	 * 
+	 * @param location    - Schema and table to search (use `createLocation`)
+	 * @param orderColumn - The column to order and seek by (must be unique)
+	 * @param after       - The previous page's `getNextCursor`, or null for the first page
+	 * @param pageSize    - The most rows to return
+	 * 
+	 * @return The page, or null on failure
+	 */
+	public Page selectAllPage(String location, String orderColumn, Object after, int pageSize) {
+		return selectPage(location, null, null, orderColumn, after, pageSize);
+	}
+	
+	/**
+	 * Streams the matching rows from a server-side cursor, so only `fetchSize` rows
+	 * are held in memory at a time.
+	 * The stream holds a pooled connection until it's closed or fully consumed,
+	 * so use it in a try-with-resources block. Inside `transaction` it uses the
+	 * transaction's connection, so it has to be consumed before the transaction
+	 * ends; reading from it afterwards throws IllegalStateException.
+	 * 
+	 * @param location       - Schema and table to search (use `createLocation`)
+	 * @param whereStatement - The `WHERE` statement to search by
+	 * @param whereObjects   - The value(s) to search by
+	 * 
+	 * @return A Stream of Maps of the column names and values, or null on failure
+	 */
+	public Stream<Map<String, Object>> stream(String location, String whereStatement, Object[] whereObjects) {
+		OperationMetrics.Call call = streamMetrics.begin();
+		
+		QueryTemplate template = QueryTemplate.compile("SELECT * FROM ", location, whereStatement, "");
+		
+		PooledConnection  conn = null;
+		PreparedStatement stmt = null;
+		
+		try {
+			conn = acquireRead(call, AdmissionController.BULK);
+			
+			// Cursor statements get their own statement rather than a cached one,
+			// as the iterator closes it when it's done
+			stmt = conn.getConnection().prepareStatement(template.getSql());
+			
+			template.bind(stmt, 0, whereObjects);
+			call.statement(template, whereObjects);
+			
+			// The iterator owns the connection and statement once it's been created
+			RowIterator rows = openCursor(conn, stmt);
+			conn = null;
+			stmt = null;
+			
+			call.executed();
+			
+			return rows.stream();
+		}
+		
+		catch (SQLException e) {
+			failed(call, e);
+		}
+		
+		finally {
+			close(stmt);
+			release(conn);
+			call.end();
+		}
+		
+		return null;
+	}
+	
+	/**
+	 * Streams every row in a table from a server-side cursor. See `stream`.
+	 * 
+	 * @param location - Schema and table to search (use `createLocation`)
+	 * 
+	 * @return A Stream of Maps of the column names and values, or null on failure
+	 */
+	public Stream<Map<String, Object>> streamAll(String location) {
+		return streamAll(location, false);
+	}
+	
+	/**
+	 * @param location - Schema and table to search (use `createLocation`)
+	 * @param primary  - Whether to read from the primary even if there are replicas
+	 * 
+	 * @return A Stream of Maps of the column names and values, or null on failure
+	 */
+	Stream<Map<String, Object>> streamAll(String location, boolean primary) {
+		OperationMetrics.Call call = streamAllMetrics.begin();
+		
+		String query = "SELECT * FROM " + location;
+		
+		PooledConnection conn = null;
+		
+		try {
+			conn = primary ? acquirePrimary(call, AdmissionController.BULK) : acquireRead(call, AdmissionController.BULK);
+			
+			call.statement(query, null);
+			
+			// The iterator owns the connection once it's been created
+			RowIterator rows = openCursor(conn, conn.getConnection().prepareStatement(query));
+			conn = null;
+			
+			call.executed();
+			
+			return rows.stream();
+		}
+		
+		catch (SQLException e) {
+			failed(call, e);
+		}
+		
+		finally {
+			release(conn);
+			call.end();
+		}
+		
+		return null;
+	}
+	
+	/**
+	 * Runs a cursor statement and wraps it in an iterator. An iterator on the current
+	 * transaction's connection doesn't own it: it's closed when the transaction ends
+	 * and never gives the connection back.
+	 * 
+	 * @param conn - The connection from `acquireRead`
+	 * @param stmt - The statement to execute
+	 * 
+	 * @return The iterator
+	 * 
+	 * @throws SQLException If the query failed (the caller still owns the connection)
+	 */
+	private RowIterator openCursor(PooledConnection conn, PreparedStatement stmt) throws SQLException {
+		Transaction tx    = transaction.get();
+		boolean     owned = tx == null || tx.conn != conn;
+		
+		RowIterator rows = new RowIterator(this, conn, stmt, fetchSize, owned);
+		
+		if (!owned)
+			tx.cursors.add(rows);
+		
+		return rows;
+	}
+	
+	/**
+	 * Writes the matching rows to a stream (e.g. a servlet's response) as a JSON array
+	 * of objects. The rows are read from a server-side cursor and encoded straight into
+	 * the stream as they arrive, without being built into Maps, so memory use doesn't
+	 * grow with the result and the client gets the first row while the rest are read.
+	 * See `JsonRowWriter` for how values are encoded.
+	 * 
+	 * The stream isn't closed. If the query fails part way through, the JSON written so
+	 * far is left unfinished, so the client can tell it's incomplete.
+	 * 
+	 * @param location       - Schema and table to search (use `createLocation`)
+	 * @param columns        - The columns to write, or null for every column
+	 * @param whereStatement - The `WHERE` statement to search by, or null for every row
+	 * @param whereObjects   - The value(s) to search by
+	 * @param out            - Where to write the JSON
+	 * 
+	 * @return The number of rows written, or -1 on failure
+	 */
+	public long writeJson(String location, String[] columns, String whereStatement, Object[] whereObjects, OutputStream out) {
+		OperationMetrics.Call call = writeJsonMetrics.begin();
+		
+		PooledConnection  conn = null;
+		PreparedStatement stmt = null;
+		
+		try {
+			conn = acquireRead(call, AdmissionController.BULK);
+			
+			// Cursor statements get their own statement rather than a cached one
+			if (whereStatement == null) {
+				String query = selectFrom(columns, location);
+				
+				stmt = conn.getConnection().prepareStatement(query);
+				call.statement(query, null);
+			}
+			
+			else {
+				QueryTemplate template = QueryTemplate.compile(selectFrom(columns, ""), location, whereStatement, "");
+				
+				stmt = conn.getConnection().prepareStatement(template.getSql());
+				template.bind(stmt, 0, whereObjects);
+				call.statement(template, whereObjects);
+			}
+			
+			// Postgres only uses a cursor outside of autocommit
+			conn.getConnection().setAutoCommit(false);
+			stmt.setFetchSize(fetchSize);
+			
+			ResultSet res = stmt.executeQuery();
+			call.executed();
+			
+			JsonRowWriter writer = new JsonRowWriter(res.getMetaData(), out);
+			writer.begin();
+			
+			while (res.next()) {
+				writer.write(res);
+				
+				// Get the first row to the client straight away
+				if (writer.getRows() == 1)
+					writer.flush();
+			}
+			
+			writer.end();
+			call.rows(writer.getRows());
+			
+			return writer.getRows();
+		}
+		
+		catch (SQLException e) {
+			failed(call, e);
+		}
+		
+		catch (IOException e) {
+			// Most likely the client went away
+			e.printStackTrace();
+		}
+		
+		finally {
+			try {
+				// Closing the statement also closes the result set
+				if (stmt != null)
+					stmt.close();
+			}
+			
+			catch (SQLException e) {
+				e.printStackTrace();
+			}
+			
+			release(conn);
+			call.end();
+		}
+		
+		return -1;
+	}
+	
+	/**
+	 * @return How many rows `stream`, `streamAll` and `writeJson` fetch from the cursor at a time
+	 */
+	public int getFetchSize() {
+		return fetchSize;
+	}
+	
+	/**
+	 * @param fetchSize - How many rows `stream`, `streamAll` and `writeJson` should fetch from the cursor at a time
+	 */
+	public void setFetchSize(int fetchSize) {
+		this.fetchSize = fetchSize;
+	}
+	
+	/**
+	 * Updates a table in the database.
+	 * 
+	 * @param location       - Schema and table to search (use `createLocation`)
+	 * @param setStatement   - The `SET` statement to use (use `set`)
+	 * @param setObjects     - The values to set to
+	 * @param whereStatement - The `WHERE` statement to search by (use `where`)
+	 * @param whereObjects   - The value(s) to search by
+	 * 
+	 * @return Whether the update was successful
+	 */
+	public boolean update(String location, String setStatement, Object[] setObjects, String whereStatement, Object[] whereObjects) {
+		OperationMetrics.Call call = updateMetrics.begin();
+		
+		String query = "UPDATE " + location + " SET " + setStatement + " WHERE " + whereStatement;
+		
+		if (USERS.equals(location))
+			userTableWritten(location, setNames(setStatement), setObjects);
+		
+		PooledConnection  conn = null;
+		PreparedStatement stmt = null;
+		
+		try {
+			conn = acquire(call);
+			stmt = conn.prepare(query);
+			
+			// Iterate through all of the objects and keep count of where they are
+			int objectCount = 1;
+			
+			for (int i = 0; i < setObjects.length; i++) {
+				stmt.setObject(objectCount, setObjects[i]);
+				objectCount++;
+			}
+			
+			for (int i = 0; i < whereObjects.length; i++) {
+				stmt.setObject(objectCount, whereObjects[i]);
+				objectCount++;
+			}
+			
+			call.statement(query, setObjects, whereObjects);
+
+			int success = stmt.executeUpdate();
+			call.executed();
+			wrote();
+			call.rows(success);
+			
+			if (success != 0 && watched(location))
+				changed(conn, updated(location, setStatement, setObjects, whereStatement, whereObjects));
+
+			return success != 0;
+		}
+		
+		catch (SQLException e) {
+			failed(call, e);
+		}
+		
+		finally {
+			release(conn);
+			
+			// Any cached user could have been changed (this runs after the write is
+			// committed, so lookups that raced it can't re-cache the old row)
+			if (USERS.equals(location))
+				afterCommit(invalidateUsers);
+			
+			call.end();
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * Deletes an object from the database.
+	 * 
+	 * @param location       - Schema and table to search (use `createLocation`)
+	 * @param whereStatement - The `WHERE` statement to search by
+	 * @param whereObjects   - The value(s) to search by
+	 * 
+	 * @return Whether the deletion was successful
+	 */
+	public boolean delete(String location, String whereStatement, Object[] whereObjects) {
+		OperationMetrics.Call call = deleteMetrics.begin();
+		
+		String query = "DELETE FROM " + location + " WHERE " + whereStatement;
+		
+		PooledConnection  conn = null;
+		PreparedStatement stmt = null;
+		
+		try {
+			conn = acquire(call);
+			stmt = conn.prepare(query);
+			
+			// Iterate through all of the objects for the `WHERE` statement to add them into the prepared statement
+			for (int i = 0; i < whereObjects.length; i++) {
+				stmt.setObject(i + 1, whereObjects[i]);
+			}
+			
+			call.statement(query, whereObjects);
+
+			int success = stmt.executeUpdate();
+			call.executed();
+			wrote();
+			call.rows(success);
+			
+			if (success != 0 && watched(location))
+				changed(conn, deleted(location, whereStatement, whereObjects));
+
+			return success != 0;
+		}
+		
+		catch (SQLException e) {
+			failed(call, e);
+		}
+		
+		finally {
+			release(conn);
+			
+			// Any cached user could have been changed (this runs after the write is
+			// committed, so lookups that raced it can't re-cache the old row)
+			if (USERS.equals(location))
+				afterCommit(invalidateUsers);
+			
+			call.end();
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * Builds an `INSERT` statement for one or more rows.
+	 * 
+	 * At the end it should be:
+	 * 
+	 *     INSERT INTO [location]
+	 *                 ([fieldNames[0]],[fieldNames[1]],[fieldNames[2]]...)
+	 *         VALUES
+	 *                 (?,?,?...),(?,?,?...)...
+	 *         RETURNING
+	 *                 columnToReturn
+	 * 
+	 * @param location       - Schema and table to insert into (use `createLocation`)
+	 * @param fieldNames     - An array of the names of each field
+	 * @param rowCount       - How many rows of values to leave room for
+	 * @param columnToReturn - The column to return, or null for no `RETURNING` clause
+	 * 
+	 * @return The `INSERT` statement
+	 */
+	private static String insertQuery(String location, String[] fieldNames, int rowCount, String columnToReturn) {
+		
+		// String builder for field names
+		StringBuilder b = new StringBuilder("INSERT INTO " + location + " (");
+		
+		// String builder for a single row of values
+		StringBuilder vb = new StringBuilder("(");
+		
+		for (int i = 0; i < fieldNames.length; i++) {
+			b .append('"' + fieldNames[i] + '"');
+			vb.append("?");
+			
+			if (i != fieldNames.length - 1) {
+				b .append(',');
+				vb.append(',');
+			}
+		}
+		
+		vb.append(')');
+		
+		b.append(") VALUES ");
+		
+		for (int i = 0; i < rowCount; i++) {
+			b.append(vb);
+			
+			if (i != rowCount - 1)
+				b.append(',');
+		}
+		
+		if (columnToReturn != null) {
+			b.append(" RETURNING ");
+			b.append('"' + columnToReturn + '"');
+		}
+		
+		return b.toString();
+	}
+	
+	/**
+	 * Inserts a value in the database.
+	 * 
+	 * @param location   - Schema and table to search (use `createLocation`)
+	 * @param fieldNames - An array of the names of each field
+	 * @param values     - The actual values to insert
+	 * 
+	 * @return Whether or not the object was successfully inserted
+	 */
+	public boolean insert(String location, String[] fieldNames, Object[] values) {
+		OperationMetrics.Call call = insertMetrics.begin();
+		
+		String query = insertQuery(location, fieldNames, 1, null);
+		
+		userTableWritten(location, fieldNames, values);
+		
+		PooledConnection  conn = null;
+		PreparedStatement stmt = null;
+		
+		try {
+			conn = acquire(call);
+			stmt = conn.prepare(query);
+			
+			// Iterate through all of the objects for the `WHERE` statement to add them into the prepared statement
+			for (int i = 0; i < values.length; i++) {
+				stmt.setObject(i + 1, values[i]);
+			}
+			
+			call.statement(query, values);
+
+			int success = stmt.executeUpdate();
+			call.executed();
+			wrote();
+			call.rows(success);
+			
+			if (success != 0 && watched(location))
+				changed(conn, inserted(location, fieldNames, Collections.singletonList(values)));
+
+			return success != 0;
+		}
+		
+		catch (SQLException e) {
+			failed(call, e);
+		}
+		
+		finally {
+			release(conn);
+			call.end();
+		}
+		
+		return false;
+	}
+	
+	// TODO: Proper password hashing
+	/**
+	 * Selects and authenticates the password for the chosen user and authenticates it.
+	 * The stored user comes from the user cache when it can.
+	 * 
+	 * @param user - The user to authenticate
+	 * 
+	 * @return Whether or not the passwords match
+	 */
+	public boolean authenticate(User user) {
+		OperationMetrics.Call call = authenticateMetrics.begin();
+		
+		try {
+			User stored = getUserbyUsername(user.getUsername());
+			
+			return stored != null && user.getPassword().equals(stored.getPassword());
+		}
+		
+		finally {
+			call.end();
+		}
+	}
+
+	/**
+	 * Checks whether or not an email exists.
+	 * 
+	 * @param username - The username to check for
+	 * 
+	 * @return Whether or not the username was found.
+	 */
+	public boolean usernameExists(String username) {
+		OperationMetrics.Call call = usernameExistsMetrics.begin();
+		
+		try {
+			if (users.getByUsername(username) != null)
+				return true;
+			
+			// Most usernames checked don't exist, and the filter can rule those out without a query
+			if (!filter.mightContainUsername(username))
+				return false;
+			
+			boolean exists = exists(USERS, where("Username"), new Object[] { username });
+			
+			filter.recordPositive(exists);
+			
+			return exists;
+		}
+		
+		finally {
+			call.end();
+		}
+	}
+
+	/**
+	 * Checks whether or not an email exists.
+	 * 
+	 * @param email - The email to check for
+	 * 
+	 * @return Whether or not the email was found.
+	 */
+	public boolean emailExists(String email) {
+		OperationMetrics.Call call = emailExistsMetrics.begin();
+		
+		try {
+			if (users.getByEmail(email) != null)
+				return true;
+			
+			// Most emails checked don't exist, and the filter can rule those out without a query
+			if (!filter.mightContainEmail(email))
+				return false;
+			
+			boolean exists = exists(USERS, where("Email"), new Object[] { email });
+			
+			filter.recordPositive(exists);
+			
+			return exists;
 		}
 		
-		return b.toString();
+		finally {
+			call.end();
+		}
 	}
-	
+
 	/**
-	 * Creates a `LIKE` statement. Note the type is based off of the
-	 * location of the value, not the type itself.
+	 * Inserts a User object into the database in a single statement.
 	 * 
-	 * PREFIX   = 1 (`?%`)
-	 * POSTFIX  = 2 (`%?`)
-	 * ANYWHERE = 3 (`%?%`)
+	 * The insert relies on the unique constraints on "Username" and "Email" (`ON CONFLICT DO NOTHING`),
+	 * so two concurrent signups can't both succeed. When nothing is inserted, the same statement
+	 * reports which of the two already existed.
 	 * 
-	 * @param fieldName - The name of the field
-	 * @param type      - An enum of the type (PREFIX, POSTFIX, ANYWHERE)
+	 * @param user - The User object to insert into the database. Note that the ID should not be created.
 	 * 
-	 * @return A `LIKE` statement in the structure of `[fieldName] LIKE [?][type][?]`
+	 * @return OK, USERNAME_EXISTS, EMAIL_EXISTS, or DATABASE_ERROR if the insert failed.
 	 */
-	public String like(String fieldName, int type) {
-		if (type == PREFIX)
-			return '"' + fieldName + '"' + " LIKE 1?";
+	public int insertUser(final User user) {
+		OperationMetrics.Call call = insertUserMetrics.begin();
 		
-		else if (type == POSTFIX)
-			return '"' + fieldName + '"' + " LIKE 2?";
+		PooledConnection  conn = null;
+		PreparedStatement stmt = null;
+		ResultSet         res  = null;
 		
-		else if (type == ANYWHERE)
-			return '"' + fieldName + '"' + " LIKE 3?";
+		// Added before the insert so there's never a moment the user exists but the filter says it doesn't
+		filter.addUsername(user.getUsername());
+		filter.addEmail   (user.getEmail());
 		
-		else
-			return null;
-	}
-
-	/**
-	 * Selects a singular object from the database
-	 * Pulled from https://stackoverflow.com/a/11826814
-	 * 
-	 * @param location       - Location to search (use `createLocation`)
-	 * @param whereStatement - The `WHERE` statement to search by
-	 * @param whereObjects   - The value(s) to search by
-	 * 
-	 * @return A HashMap of the column names and values, where the values are objects
-	 */
-	public HashMap<String, Object> select(String location, String whereStatement, Object[] whereObjects) {
-		String query = "SELECT * FROM " + location + " WHERE " + whereStatement + " LIMIT 1";
-	
 		try {
-			// The parameter currently being checked for
-			//
-			// While paramNum is 1-based, its access is not
-			//
-			// Although it is not actively shown, this is used to stay with
-			// PostgreSQL's 1-based standard on parameters in prepared statements
-			int paramNum = 1;
+			conn = acquire(call);
+			stmt = conn.prepare(INSERT_USER);
 			
-			// Whether or not we're in a `LIKE` statement
-			boolean inLike = false;
-			
-			// The new query to parse the original query into
-			String newQuery = "";
-	
-			for (int i = 0; i < query.length(); i++) {
-				
-				// If we're in a `LIKE` statement, we want to switch the boolean value and step the iterator forward 4 steps
-				if (i < query.length() - 4)
-					if (query.subSequence(i, i + 4).toString().equals("LIKE")) {
-						newQuery += "LIKE ";
-						
-						i += 4;
-						
-						inLike = true;
-					}
-				
-				// If we're in a `LIKE` statement, get which kind it is from the token (see the `like` method's description
-				// for an explanation of the three values.
-				//
-				// We need to manually alter the value of the object here.
-				if (inLike) {
-					
-					// Prefix
-					if (query.charAt(i) == '1') {
-						newQuery += "?";
-						whereObjects[paramNum - 1] = "%" + (String)whereObjects[paramNum - 1];
-						i++;
-						inLike = false;
-					}
-					
-					// Postfix
-					else if (query.charAt(i) == '2') {
-						newQuery += "?";
-						whereObjects[paramNum - 1] = (String)whereObjects[paramNum - 1] + "%";
-						i++;
-						inLike = false;
-					}
-					
-					// Anywhere (prefix AND postfix)
-					else if (query.charAt(i) == '3') {
-						newQuery += "?";
-						whereObjects[paramNum - 1] = "%" + (String)whereObjects[paramNum - 1] + "%";
-						i++;
-						inLike = false;
-					}
-				}
-				
-				else {
-					newQuery += query.charAt(i);
-				}
-				
-				if (query.charAt(i) == '?')
-					paramNum++;
-			}
-	
-			Connection        conn = DriverManager.getConnection(url, username, password);
-			PreparedStatement stmt = conn.prepareStatement(newQuery);
-	
-			// Iterate through all of the objects for the `WHERE` statement to add them into the prepared statement
-			for (int i = 0; i < whereObjects.length; i++) {
-				stmt.setObject(i + 1, whereObjects[i]);
-			}
-	
-			// Get the result and its metadata
-			ResultSet         res 	   = stmt.executeQuery();
-			ResultSetMetaData metaData = res.getMetaData();
+			stmt.setObject(1, user.getUsername());
+			stmt.setObject(2, user.getPassword());
+			stmt.setObject(3, user.getEmail());
+			stmt.setObject(4, user.getUsername());
+			stmt.setObject(5, user.getEmail());
 			
-			int columnCount = metaData.getColumnCount();
-			ArrayList<String> columnNames = new ArrayList<String>();
-	
-			// Iterate over the column meta names and add them to iterate over later
-			for (int i = 1; i <= columnCount; i++) {
-				columnNames.add(metaData.getColumnName(i));
-			}
+			// The parameters include the password, so only their types are logged
+			call.statement(INSERT_USER, new Object[] { user.getUsername(), user.getPassword(), user.getEmail(), user.getUsername(), user.getEmail() });
 			
-			HashMap<String, Object> objectData = new HashMap<String, Object>();
+			res = stmt.executeQuery();
+			call.executed();
+			wrote();
+			res.next();
 			
-			while (res.next()) {
+			if (res.getObject(1) != null) {
+				call.rows(1);
 				
-				// Put every column value in using the meta name from before
-				for (String name : columnNames) {
-					objectData.put(name, res.getObject(name));
-				}
+				if (watched(USERS))
+					changed(conn, inserted(USERS, USER_KEYS, Collections.singletonList(new Object[] { res.getObject(1), user.getUsername(), user.getEmail() })));
+				
+				return OK;
 			}
 			
-			stmt.close();
-			conn.close();
+			if (res.getBoolean(2))
+				return USERNAME_EXISTS;
 			
-			return objectData;
+			if (res.getBoolean(3))
+				return EMAIL_EXISTS;
 		}
 		
 		catch (SQLException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+			failed(call, e);
+			
+			return DATABASE_ERROR;
 		}
 		
-		return null;
+		finally {
+			close(res);
+			release(conn);
+			
+			// Drop anything cached under the same username or email
+			afterCommit(new Runnable() {
+				public void run() {
+					users.invalidate(user.getUsername(), user.getEmail());
+				}
+			});
+			
+			call.end();
+		}
+		
+		// The insert conflicted with a row committed after the statement's snapshot
+		// was taken, so the existence checks couldn't see it. Look again.
+		if (usernameExists(user.getUsername()))
+			return USERNAME_EXISTS;
+		
+		if (emailExists(user.getEmail()))
+			return EMAIL_EXISTS;
+		
+		return DATABASE_ERROR;
 	}
 	
 	/**
-	 * Selects a singular object from the database. Simple wrapper where you don't have to create a list.
+	 * Gets a User in the database by its ID. The user cache is checked first.
 	 * 
-	 * @param location       - Location to search (use `createLocation`)
-	 * @param whereStatement - The `WHERE` statement to search by
-	 * @param whereObject    - The value to search by
+	 * @param userID - The UUID to check for
 	 * 
-	 * @return A HashMap of the column names and values, where the values are objects
+	 * @return The fully complete User object or null on failure.
 	 */
-	public HashMap<String, Object> select(String location, String whereStatement, Object whereObject) {
-		return select(location, whereStatement, new Object[] { whereObject } );
+	public User getUserbyID(UUID userID) {
+		OperationMetrics.Call call = getUserbyIDMetrics.begin();
+		
+		try {
+			User cached = users.getByID(userID);
+			
+			if (cached != null)
+				return cached;
+			
+			long generation = users.getGeneration();
+			
+			User user = select(USERS, USER_COLUMNS, where("UserID"), new Object[] { userID }, USER_MAPPER, true);
+			
+			if (user != null)
+				users.put(generation, userID, user);
+			
+			return user;
+		}
+		
+		finally {
+			call.end();
+		}
 	}
-	
+
 	/**
-	 * Selects a list of objects from the database
-	 * Pulled from https://stackoverflow.com/a/11826814
+	 * Gets a User in the database by its username. The user cache is checked first.
 	 * 
-	 * @param location       - Schema and table to search (use `createLocation`)
-	 * @param whereStatement - The `WHERE` statement to search by
-	 * @param whereObjects   - The value(s) to search by
+	 * @param username - The username to check for
 	 * 
-	 * @return An ArrayList of HashMaps of the column names and values, where the values are objects
+	 * @return The fully complete User object or null on failure.
 	 */
-	public ArrayList<HashMap<String, Object>> selectMany(String location, String whereStatement, Object[] whereObjects) {
-		String query = "SELECT * FROM " + location + " WHERE " + whereStatement;
+	public User getUserbyUsername(String username) {
+		OperationMetrics.Call call = getUserbyUsernameMetrics.begin();
 		
 		try {
-			// The parameter currently being checked for
-			//
-			// While paramNum is 1-based, its access is not
-			//
-			// Although it is not actively shown, this is used to stay with
-			// PostgreSQL's 1-based standard on parameters in prepared statements
-			int paramNum = 1;
-			
-			// Whether or not we're in a `LIKE` statement
-			boolean inLike = false;
-			
-			// The new query to parse the original query into
-			String newQuery = "";
-
-			for (int i = 0; i < query.length(); i++) {
-				
-				// If we're in a `LIKE` statement, we want to switch the boolean value and step the iterator forward 4 steps
-				if (i < query.length() - 4)
-					if (query.subSequence(i, i + 4).toString().equals("LIKE")) {
-						newQuery += "LIKE ";
-						
-						i += 4;
-						
-						inLike = true;
-					}
-				
-				// If we're in a `LIKE` statement, get which kind it is from the token (see the `like` method's description
-				// for an explanation of the three values.
-				//
-				// We need to manually alter the value of the object here.
-				if (inLike) {
-					
-					// Prefix
-					if (query.charAt(i) == '1') {
-						newQuery += "?";
-						whereObjects[paramNum - 1] = "%" + (String)whereObjects[paramNum - 1];
-						i++;
-						inLike = false;
-					}
-					
-					// Postfix
-					else if (query.charAt(i) == '2') {
-						newQuery += "?";
-						whereObjects[paramNum - 1] = (String)whereObjects[paramNum - 1] + "%";
-						i++;
-						inLike = false;
-					}
-					
-					// Anywhere (prefix AND postfix)
-					else if (query.charAt(i) == '3') {
-						newQuery += "?";
-						whereObjects[paramNum - 1] = "%" + (String)whereObjects[paramNum - 1] + "%";
-						i++;
-						inLike = false;
-					}
-				}
-				
-				else {
-					newQuery += query.charAt(i);
-				}
-				
-				if (query.charAt(i) == '?')
-					paramNum++;
-			}
-
-			Connection        conn = DriverManager.getConnection(url, username, password);
-			PreparedStatement stmt = conn.prepareStatement(newQuery);
-
-			// Iterate through all of the objects for the `WHERE` statement to add them into the prepared statement
-			for (int i = 0; i < whereObjects.length; i++) {
-				stmt.setObject(i + 1, whereObjects[i]);
-			}
+			User cached = users.getByUsername(username);
 			
-			// Get the result and its metadata
-			ResultSet         res      = stmt.executeQuery();
-			ResultSetMetaData metaData = res.getMetaData();
+			if (cached != null)
+				return cached;
 			
-			int columnCount = metaData.getColumnCount();
-			ArrayList<String> columnNames = new ArrayList<String>();
+			long generation = users.getGeneration();
 			
-			// Iterate over the column meta names and add them to iterate over later
-			for (int i = 1; i < columnCount; i++) {
-				columnNames.add(metaData.getColumnName(i));
-			}
+			Map.Entry<UUID, User> user = select(USERS, USER_COLUMNS, where("Username"), new Object[] { username }, USER_WITH_ID, true);
 			
-			ArrayList<HashMap<String, Object>> objects = new ArrayList<HashMap<String, Object>>();
-
-			while (res.next()) {
-				HashMap<String, Object> objectData = new HashMap<String, Object>();
-				
-				// Put every column value in using the meta name from before
-				for (String name : columnNames) {
-					objectData.put(name, res.getObject(name));
-				}
-
-				objects.add(objectData);
-			}
+			if (user == null)
+				return null;
 			
-			stmt.close();
-			conn.close();
+			users.put(generation, user.getKey(), user.getValue());
 			
-			return objects;
+			return user.getValue();
 		}
 		
-		catch (SQLException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+		finally {
+			call.end();
 		}
-		
-		return null;
 	}
 	
 	/**
-	 * A wrapper over `selectObjectList` that doesn't make you have to create a list when only checking one object.
+	 * Gets many users by their IDs. Cached users are taken from the user cache and the
+	 * rest are read with one `"UserID" = ANY(?)` query per 1000 IDs, instead of one
+	 * query (and connection) per user.
 	 * 
-	 * @param location       - Schema and table to search (use `createLocation`)
-	 * @param whereStatement - The `WHERE` statement to search by
-	 * @param whereObjects   - The value to search by
+	 * @param userIDs - The IDs to look up
 	 * 
-	 * @return An ArrayList of HashMaps of the column names and values, where the values are objects
+	 * @return The users that were found, by ID, or null on failure
 	 */
-	public ArrayList<HashMap<String, Object>> selectMany(String location, String whereStatement, Object value) {
-		return selectMany(location, whereStatement, new Object[] { value } );
-	}
-	
-	@Override
-	public ArrayList<HashMap<String, Object>> selectAll(String location) {
-		String query = "SELECT * FROM " + location;
-
-		try {
-			Connection        conn = DriverManager.getConnection(url, username, password);
-			PreparedStatement stmt = conn.prepareStatement(query);
-			
-			// Get the result and its metadata
-			ResultSet         res      = stmt.executeQuery();
-			ResultSetMetaData metaData = res.getMetaData();
-			
-			int columnCount = metaData.getColumnCount();
-			ArrayList<String> columnNames = new ArrayList<String>();
+	public Map<UUID, User> getUsersByIds(Collection<UUID> userIDs) {
+		HashMap<UUID, User> found  = new HashMap<UUID, User>();
+		ArrayList<Object>   misses = new ArrayList<Object>();
+		
+		for (UUID userID : new LinkedHashSet<UUID>(userIDs)) {
+			User cached = users.getByID(userID);
 			
-			// Iterate over the column meta names and add them to iterate over later
-			for (int i = 1; i <= columnCount; i++) {
-				columnNames.add(metaData.getColumnName(i));
-			}
+			if (cached != null)
+				found.put(userID, cached);
 			
-			ArrayList<HashMap<String, Object>> objects = new ArrayList<HashMap<String, Object>>();
-
-			while (res.next()) {
-				HashMap<String, Object> objectData = new HashMap<String, Object>();
-				
-				// Put every column value in using the meta name from before
-				for (String name : columnNames) {
-					objectData.put(name, res.getObject(name));
-				}
-
-				objects.add(objectData);
-			}
-
-			stmt.close();
-			conn.close();
-
-			return objects;
+			else if (userID != null)
+				misses.add(userID);
 		}
 		
-		catch (SQLException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		}
+		ArrayList<Map.Entry<UUID, User>> read = getUsers("UserID", "uuid", misses);
 		
-		return null;
+		if (read == null)
+			return null;
+		
+		for (Map.Entry<UUID, User> user : read)
+			found.put(user.getKey(), user.getValue());
+		
+		return found;
 	}
 	
 	/**
-	 * Updates a table in the database.
+	 * Gets many users by their usernames. See `getUsersByIds`.
 	 * 
-	 * @param location       - Schema and table to search (use `createLocation`)
-	 * @param setStatement   - The `SET` statement to use (use `set`)
-	 * @param setObjects     - The values to set to
-	 * @param whereStatement - The `WHERE` statement to search by (use `where`)
-	 * @param whereObjects   - The value(s) to search by
+	 * @param usernames - The usernames to look up
 	 * 
-	 * @return Whether the update was successful
+	 * @return The users that were found, by username, or null on failure
 	 */
-	public boolean update(String location, String setStatement, Object[] setObjects, String whereStatement, Object[] whereObjects) {
-		String query = "UPDATE " + location + " SET " + setStatement + " WHERE " + whereStatement;
+	public Map<String, User> getUsersByUsernames(Collection<String> usernames) {
+		HashMap<String, User> found  = new HashMap<String, User>();
+		ArrayList<Object>     misses = new ArrayList<Object>();
 		
-		try {
-			Connection        conn = DriverManager.getConnection(url, username, password);
-			PreparedStatement stmt = conn.prepareStatement(query);
-			
-			// Iterate through all of the objects and keep count of where they are
-			int objectCount = 1;
+		for (String username : new LinkedHashSet<String>(usernames)) {
+			User cached = users.getByUsername(username);
 			
-			for (int i = 0; i < setObjects.length; i++) {
-				stmt.setObject(objectCount, setObjects[i]);
-				objectCount++;
-			}
+			if (cached != null)
+				found.put(username, cached);
 			
-			for (int i = 0; i < whereObjects.length; i++) {
-				stmt.setObject(objectCount, whereObjects[i]);
-				objectCount++;
-			}
-
-			int success = stmt.executeUpdate();
-
-			return success != 0;
+			else if (username != null)
+				misses.add(username);
 		}
 		
-		catch (SQLException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		}
+		ArrayList<Map.Entry<UUID, User>> read = getUsers("Username", "varchar", misses);
 		
-		return false;
+		if (read == null)
+			return null;
+		
+		for (Map.Entry<UUID, User> user : read)
+			found.put(user.getValue().getUsername(), user.getValue());
+		
+		return found;
 	}
 	
 	/**
-	 * Deletes an object from the database.
+	 * Reads the users whose column matches any of the keys, `USER_LOOKUP_CHUNK` keys
+	 * per query, and caches them. They're read from the primary, as a replica's copy
+	 * could be older than an invalidation that has already happened.
 	 * 
-	 * @param location       - Schema and table to search (use `createLocation`)
-	 * @param whereStatement - The `WHERE` statement to search by
-	 * @param whereObjects   - The value(s) to search by
+	 * @param column  - The column to look up by
+	 * @param sqlType - The column's SQL type, for the array parameter
+	 * @param keys    - The keys to look up (no duplicates or nulls)
 	 * 
-	 * @return Whether the deletion was successful
+	 * @return The users with their IDs, or null on failure
 	 */
-	public boolean delete(String location, String whereStatement, Object[] whereObjects) {
-		String query = "DELETE FROM " + location + " WHERE " + whereStatement;
+	private ArrayList<Map.Entry<UUID, User>> getUsers(String column, String sqlType, List<Object> keys) {
+		ArrayList<Map.Entry<UUID, User>> found = new ArrayList<Map.Entry<UUID, User>>(keys.size());
+		
+		if (keys.isEmpty())
+			return found;
+		
+		OperationMetrics.Call call = getUsersMetrics.begin();
+		
+		String query = "SELECT " + projection(USER_COLUMNS) + " FROM " + USERS + " WHERE " + where(column).replace("=?", " = ANY(?)");
+		
+		long generation = users.getGeneration();
+		
+		PooledConnection  conn = null;
+		PreparedStatement stmt = null;
+		ResultSet         res  = null;
 		
 		try {
-			Connection        conn = DriverManager.getConnection(url, username, password);
-			PreparedStatement stmt = conn.prepareStatement(query);
+			conn = acquirePrimary(call, AdmissionController.READ);
+			stmt = conn.prepare(query);
 			
-			// Iterate through all of the objects for the `WHERE` statement to add them into the prepared statement
-			for (int i = 0; i < whereObjects.length; i++) {
-				stmt.setObject(i + 1, whereObjects[i]);
+			for (int chunkStart = 0; chunkStart < keys.size(); chunkStart += USER_LOOKUP_CHUNK) {
+				List<Object> chunk = keys.subList(chunkStart, Math.min(chunkStart + USER_LOOKUP_CHUNK, keys.size()));
+				
+				Object[] values = chunk.toArray();
+				Array    array  = conn.getConnection().createArrayOf(sqlType, values);
+				
+				stmt.setArray(1, array);
+				
+				if (chunkStart == 0)
+					call.statement(query, new Object[] { values });
+				
+				res = stmt.executeQuery();
+				
+				while (res.next())
+					found.add(USER_WITH_ID.map(res));
+				
+				close(res);
+				array.free();
 			}
-
-			int success = stmt.executeUpdate();
-
-			return success != 0;
+			
+			call.executed();
+			call.rows(found.size());
 		}
 		
 		catch (SQLException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+			failed(call, e);
+			
+			return null;
 		}
 		
-		return false;
+		finally {
+			close(res);
+			release(conn);
+			call.end();
+		}
+		
+		for (Map.Entry<UUID, User> user : found)
+			users.put(generation, user.getKey(), user.getValue());
+		
+		return found;
 	}
 	
 	/**
-	 * Inserts a value in the database.
+	 * Captures the plan of a slow `SELECT` from the slow query log with `EXPLAIN`,
+	 * and stores it on the entry. Writes are never explained, as `ANALYZE` runs the statement.
 	 * 
-	 * @param location   - Schema and table to search (use `createLocation`)
-	 * @param fieldNames - An array of the names of each field
-	 * @param values     - The actual values to insert
+	 * @param entry   - The entry to explain
+	 * @param analyze - Whether to run the query (`EXPLAIN (ANALYZE, BUFFERS)`) for real timings
 	 * 
-	 * @return Whether or not the object was successfully inserted
+	 * @return The plan, or null if the entry isn't a `SELECT` or `EXPLAIN` failed
 	 */
-	public boolean insert(String location, String[] fieldNames, Object[] values) {
-		
-		// String builder for field names
-		StringBuilder fb = new StringBuilder("INSERT INTO " + location + " (");
+	public String explain(SlowQueryLog.Entry entry, boolean analyze) {
+		if (!entry.isSelect())
+			return null;
 		
-		// String builder for values
-		StringBuilder vb = new StringBuilder(") VALUES (");
+		OperationMetrics.Call call = explainMetrics.begin();
 		
-		for (int i = 0; i < fieldNames.length; i++) {
-			fb.append('"' + fieldNames[i] + '"');
-			vb.append("?");
-			
-			if (i != fieldNames.length - 1) {
-				fb.append(',');
-				vb.append(',');
-			}
-		}
+		String query = (analyze ? "EXPLAIN (ANALYZE, BUFFERS) " : "EXPLAIN ") + entry.getSql();
 		
-		vb.append(')');
+		Object[] parameters = entry.getParameters();
 		
-		// Finish building the query
-		//
-		// At the end it should be:
-		//
-		//     INSERT INTO [location]
-		//                 ([fieldNames[0]],[fieldNames[1]],[fieldNames[2]]...)
-		//         VALUES
-		//                 (?,?,?...)
-		String query = fb.toString() + vb.toString();
+		PooledConnection  conn = null;
+		PreparedStatement stmt = null;
+		ResultSet         res  = null;
 		
 		try {
-			Connection        conn = DriverManager.getConnection(url, username, password);
-			PreparedStatement stmt = conn.prepareStatement(query);
+			conn = acquireRead(call);
 			
-			// Iterate through all of the objects for the `WHERE` statement to add them into the prepared statement
-			for (int i = 0; i < values.length; i++) {
-				stmt.setObject(i + 1, values[i]);
+			// Rolled back on release, to be sure nothing it ran is kept
+			begin(conn);
+			
+			stmt = conn.getConnection().prepareStatement(query);
+			
+			for (int i = 0; i < parameters.length; i++) {
+				stmt.setObject(i + 1, parameters[i]);
 			}
-
-			int success = stmt.executeUpdate();
-
-			return success != 0;
+			
+			call.statement(query, parameters);
+			
+			res = stmt.executeQuery();
+			call.executed();
+			
+			StringBuilder plan = new StringBuilder();
+			
+			while (res.next())
+				plan.append(res.getString(1)).append('\n');
+			
+			entry.setPlan(plan.toString());
+			
+			return entry.getPlan();
 		}
 		
 		catch (SQLException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+			failed(call, e);
 		}
 		
-		return false;
+		finally {
+			close(res);
+			close(stmt);
+			release(conn);
+			call.end();
+		}
+		
+		return null;
 	}
 	
-	// TODO: Proper password hashing
 	/**
-	 * Selects and authenticates the password for the chosen user and authenticates it.
+	 * Captures the plans of the slowest `SELECT`s in the slow query log. See `explain`.
 	 * 
-	 * @param user - The user to authenticate
+	 * @param count   - How many of the slowest entries to explain
+	 * @param analyze - Whether to run the queries for real timings
 	 * 
-	 * @return Whether or not the passwords match
+	 * @return The entries that were explained
 	 */
-	public boolean authenticate(User user) {
-		return user.getPassword().equals((String)select(createLocation("SiteData", "UserDat"),
-											  			where("Username"),
-											  			new Object[] { user.getUsername() })
-									   			.get("Password"));
+	public List<SlowQueryLog.Entry> explainSlowest(int count, boolean analyze) {
+		ArrayList<SlowQueryLog.Entry> explained = new ArrayList<SlowQueryLog.Entry>();
+		
+		for (SlowQueryLog.Entry entry : metrics.getSlowQueryLog().getSlowest(Integer.MAX_VALUE)) {
+			if (explained.size() == count)
+				break;
+			
+			if (explain(entry, analyze) != null)
+				explained.add(entry);
+		}
+		
+		return explained;
 	}
-
+	
 	/**
-	 * Checks whether or not an email exists.
-	 * 
-	 * @param username - The username to check for
-	 * 
-	 * @return Whether or not the username was found.
+	 * @return The log of statements slower than its threshold
 	 */
-	public boolean usernameExists(String username) {
-		return select(createLocation("SiteData", "UserDat"),
-		  	          where("Username"),
-		  			  new Object[] { username })
-			   .size() != 0;
+	public SlowQueryLog getSlowQueryLog() {
+		return metrics.getSlowQueryLog();
 	}
-
+	
 	/**
-	 * Checks whether or not an email exists.
-	 * 
-	 * @param email - The email to check for
-	 * 
-	 * @return Whether or not the email was found.
+	 * @return The metrics of every DBService operation
 	 */
-	public boolean emailExists(String email) {
-		return select(createLocation("SiteData", "UserDat"),
-	  	          	  where("Email"),
-	  	          	  new Object[] { email })
-			   .size() != 0;
+	public DBMetrics getMetrics() {
+		return metrics;
 	}
-
+	
 	/**
-	 * Inserts a User object into the database.
-	 * 
-	 * @param user - The User object to insert into the database. Note that the ID should not be created.
-	 * 
-	 * @return Whether the email exists, username exists, or whether or not the insertion was successful.
-	 * 		   You should check yourself whether or not the username and email exist to get proper coverage.
-	 * 		   The username and email check was made as a fail-safe.
-	 */
-	public int insertUser(User user) {
-		if (!usernameExists(user.getUsername())) {
-			if (!emailExists(user.getEmail())) {
-				boolean ok = insert(createLocation("SiteData", "UserDat"),
-						     
-								    new String[] {
-								 		    "Username",
-								   		    "Password",
-										    "Email",
-								    },
-								   
-								    new Object[] {
-										    user.getUsername(),
-										    user.getPassword(),
-										    user.getEmail(),
-								    }
-							 );
-				
-				return ok ? OK : ERROR;
-			}
-			
-			else {
-				return EMAIL_EXISTS;
-			}
-		}
-		
-		else {
-			return USERNAME_EXISTS;
-		}
+	 * @return The cache used by the user lookups
+	 */
+	public UserCache getUserCache() {
+		return users;
 	}
-
+	
 	/**
-	 * Gets a User in the database by its ID.
-	 * 
-	 * @param userID - The UUID to check for
-	 * 
-	 * @return The fully complete User object or null on failure.
+	 * @return The Bloom filters in front of `usernameExists` and `emailExists` (only
+	 *         filled when `polyopus.db.notifyChanges` is on)
 	 */
-	public User getUserbyID(UUID userID) {
-		HashMap<String, Object> userValues = select(createLocation("SiteData", "UserDat"),
-				                                    "ID", userID.toString());
-		
-		if (userValues != null) {
-			User user = new User(userID,
-								 (String)userValues.get("Username"),
-								 (String)userValues.get("Password"),
-								 (String)userValues.get("Email"));
-			return user;
-		}
-		
-		return null;
+	public UserFilter getUserFilter() {
+		return filter;
 	}
-
+	
 	/**
-	 * Gets a User in the database by its username.
+	 * Adds the username and email being written to the user table (if any) to the Bloom filters.
 	 * 
-	 * @param username - The username to check for
+	 * @param location   - Schema and table being written to
+	 * @param fieldNames - The names of the columns being written
+	 * @param values     - The values being written, in the same order as `fieldNames`
+	 */
+	private void userTableWritten(String location, String[] fieldNames, Object[] values) {
+		if (USERS.equals(location))
+			filter.add(fieldNames, values);
+	}
+	
+	/**
+	 * @param setStatement - A `SET` statement in the structure of [name]=?,[name2]=?,... (see `set`)
 	 * 
-	 * @return The fully complete User object or null on failure.
+	 * @return The names of the columns it sets, unquoted
 	 */
-	public User getUserbyUsername(String username) {
-		HashMap<String, Object> userValues = select(createLocation("SiteData", "UserDat"),
-		                							where("Username"), username);
-		
-		if (userValues != null) {
-			User user = new User((UUID) userValues.get("UserID"),
-								 username,
-								 (String)userValues.get("Password"),
-								 (String)userValues.get("Email"));
-			return user;
+	private static String[] setNames(String setStatement) {
+		String[] names = setStatement.split(",");
+		
+		for (int i = 0; i < names.length; i++) {
+			String name = names[i];
+			int    end  = name.indexOf('=');
+			
+			names[i] = (end == -1 ? name : name.substring(0, end)).trim().replace("\"", "");
 		}
 		
-		return null;
+		return names;
 	}
 
 	@Override
 	public Object insertAndReturn(String location, String[] fieldNames, Object[] values, String columnToReturn) {
+		OperationMetrics.Call call = insertAndReturnMetrics.begin();
 		
-		// String builder for field names
-		StringBuilder fb = new StringBuilder("INSERT INTO " + location + " (");
-		
-		// String builder for values
-		StringBuilder vb = new StringBuilder(") VALUES (");
-		
-		// Iterate through each of the field names to add them
-		// into the field name section and to add a question mark
-		// in the values section
-		for (int i = 0; i < fieldNames.length; i++) {
-			fb.append('"' + fieldNames[i] + '"');
-			vb.append("?");
-			
-			if (i != fieldNames.length - 1) {
-				fb.append(',');
-				vb.append(',');
-			}
-		}
+		String query = insertQuery(location, fieldNames, 1, columnToReturn);
 		
-		vb.append(") RETURNING ");
-		vb.append('"' + columnToReturn + '"');
+		userTableWritten(location, fieldNames, values);
 		
-		// Finish building the query
-		//
-		// At the end it should be:
-		//
-		//     INSERT INTO [location]
-		//                 ([fieldNames[0]],[fieldNames[1]],[fieldNames[2]]...)
-		//         VALUES
-		//                 (?,?,?...)
-		//         RETURNING
-		//                 columnToReturn
-		String query = fb.toString() + vb.toString();
+		PooledConnection  conn = null;
+		PreparedStatement stmt = null;
+		ResultSet         res  = null;
 		
 		try {
-			Connection        conn = DriverManager.getConnection(url, username, password);
-			PreparedStatement stmt = conn.prepareStatement(query);
+			conn = acquire(call);
+			stmt = conn.prepare(query);
 			
 			// Iterate through all of the objects for the `WHERE` statement to add them into the prepared statement
 			for (int i = 0; i < values.length; i++) {
 				stmt.setObject(i + 1, values[i]);
 			}
+			
+			call.statement(query, values);
 
-			ResultSet res = stmt.executeQuery();
+			res = stmt.executeQuery();
+			call.executed();
+			wrote();
 
 			Object output = null;
 			
-			if (res.next())
+			if (res.next()) {
 				output = res.getObject(1);
-			
-			res .close();
-			stmt.close();
-			conn.close();
+				call.rows(1);
+				
+				if (watched(location))
+					changed(conn, inserted(location, fieldNames, Collections.singletonList(values)));
+			}
 			
 			return output;
 		}
 		
 		catch (SQLException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+			failed(call, e);
+		}
+		
+		finally {
+			close(res);
+			release(conn);
+			call.end();
 		}
 		
 		return null;
 	}
 	
-	public int count(String location, String whereStatement, Object[] whereObjects) {
-		String query = "SELECT COUNT(*) AS count FROM " + location + " WHERE " + whereStatement;
-
+	/**
+	 * Inserts many rows in a single transaction, sending them to the database
+	 * `batchSize` rows at a time as JDBC batches (which the pool's connections
+	 * rewrite into multi-row `VALUES`).
+	 * If any row fails, the whole transaction is rolled back.
+	 * 
+	 * @param location   - Schema and table to insert into (use `createLocation`)
+	 * @param fieldNames - An array of the names of each field
+	 * @param rows       - The values of each row, in the same order as `fieldNames`
+	 * 
+	 * @return The outcome of each row: 1 if it was inserted, `Statement.EXECUTE_FAILED` if it
+	 *         was in the chunk the database rejected, or 0 if it was rolled back because another
+	 *         chunk failed. The driver rewrites each chunk into multi-row statements, so its
+	 *         update counts can't tell which row of a rejected chunk was at fault.
+	 */
+	public int[] insertBatch(String location, String[] fieldNames, List<Object[]> rows) {
+		OperationMetrics.Call call = insertBatchMetrics.begin();
+		
+		String query = insertQuery(location, fieldNames, 1, null);
+		
+		for (Object[] values : rows)
+			userTableWritten(location, fieldNames, values);
+		
+		int[] outcomes = new int[rows.size()];
+		
+		PooledConnection  conn = null;
+		PreparedStatement stmt = null;
+		
+		// The first row of the chunk currently being sent
+		int chunkStart = 0;
+		
 		try {
-			// The parameter currently being checked for
-			//
-			// While paramNum is 1-based, its access is not
-			//
-			// Although it is not actively shown, this is used to stay with
-			// PostgreSQL's 1-based standard on parameters in prepared statements
-			int paramNum = 1;
+			conn = acquire(call, AdmissionController.BULK);
+			begin(conn);
 			
-			// Whether or not we're in a `LIKE` statement
-			boolean inLike = false;
+			stmt = conn.prepare(query);
 			
-			// The new query to parse the original query into
-			String newQuery = "";
-
-			for (int i = 0; i < query.length(); i++) {
-				
-				// If we're in a `LIKE` statement, we want to switch the boolean value and step the iterator forward 4 steps
-				if (i < query.length() - 4)
-					if (query.subSequence(i, i + 4).toString().equals("LIKE")) {
-						newQuery += "LIKE ";
-						
-						i += 4;
-						
-						inLike = true;
-					}
+			// Logged with the first row's parameters
+			call.statement(query, rows.isEmpty() ? null : rows.get(0));
+			
+			while (chunkStart < rows.size()) {
+				int chunkEnd = Math.min(chunkStart + batchSize, rows.size());
 				
-				// If we're in a `LIKE` statement, get which kind it is from the token (see the `like` method's description
-				// for an explanation of the three values.
-				//
-				// We need to manually alter the value of the object here.
-				if (inLike) {
+				for (int row = chunkStart; row < chunkEnd; row++) {
+					Object[] values = rows.get(row);
 					
-					// Prefix
-					if (query.charAt(i) == '1') {
-						newQuery += "?";
-						whereObjects[paramNum - 1] = "%" + (String)whereObjects[paramNum - 1];
-						i++;
-						inLike = false;
+					for (int i = 0; i < values.length; i++) {
+						stmt.setObject(i + 1, values[i]);
 					}
 					
-					// Postfix
-					else if (query.charAt(i) == '2') {
-						newQuery += "?";
-						whereObjects[paramNum - 1] = (String)whereObjects[paramNum - 1] + "%";
-						i++;
-						inLike = false;
-					}
+					stmt.addBatch();
+				}
+				
+				stmt.executeBatch();
+				
+				chunkStart = chunkEnd;
+			}
+			
+			call.executed();
+			wrote();
+			
+			if (watched(location))
+				publishChange(conn, inserted(location, fieldNames, rows));
+			
+			commit(conn);
+			call.rows(rows.size());
+			
+			Arrays.fill(outcomes, 1);
+			
+			return outcomes;
+		}
+		
+		catch (BatchUpdateException e) {
+			failed(call, e);
+			
+			// The update counts are for the rewritten statements, not the rows, so the whole chunk is marked as failed
+			Arrays.fill(outcomes, chunkStart, Math.min(chunkStart + batchSize, outcomes.length), Statement.EXECUTE_FAILED);
+			
+			clearBatch(stmt);
+		}
+		
+		catch (SQLException e) {
+			failed(call, e);
+			
+			clearBatch(stmt);
+		}
+		
+		finally {
+			
+			// Rolls back anything that wasn't committed
+			release(conn);
+			call.end();
+		}
+		
+		return outcomes;
+	}
+	
+	/**
+	 * Inserts many rows in a single transaction, sending them `batchSize` rows at a time
+	 * as multi-row `INSERT ... VALUES (...),(...) RETURNING` statements.
+	 * If any row fails, the whole transaction is rolled back.
+	 * 
+	 * @param location       - Schema and table to insert into (use `createLocation`)
+	 * @param fieldNames     - An array of the names of each field
+	 * @param rows           - The values of each row, in the same order as `fieldNames`
+	 * @param columnToReturn - The column to return for each row
+	 * 
+	 * @return One returned value for each row, or null on failure. SQL doesn't promise that
+	 *         `RETURNING` follows the order of `VALUES`, so to match the values up with `rows`,
+	 *         return a column that was inserted (such as a unique name) rather than relying on the order
+	 */
+	public ArrayList<Object> insertBatchAndReturn(String location, String[] fieldNames, List<Object[]> rows, String columnToReturn) {
+		OperationMetrics.Call call = insertBatchAndReturnMetrics.begin();
+		
+		for (Object[] values : rows)
+			userTableWritten(location, fieldNames, values);
+		
+		// Postgres allows at most 32767 parameters in a statement
+		int chunkSize = Math.max(1, Math.min(batchSize, 32767 / Math.max(1, fieldNames.length)));
+		
+		ArrayList<Object> output = new ArrayList<Object>(rows.size());
+		
+		PooledConnection conn = null;
+		ResultSet        res  = null;
+		
+		try {
+			conn = acquire(call, AdmissionController.BULK);
+			begin(conn);
+			
+			for (int chunkStart = 0; chunkStart < rows.size(); chunkStart += chunkSize) {
+				int chunkEnd = Math.min(chunkStart + chunkSize, rows.size());
+				
+				// Every full chunk shares one cached statement; only the last one differs
+				String            query = insertQuery(location, fieldNames, chunkEnd - chunkStart, columnToReturn);
+				PreparedStatement stmt  = conn.prepare(query);
+				
+				// Logged with the first row's parameters
+				if (chunkStart == 0)
+					call.statement(query, rows.get(0));
+				
+				int param = 1;
+				
+				for (int row = chunkStart; row < chunkEnd; row++) {
+					Object[] values = rows.get(row);
 					
-					// Anywhere (prefix AND postfix)
-					else if (query.charAt(i) == '3') {
-						newQuery += "?";
-						whereObjects[paramNum - 1] = "%" + (String)whereObjects[paramNum - 1] + "%";
-						i++;
-						inLike = false;
+					for (int i = 0; i < values.length; i++) {
+						stmt.setObject(param++, values[i]);
 					}
 				}
 				
-				else {
-					newQuery += query.charAt(i);
-				}
+				res = stmt.executeQuery();
 				
-				if (query.charAt(i) == '?')
-					paramNum++;
-			}
-
-			Connection        conn = DriverManager.getConnection(url, username, password);
-			PreparedStatement stmt = conn.prepareStatement(newQuery);
-
-			// Iterate through all of the objects for the `WHERE` statement to add them into the prepared statement
-			for (int i = 0; i < whereObjects.length; i++) {
-				stmt.setObject(i + 1, whereObjects[i]);
+				while (res.next())
+					output.add(res.getObject(1));
+				
+				close(res);
 			}
+			
+			call.executed();
+			wrote();
+			
+			if (watched(location))
+				publishChange(conn, inserted(location, fieldNames, rows));
+			
+			commit(conn);
+			call.rows(output.size());
+			
+			return output;
+		}
+		
+		catch (SQLException e) {
+			failed(call, e);
+		}
+		
+		finally {
+			close(res);
+			
+			// Rolls back anything that wasn't committed
+			release(conn);
+			call.end();
+		}
+		
+		return null;
+	}
+	
+	/**
+	 * @return How many rows the batch inserts send to the database at a time
+	 */
+	public int getBatchSize() {
+		return batchSize;
+	}
+	
+	/**
+	 * @param batchSize - How many rows the batch inserts should send to the database at a time
+	 */
+	public void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+	}
+	
+	/**
+	 * Clears a cached statement's pending batch so it can be reused.
+	 * 
+	 * @param stmt - The statement (null is ignored)
+	 */
+	private static void clearBatch(PreparedStatement stmt) {
+		if (stmt == null)
+			return;
+		
+		try {
+			stmt.clearBatch();
+		}
+		
+		catch (SQLException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	public int count(String location, String whereStatement, Object[] whereObjects) {
+		OperationMetrics.Call call = countMetrics.begin();
+		
+		QueryTemplate template = QueryTemplate.compile("SELECT COUNT(*) AS count FROM ", location, whereStatement, "");
+		
+		PooledConnection  conn = null;
+		PreparedStatement stmt = null;
+		ResultSet         res  = null;
+		
+		try {
+			conn = acquireRead(call);
+			stmt = conn.prepare(template.getSql());
+			
+			// Bind all of the objects for the `WHERE` statement, adding the `LIKE` wildcards where needed
+			template.bind(stmt, 0, whereObjects);
+			call.statement(template, whereObjects);
 
-			// Get the result and its metadata
-			ResultSet         res 	   = stmt.executeQuery();
-			ResultSetMetaData metaData = res.getMetaData();
+			// Get the result
+			res = stmt.executeQuery();
+			call.executed();
 			
 			// Iterate the result set to get the number
 			// as it's placed before the first row.
 			res.next();
 			
-			// Get the count before closing the statement, as
-			// closing the Statement closes all ResultSet objects
-			int count = res.getInt("count");
-			
-			stmt.close();
-			conn.close();
+			// Get the count before the ResultSet is closed
+			int count = res.getInt(1);
 			
 			return count;
 		}
 		
 		catch (SQLException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+			failed(call, e);
+		}
+		
+		finally {
+			close(res);
+			release(conn);
+			call.end();
 		}
 		
 		return 0;
 	}
+	
+	/**
+	 * Checks whether any row matches, with `SELECT EXISTS (SELECT 1 ...)`, so no
+	 * columns are sent back and the database stops at the first match.
+	 * 
+	 * @param location       - Schema and table to search (use `createLocation`)
+	 * @param whereStatement - The `WHERE` statement to search by
+	 * @param whereObjects   - The value(s) to search by
+	 * 
+	 * @return Whether a row matched (false on failure)
+	 */
+	public boolean exists(final String location, final String whereStatement, final Object[] whereObjects) {
+		if (!coalesce())
+			return existsOnce(location, whereStatement, whereObjects);
+		
+		List<Object> key = Arrays.asList(pool, location, whereStatement, Arrays.asList(whereObjects));
+		
+		return existsFlights.run(key, new SingleFlight.Call<Boolean>() {
+			public Boolean run() {
+				return existsOnce(location, whereStatement, whereObjects);
+			}
+		});
+	}
+	
+	private boolean existsOnce(String location, String whereStatement, Object[] whereObjects) {
+		OperationMetrics.Call call = existsMetrics.begin();
+		
+		QueryTemplate template = QueryTemplate.compile("SELECT EXISTS (SELECT 1 FROM ", location, whereStatement, ")");
+		
+		PooledConnection  conn = null;
+		PreparedStatement stmt = null;
+		ResultSet         res  = null;
+		
+		try {
+			conn = acquireRead(call);
+			stmt = conn.prepare(template.getSql());
+			
+			// Bind all of the objects for the `WHERE` statement, adding the `LIKE` wildcards where needed
+			template.bind(stmt, 0, whereObjects);
+			call.statement(template, whereObjects);
+			
+			res = stmt.executeQuery();
+			call.executed();
+			
+			res.next();
+			
+			return res.getBoolean(1);
+		}
+		
+		catch (SQLException e) {
+			failed(call, e);
+		}
+		
+		finally {
+			close(res);
+			release(conn);
+			call.end();
+		}
+		
+		return false;
+	}
 }
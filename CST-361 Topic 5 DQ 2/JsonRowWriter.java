@@ -0,0 +1,388 @@
+package service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+
+/**
+ * Encodes the rows of a ResultSet as a JSON array of objects, straight from the
+ * result set into an OutputStream.
+ * 
+ * Nothing is built per row: values are read with the typed getters and encoded
+ * into a byte buffer that's reused by every writer on the thread, and the buffer
+ * is written out whenever it fills up. The column names are encoded once per
+ * result.
+ * 
+ * Integers and booleans are written as JSON numbers and booleans, `json` and
+ * `jsonb` columns are embedded as they are, other numbers are written as numbers
+ * when they're finite, and everything else is written as its text form. `BIT`
+ * columns are only booleans when the driver reads them as one (e.g. `bit(1)`);
+ * longer bit strings are written as text.
+ */
+class JsonRowWriter {
+	private static final int BUFFER_SIZE = 16 * 1024;
+	
+	// How each column is encoded
+	private static final int INTEGER = 0;
+	private static final int DECIMAL = 1;
+	private static final int BOOLEAN = 2;
+	private static final int JSON    = 3;
+	private static final int STRING  = 4;
+	private static final int BIT     = 5;
+	
+	private static final byte[] NULL  = { 'n', 'u', 'l', 'l' };
+	private static final byte[] TRUE  = { 't', 'r', 'u', 'e' };
+	private static final byte[] FALSE = { 'f', 'a', 'l', 's', 'e' };
+	
+	private static final byte[] HEX = { '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f' };
+	
+	private static final ThreadLocal<byte[]> buffers = new ThreadLocal<byte[]>() {
+		@Override
+		protected byte[] initialValue() {
+			return new byte[BUFFER_SIZE];
+		}
+	};
+	
+	private final OutputStream out;
+	private final byte[]       buffer;
+	private int                length;
+	
+	// Each column's `"name":`, encoded, and how its values are encoded
+	private final byte[][] keys;
+	private final int[]    types;
+	
+	private long rows;
+	
+	/**
+	 * @param metaData - The metadata of the result that will be written
+	 * @param out      - Where to write the JSON
+	 * 
+	 * @throws SQLException If the metadata could not be read
+	 */
+	JsonRowWriter(ResultSetMetaData metaData, OutputStream out) throws SQLException {
+		this.out    = out;
+		this.buffer = buffers.get();
+		
+		int count = metaData.getColumnCount();
+		
+		keys  = new byte[count][];
+		types = new int[count];
+		
+		for (int i = 0; i < count; i++) {
+			keys [i] = key(metaData.getColumnName(i + 1));
+			types[i] = type(metaData.getColumnType(i + 1), metaData.getColumnTypeName(i + 1));
+		}
+	}
+	
+	private static int type(int sqlType, String typeName) {
+		switch (sqlType) {
+			case Types.TINYINT:
+			case Types.SMALLINT:
+			case Types.INTEGER:
+			case Types.BIGINT:
+				return INTEGER;
+			
+			case Types.REAL:
+			case Types.FLOAT:
+			case Types.DOUBLE:
+			case Types.NUMERIC:
+			case Types.DECIMAL:
+				return DECIMAL;
+			
+			case Types.BOOLEAN:
+				return BOOLEAN;
+			
+			case Types.BIT:
+				return BIT;
+			
+			default:
+				return "json".equals(typeName) || "jsonb".equals(typeName) ? JSON : STRING;
+		}
+	}
+	
+	/**
+	 * Encodes a column's name as `"name":`.
+	 */
+	private static byte[] key(String name) {
+		StringBuilder b = new StringBuilder(name.length() + 3);
+		
+		b.append('"');
+		
+		for (int i = 0; i < name.length(); i++) {
+			char c = name.charAt(i);
+			
+			if (c == '"' || c == '\\')
+				b.append('\\');
+			
+			if (c < 0x20)
+				b.append(String.format("\\u%04x", (int)c));
+			
+			else
+				b.append(c);
+		}
+		
+		b.append("\":");
+		
+		return b.toString().getBytes(StandardCharsets.UTF_8);
+	}
+	
+	/**
+	 * Starts the array.
+	 */
+	void begin() throws IOException {
+		write('[');
+	}
+	
+	/**
+	 * Writes the row the result set is positioned on.
+	 * 
+	 * @param res - The result set (its metadata must be the one this writer was built from)
+	 */
+	void write(ResultSet res) throws SQLException, IOException {
+		if (rows++ != 0)
+			write(',');
+		
+		write('{');
+		
+		for (int i = 0; i < keys.length; i++) {
+			if (i != 0)
+				write(',');
+			
+			write(keys[i]);
+			
+			switch (types[i]) {
+				case INTEGER: {
+					long value = res.getLong(i + 1);
+					
+					if (res.wasNull())
+						write(NULL);
+					
+					else
+						writeLong(value);
+					
+					break;
+				}
+				
+				case BOOLEAN: {
+					boolean value = res.getBoolean(i + 1);
+					
+					write(res.wasNull() ? NULL : value ? TRUE : FALSE);
+					
+					break;
+				}
+				
+				case BIT: {
+					Object value = res.getObject(i + 1);
+					
+					if (value == null)
+						write(NULL);
+					
+					else if (value instanceof Boolean)
+						write((Boolean)value ? TRUE : FALSE);
+					
+					else
+						writeString(res.getString(i + 1));
+					
+					break;
+				}
+				
+				case DECIMAL: {
+					String value = res.getString(i + 1);
+					
+					// NaN and the infinities have no JSON number
+					if (value == null)
+						write(NULL);
+					
+					else if (Character.isDigit(value.charAt(value.length() - 1)))
+						writeRaw(value);
+					
+					else
+						writeString(value);
+					
+					break;
+				}
+				
+				case JSON: {
+					String value = res.getString(i + 1);
+					
+					if (value == null)
+						write(NULL);
+					
+					else
+						writeRaw(value);
+					
+					break;
+				}
+				
+				default: {
+					String value = res.getString(i + 1);
+					
+					if (value == null)
+						write(NULL);
+					
+					else
+						writeString(value);
+				}
+			}
+		}
+		
+		write('}');
+	}
+	
+	/**
+	 * Ends the array and writes out what's buffered.
+	 */
+	void end() throws IOException {
+		write(']');
+		flush();
+	}
+	
+	/**
+	 * Writes out what's buffered and flushes the stream, so the client gets it now.
+	 */
+	void flush() throws IOException {
+		if (length > 0) {
+			out.write(buffer, 0, length);
+			length = 0;
+		}
+		
+		out.flush();
+	}
+	
+	/**
+	 * @return How many rows were written
+	 */
+	long getRows() {
+		return rows;
+	}
+	
+	private void write(int b) throws IOException {
+		if (length == buffer.length) {
+			out.write(buffer, 0, length);
+			length = 0;
+		}
+		
+		buffer[length++] = (byte)b;
+	}
+	
+	private void write(byte[] bytes) throws IOException {
+		if (length + bytes.length > buffer.length) {
+			out.write(buffer, 0, length);
+			length = 0;
+			
+			if (bytes.length > buffer.length) {
+				out.write(bytes);
+				
+				return;
+			}
+		}
+		
+		System.arraycopy(bytes, 0, buffer, length, bytes.length);
+		length += bytes.length;
+	}
+	
+	private void writeLong(long value) throws IOException {
+		if (value == Long.MIN_VALUE) {
+			writeRaw("-9223372036854775808");
+			
+			return;
+		}
+		
+		if (value < 0) {
+			write('-');
+			value = -value;
+		}
+		
+		// Digits come out backwards, so make room for all of them first
+		int digits = 1;
+		
+		for (long v = value; v >= 10; v /= 10)
+			digits++;
+		
+		if (length + digits > buffer.length) {
+			out.write(buffer, 0, length);
+			length = 0;
+		}
+		
+		for (int i = length + digits - 1; i >= length; i--) {
+			buffer[i] = (byte)('0' + value % 10);
+			value /= 10;
+		}
+		
+		length += digits;
+	}
+	
+	/**
+	 * Writes ASCII text (or JSON from the database) as it is.
+	 */
+	private void writeRaw(String value) throws IOException {
+		writeChars(value, false);
+	}
+	
+	private void writeString(String value) throws IOException {
+		write('"');
+		writeChars(value, true);
+		write('"');
+	}
+	
+	/**
+	 * Encodes text as UTF-8, escaping it for a JSON string if asked to.
+	 */
+	private void writeChars(String value, boolean escape) throws IOException {
+		int count = value.length();
+		
+		for (int i = 0; i < count; i++) {
+			char c = value.charAt(i);
+			
+			if (c < 0x80) {
+				if (escape && (c == '"' || c == '\\')) {
+					write('\\');
+					write(c);
+				}
+				
+				else if (escape && c < 0x20) {
+					write('\\');
+					write('u');
+					write('0');
+					write('0');
+					write(HEX[c >> 4]);
+					write(HEX[c & 0xF]);
+				}
+				
+				else {
+					write(c);
+				}
+			}
+			
+			else if (c < 0x800) {
+				write(0xC0 | (c >> 6));
+				write(0x80 | (c & 0x3F));
+			}
+			
+			else if (Character.isHighSurrogate(c) && i + 1 < count && Character.isLowSurrogate(value.charAt(i + 1))) {
+				int codePoint = Character.toCodePoint(c, value.charAt(++i));
+				
+				write(0xF0 | (codePoint >> 18));
+				write(0x80 | ((codePoint >> 12) & 0x3F));
+				write(0x80 | ((codePoint >> 6) & 0x3F));
+				write(0x80 | (codePoint & 0x3F));
+			}
+			
+			else if (Character.isSurrogate(c)) {
+				
+				// A lone surrogate isn't valid UTF-8
+				write('?');
+			}
+			
+			else {
+				write(0xE0 | (c >> 12));
+				write(0x80 | ((c >> 6) & 0x3F));
+				write(0x80 | (c & 0x3F));
+			}
+		}
+	}
+}
@@ -0,0 +1,755 @@
+package service;
+
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+import javax.ejb.Stateless;
+import javax.enterprise.inject.Alternative;
+
+import model.User;
+
+/**
+ * A DBInterface that keeps its tables in memory instead of Postgres, for tests,
+ * edge caches and local deployments that don't need a database. Select it the
+ * same way as DBService (in `beans.xml`'s `<alternatives>`).
+ * 
+ * It takes the same query builders (`createLocation`, `where`, `set`,
+ * `conditionals`, `like`) and answers equality predicates from hash indexes and
+ * `like(..., PREFIX)` from sorted indexes (see MemoryTable). Tables are created on
+ * their first insert. The user table has the same unique constraints as in
+ * Postgres and fills in "UserID" itself.
+ * 
+ * Every statement is atomic, and `transaction` undoes the whole unit of work if
+ * it fails. There's no isolation though: other threads see a transaction's writes
+ * as soon as they're made.
+ * 
+ * Values are compared as Java objects, so numbers compare by value but nothing
+ * else is converted (a UUID column has to be queried with UUIDs, not Strings).
+ * `%` and `_` in the values of `like` aren't wildcards here.
+ */
+@Alternative
+@Stateless
+public class MemoryDBService implements DBInterface {
+	
+	// Shared by every MemoryDBService, so they all see the same data
+	private static final ConcurrentHashMap<String, MemoryTable> tables = new ConcurrentHashMap<String, MemoryTable>();
+	
+	/**
+	 * The transaction of the `transaction` call running on this thread.
+	 */
+	private static final class MemoryTransaction {
+		final MemoryTable.UndoLog undo = new MemoryTable.UndoLog();
+		final boolean             readOnly;
+		
+		boolean rollbackOnly;
+		
+		MemoryTransaction(boolean readOnly) {
+			this.readOnly = readOnly;
+		}
+	}
+	
+	private static final ThreadLocal<MemoryTransaction> transaction = new ThreadLocal<MemoryTransaction>();
+	
+	public final int OK    = 0;
+	public final int ERROR = -1;
+	
+	public final int PREFIX   = 1;
+	public final int POSTFIX  = 2;
+	public final int ANYWHERE = 3;
+	
+	public final int USERNAME_EXISTS = 1;
+	public final int EMAIL_EXISTS    = 2;
+	public final int DATABASE_ERROR  = 3;
+	
+	/**
+	 * Gets a table, creating it if it doesn't exist yet.
+	 */
+	private static MemoryTable table(String location) {
+		MemoryTable table = tables.get(location);
+		
+		if (table != null)
+			return table;
+		
+		table = new MemoryTable();
+		
+		if (DBService.USERS.equals(location)) {
+			table.unique("Username");
+			table.unique("Email");
+			table.generated("UserID");
+		}
+		
+		MemoryTable existing = tables.putIfAbsent(location, table);
+		
+		return existing == null ? table : existing;
+	}
+	
+	/**
+	 * Deletes every table (e.g. between tests).
+	 */
+	public static void clear() {
+		tables.clear();
+	}
+	
+	/**
+	 * Records a failure, printing it and marking the current transaction (if any) for rollback.
+	 */
+	private static void failed(Exception e) {
+		e.printStackTrace();
+		
+		MemoryTransaction tx = transaction.get();
+		
+		if (tx != null)
+			tx.rollbackOnly = true;
+	}
+	
+	/**
+	 * @return The undo log for a write: the transaction's, or a new one for a write outside a transaction
+	 * 
+	 * @throws IllegalStateException If the current transaction is read-only
+	 */
+	private static MemoryTable.UndoLog undoLog() {
+		MemoryTransaction tx = transaction.get();
+		
+		if (tx == null)
+			return new MemoryTable.UndoLog();
+		
+		if (tx.readOnly)
+			throw new IllegalStateException("Cannot write in a read-only transaction");
+		
+		return tx.undo;
+	}
+	
+	/**
+	 * Copies a row for the caller, keeping only some of its columns.
+	 * 
+	 * @param row     - The stored row
+	 * @param columns - The columns to keep, or null for every column
+	 */
+	private static Map<String, Object> copy(Map<String, Object> row, String[] columns) {
+		if (columns == null)
+			return new HashMap<String, Object>(row);
+		
+		LinkedHashMap<String, Object> copy = new LinkedHashMap<String, Object>();
+		
+		for (String column : columns)
+			copy.put(column, row.get(column));
+		
+		return copy;
+	}
+	
+	private static ArrayList<Map<String, Object>> copy(List<Map<String, Object>> rows, String[] columns) {
+		ArrayList<Map<String, Object>> copies = new ArrayList<Map<String, Object>>(rows.size());
+		
+		for (Map<String, Object> row : rows)
+			copies.add(copy(row, columns));
+		
+		return copies;
+	}
+	
+	/**
+	 * @param rows - Rows copied with every column, which are HashMaps (see `copy`), or null
+	 * 
+	 * @return The same rows, typed as HashMaps
+	 */
+	private static ArrayList<HashMap<String, Object>> hashMaps(List<Map<String, Object>> rows) {
+		if (rows == null)
+			return null;
+		
+		ArrayList<HashMap<String, Object>> maps = new ArrayList<HashMap<String, Object>>(rows.size());
+		
+		for (Map<String, Object> row : rows)
+			maps.add((HashMap<String, Object>)row);
+		
+		return maps;
+	}
+	
+	private static Object[] params(Object[] whereObjects) {
+		return whereObjects == null ? new Object[0] : whereObjects;
+	}
+	
+	/**
+	 * Runs a unit of work in a single read-write transaction. See `transaction(UnitOfWork, boolean, int)`.
+	 * 
+	 * @param work - The work to run
+	 * 
+	 * @return The work's result, or null if the transaction was rolled back
+	 */
+	public <T> T transaction(UnitOfWork<T> work) {
+		return transaction(work, false, -1);
+	}
+	
+	/**
+	 * Runs a unit of work as a single transaction: if the work throws or any
+	 * statement in it fails, every write it made is undone. Calls made inside
+	 * another `transaction` join the outer one.
+	 * 
+	 * @param work           - The work to run
+	 * @param readOnly       - Whether the transaction is read-only
+	 * @param isolationLevel - Ignored, as there's no isolation between threads
+	 * 
+	 * @return The work's result, or null if the transaction was rolled back
+	 */
+	public <T> T transaction(UnitOfWork<T> work, boolean readOnly, int isolationLevel) {
+		MemoryTransaction outer = transaction.get();
+		
+		// Join the transaction that's already running
+		if (outer != null) {
+			try {
+				return work.run(this);
+			}
+			
+			catch (Exception e) {
+				failed(e);
+			}
+			
+			return null;
+		}
+		
+		MemoryTransaction tx = new MemoryTransaction(readOnly);
+		transaction.set(tx);
+		
+		try {
+			T result = work.run(this);
+			
+			if (tx.rollbackOnly) {
+				tx.undo.rollback();
+				
+				return null;
+			}
+			
+			return result;
+		}
+		
+		catch (Exception e) {
+			e.printStackTrace();
+			tx.undo.rollback();
+		}
+		
+		finally {
+			transaction.remove();
+		}
+		
+		return null;
+	}
+	
+	/**
+	 * Creates a location for the table, same as DBService.
+	 * 
+	 * @param schema - The schema to use
+	 * @param table  - The table to use
+	 * 
+	 * @return [schema].[table]
+	 */
+	public String createLocation(String schema, String table) {
+		return '"' + schema + '"' + '.' + '"' + table + '"';
+	}
+	
+	/**
+	 * Creates a `SET` statement for updates, same as DBService.
+	 * 
+	 * @param names  - A list of the field names
+	 * 
+	 * @return A `SET` statement in the structure of [name]=?,[name2]=?,...
+	 */
+	public String set(String[] names) {
+		StringBuilder b = new StringBuilder();
+		
+		for (int i = 0; i < names.length; i++) {
+			b.append('"' + names[i] + '"');
+			b.append("=?");
+			
+			if (i != names.length - 1)
+				b.append(',');
+		}
+		
+		return b.toString();
+	}
+	
+	/**
+	 * Creates a `WHERE` statement, same as DBService.
+	 * 
+	 * @param name - The name of the column
+	 * 
+	 * @return A `WHERE` statement in the structure of `WHERE [name]=?`
+	 */
+	public String where(String name) {
+		return '"' + name + '"' + "=?";
+	}
+	
+	/**
+	 * Creates a conditional chain of statements, same as DBService.
+	 * 
+	 * @param statements - An array of the statements, with `AND`/`OR` between them
+	 * 
+	 * @return A conditional chain of statements
+	 */
+	public String conditionals(String[] statements) {
+		StringBuilder b = new StringBuilder();
+		
+		for (int i = 0; i < statements.length; i++) {
+			b.append(statements[i]);
+			b.append(' ');
+			b.append(statements[++i]);
+			
+			if (i != statements.length - 1)
+				b.append(' ');
+		}
+		
+		return b.toString();
+	}
+	
+	/**
+	 * Creates a `LIKE` statement, same as DBService.
+	 * 
+	 * @param fieldName - The name of the field
+	 * @param type      - An enum of the type (PREFIX, POSTFIX, ANYWHERE)
+	 * 
+	 * @return A `LIKE` statement in the structure of `[fieldName] LIKE [?][type][?]`
+	 */
+	public String like(String fieldName, int type) {
+		if (type == PREFIX)
+			return '"' + fieldName + '"' + " LIKE 1?";
+		
+		else if (type == POSTFIX)
+			return '"' + fieldName + '"' + " LIKE 2?";
+		
+		else if (type == ANYWHERE)
+			return '"' + fieldName + '"' + " LIKE 3?";
+		
+		else
+			return null;
+	}
+	
+	/**
+	 * Selects the first matching row.
+	 * 
+	 * @param location       - Location to search (use `createLocation`)
+	 * @param whereStatement - The `WHERE` statement to search by
+	 * @param whereObjects   - The value(s) to search by
+	 * 
+	 * @return A copy of the row, or null if there was none or the statement isn't supported
+	 */
+	public HashMap<String, Object> select(String location, String whereStatement, Object[] whereObjects) {
+		// Rows copied with every column are HashMaps (see `copy`)
+		return (HashMap<String, Object>)select(location, null, whereStatement, whereObjects);
+	}
+	
+	public HashMap<String, Object> select(String location, String whereStatement, Object whereObject) {
+		return select(location, whereStatement, new Object[] { whereObject });
+	}
+	
+	public Map<String, Object> select(String location, String[] columns, String whereStatement, Object[] whereObjects) {
+		try {
+			List<Map<String, Object>> rows = table(location).select(MemoryQuery.parse(whereStatement), params(whereObjects), 1);
+			
+			return rows.isEmpty() ? null : copy(rows.get(0), columns);
+		}
+		
+		catch (RuntimeException e) {
+			failed(e);
+		}
+		
+		return null;
+	}
+	
+	public ArrayList<HashMap<String, Object>> selectMany(String location, String whereStatement, Object[] whereObjects) {
+		return hashMaps(selectMany(location, null, whereStatement, whereObjects));
+	}
+	
+	public ArrayList<HashMap<String, Object>> selectMany(String location, String whereStatement, Object value) {
+		return selectMany(location, whereStatement, new Object[] { value });
+	}
+	
+	/**
+	 * Selects every matching row.
+	 * 
+	 * @param location       - Location to search (use `createLocation`)
+	 * @param columns        - The columns to return, or null for every column
+	 * @param whereStatement - The `WHERE` statement to search by
+	 * @param whereObjects   - The value(s) to search by
+	 * 
+	 * @return Copies of the rows, or null if the statement isn't supported
+	 */
+	public ArrayList<Map<String, Object>> selectMany(String location, String[] columns, String whereStatement, Object[] whereObjects) {
+		try {
+			return copy(table(location).select(MemoryQuery.parse(whereStatement), params(whereObjects), Integer.MAX_VALUE), columns);
+		}
+		
+		catch (RuntimeException e) {
+			failed(e);
+		}
+		
+		return null;
+	}
+	
+	public ArrayList<HashMap<String, Object>> selectAll(String location) {
+		return hashMaps(selectMany(location, null, null, null));
+	}
+	
+	public ArrayList<Map<String, Object>> selectAll(String location, String[] columns) {
+		return selectMany(location, columns, null, null);
+	}
+	
+	/**
+	 * Selects one page of matching rows in order of a column, same as DBService.
+	 * Rows whose order column is null are never returned.
+	 * 
+	 * @param location       - Location to search (use `createLocation`)
+	 * @param whereStatement - The `WHERE` statement to search by, or null for every row
+	 * @param whereObjects   - The value(s) to search by
+	 * @param orderColumn    - The column to order and seek by
+	 * @param after          - The previous page's `getNextCursor`, or null for the first page
+	 * @param pageSize       - The most rows to return
+	 * 
+	 * @return The page, or null if the statement isn't supported
+	 */
+	public Page selectPage(String location, String whereStatement, Object[] whereObjects, final String orderColumn, Object after, int pageSize) {
+		pageSize = Math.max(1, pageSize);
+		
+		ArrayList<Map<String, Object>> rows = selectMany(location, null, whereStatement, whereObjects);
+		
+		if (rows == null)
+			return null;
+		
+		ArrayList<Map<String, Object>> page = new ArrayList<Map<String, Object>>();
+		
+		for (Map<String, Object> row : rows) {
+			Object value = row.get(orderColumn);
+			
+			if (value != null && (after == null || MemoryQuery.compare(value, after) > 0))
+				page.add(row);
+		}
+		
+		Collections.sort(page, new Comparator<Map<String, Object>>() {
+			public int compare(Map<String, Object> a, Map<String, Object> b) {
+				return MemoryQuery.compare(a.get(orderColumn), b.get(orderColumn));
+			}
+		});
+		
+		if (page.size() <= pageSize)
+			return new Page(page, null);
+		
+		ArrayList<Map<String, Object>> trimmed = new ArrayList<Map<String, Object>>(page.subList(0, pageSize));
+		
+		return new Page(trimmed, trimmed.get(pageSize - 1).get(orderColumn));
+	}
+	
+	public Page selectAllPage(String location, String orderColumn, Object after, int pageSize) {
+		return selectPage(location, null, null, orderColumn, after, pageSize);
+	}
+	
+	/**
+	 * @return A stream over copies of the matching rows, or null if the statement isn't supported
+	 */
+	public Stream<Map<String, Object>> stream(String location, String whereStatement, Object[] whereObjects) {
+		ArrayList<Map<String, Object>> rows = selectMany(location, null, whereStatement, whereObjects);
+		
+		return rows == null ? null : rows.stream();
+	}
+	
+	public Stream<Map<String, Object>> streamAll(String location) {
+		return stream(location, null, null);
+	}
+	
+	/**
+	 * Updates every matching row. If a row would break a unique constraint, nothing is updated.
+	 * 
+	 * @param location       - Schema and table to search (use `createLocation`)
+	 * @param setStatement   - The `SET` statement to use (use `set`)
+	 * @param setObjects     - The values to set to
+	 * @param whereStatement - The `WHERE` statement to search by (use `where`)
+	 * @param whereObjects   - The value(s) to search by
+	 * 
+	 * @return Whether any row was updated
+	 */
+	public boolean update(String location, String setStatement, Object[] setObjects, String whereStatement, Object[] whereObjects) {
+		try {
+			String[]                columns = MemoryQuery.parseSet(setStatement);
+			HashMap<String, Object> changes = new HashMap<String, Object>();
+			
+			for (int i = 0; i < columns.length; i++)
+				changes.put(columns[i], setObjects[i]);
+			
+			return table(location).update(MemoryQuery.parse(whereStatement), params(whereObjects), changes, undoLog()) != 0;
+		}
+		
+		catch (MemoryTable.UniqueViolation | RuntimeException e) {
+			failed(e);
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * Deletes every matching row.
+	 * 
+	 * @param location       - Schema and table to search (use `createLocation`)
+	 * @param whereStatement - The `WHERE` statement to search by
+	 * @param whereObjects   - The value(s) to search by
+	 * 
+	 * @return Whether any row was deleted
+	 */
+	public boolean delete(String location, String whereStatement, Object[] whereObjects) {
+		try {
+			return table(location).delete(MemoryQuery.parse(whereStatement), params(whereObjects), undoLog()) != 0;
+		}
+		
+		catch (RuntimeException e) {
+			failed(e);
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * Inserts a row.
+	 * 
+	 * @param location   - Schema and table to insert into (use `createLocation`)
+	 * @param fieldNames - An array of the names of each field
+	 * @param values     - The values, in the same order as `fieldNames`
+	 * 
+	 * @return The row as stored, or null if it broke a unique constraint
+	 */
+	private Map<String, Object> insertRow(String location, String[] fieldNames, Object[] values) {
+		try {
+			return table(location).insert(row(fieldNames, values), undoLog());
+		}
+		
+		catch (MemoryTable.UniqueViolation | RuntimeException e) {
+			failed(e);
+		}
+		
+		return null;
+	}
+	
+	private static HashMap<String, Object> row(String[] fieldNames, Object[] values) {
+		HashMap<String, Object> row = new HashMap<String, Object>();
+		
+		for (int i = 0; i < fieldNames.length; i++)
+			row.put(fieldNames[i], values[i]);
+		
+		return row;
+	}
+	
+	public boolean insert(String location, String[] fieldNames, Object[] values) {
+		return insertRow(location, fieldNames, values) != null;
+	}
+	
+	/**
+	 * @return The inserted row's value of `columnToReturn`, or null on failure
+	 */
+	public Object insertAndReturn(String location, String[] fieldNames, Object[] values, String columnToReturn) {
+		Map<String, Object> row = insertRow(location, fieldNames, values);
+		
+		return row == null ? null : row.get(columnToReturn);
+	}
+	
+	/**
+	 * Inserts many rows, all-or-nothing.
+	 * 
+	 * @param location   - Schema and table to insert into (use `createLocation`)
+	 * @param fieldNames - An array of the names of each field
+	 * @param rows       - The values of each row, in the same order as `fieldNames`
+	 * 
+	 * @return The outcome of each row: 1 if it was inserted, `Statement.EXECUTE_FAILED` if it
+	 *         broke a unique constraint, or 0 if it was undone because another row failed
+	 */
+	public int[] insertBatch(String location, String[] fieldNames, List<Object[]> rows) {
+		int[] outcomes = new int[rows.size()];
+		
+		ArrayList<Map<String, Object>> inserted = insertBatch(location, fieldNames, rows, outcomes);
+		
+		if (inserted == null) {
+			for (int i = 0; i < outcomes.length; i++) {
+				if (outcomes[i] == 1)
+					outcomes[i] = 0;
+			}
+		}
+		
+		return outcomes;
+	}
+	
+	/**
+	 * Inserts many rows, all-or-nothing.
+	 * 
+	 * @return Each inserted row's value of `columnToReturn`, or null on failure (in order here,
+	 *         but DBService doesn't promise that)
+	 */
+	public ArrayList<Object> insertBatchAndReturn(String location, String[] fieldNames, List<Object[]> rows, String columnToReturn) {
+		ArrayList<Map<String, Object>> inserted = insertBatch(location, fieldNames, rows, new int[rows.size()]);
+		
+		if (inserted == null)
+			return null;
+		
+		ArrayList<Object> returned = new ArrayList<Object>(inserted.size());
+		
+		for (Map<String, Object> row : inserted)
+			returned.add(row.get(columnToReturn));
+		
+		return returned;
+	}
+	
+	/**
+	 * Inserts rows until one fails, then undoes the ones before it.
+	 * 
+	 * @param outcomes - Filled with 1 for each inserted row and `Statement.EXECUTE_FAILED` for the failed one
+	 * 
+	 * @return The inserted rows, or null if one failed
+	 */
+	private ArrayList<Map<String, Object>> insertBatch(String location, String[] fieldNames, List<Object[]> rows, int[] outcomes) {
+		MemoryTable                    table    = table(location);
+		MemoryTable.UndoLog            batch    = new MemoryTable.UndoLog();
+		ArrayList<Map<String, Object>> inserted = new ArrayList<Map<String, Object>>(rows.size());
+		
+		try {
+			MemoryTable.UndoLog undo = undoLog();
+			
+			for (int i = 0; i < rows.size(); i++) {
+				try {
+					inserted.add(table.insert(row(fieldNames, rows.get(i)), batch));
+					outcomes[i] = 1;
+				}
+				
+				catch (MemoryTable.UniqueViolation e) {
+					outcomes[i] = Statement.EXECUTE_FAILED;
+					
+					throw e;
+				}
+			}
+			
+			undo.addAll(batch);
+			
+			return inserted;
+		}
+		
+		catch (MemoryTable.UniqueViolation | RuntimeException e) {
+			batch.rollback();
+			failed(e);
+		}
+		
+		return null;
+	}
+	
+	public int count(String location, String whereStatement, Object[] whereObjects) {
+		try {
+			return table(location).select(MemoryQuery.parse(whereStatement), params(whereObjects), Integer.MAX_VALUE).size();
+		}
+		
+		catch (RuntimeException e) {
+			failed(e);
+		}
+		
+		return -1;
+	}
+	
+	public boolean exists(String location, String whereStatement, Object[] whereObjects) {
+		try {
+			return !table(location).select(MemoryQuery.parse(whereStatement), params(whereObjects), 1).isEmpty();
+		}
+		
+		catch (RuntimeException e) {
+			failed(e);
+		}
+		
+		return false;
+	}
+	
+	public boolean authenticate(User user) {
+		User stored = getUserbyUsername(user.getUsername());
+		
+		return stored != null && user.getPassword().equals(stored.getPassword());
+	}
+	
+	public boolean usernameExists(String username) {
+		return exists(DBService.USERS, where("Username"), new Object[] { username });
+	}
+	
+	public boolean emailExists(String email) {
+		return exists(DBService.USERS, where("Email"), new Object[] { email });
+	}
+	
+	/**
+	 * Inserts a User object, relying on the user table's unique constraints like DBService does.
+	 * 
+	 * @param user - The User object to insert. Note that the ID should not be created.
+	 * 
+	 * @return OK, USERNAME_EXISTS, EMAIL_EXISTS, or DATABASE_ERROR if the insert failed.
+	 */
+	public int insertUser(User user) {
+		try {
+			table(DBService.USERS).insert(row(new String[] { "Username", "Password", "Email" },
+				new Object[] { user.getUsername(), user.getPassword(), user.getEmail() }), undoLog());
+			
+			return OK;
+		}
+		
+		catch (MemoryTable.UniqueViolation e) {
+			return "Username".equals(e.column) ? USERNAME_EXISTS : EMAIL_EXISTS;
+		}
+		
+		catch (RuntimeException e) {
+			failed(e);
+		}
+		
+		return DATABASE_ERROR;
+	}
+	
+	private static User user(Map<String, Object> row) {
+		return new User((UUID)row.get("UserID"), (String)row.get("Username"), (String)row.get("Password"), (String)row.get("Email"));
+	}
+	
+	public User getUserbyID(UUID userID) {
+		Map<String, Object> row = select(DBService.USERS, where("UserID"), new Object[] { userID });
+		
+		return row == null ? null : user(row);
+	}
+	
+	public User getUserbyUsername(String username) {
+		Map<String, Object> row = select(DBService.USERS, where("Username"), new Object[] { username });
+		
+		return row == null ? null : user(row);
+	}
+	
+	/**
+	 * @return The users that were found, by ID
+	 */
+	public Map<UUID, User> getUsersByIds(Collection<UUID> userIDs) {
+		HashMap<UUID, User> found = new HashMap<UUID, User>();
+		
+		for (UUID userID : new LinkedHashSet<UUID>(userIDs)) {
+			User user = userID == null ? null : getUserbyID(userID);
+			
+			if (user != null)
+				found.put(userID, user);
+		}
+		
+		return found;
+	}
+	
+	/**
+	 * @return The users that were found, by username
+	 */
+	public Map<String, User> getUsersByUsernames(Collection<String> usernames) {
+		HashMap<String, User> found = new HashMap<String, User>();
+		
+		for (String username : new LinkedHashSet<String>(usernames)) {
+			User user = username == null ? null : getUserbyUsername(username);
+			
+			if (user != null)
+				found.put(username, user);
+		}
+		
+		return found;
+	}
+}
@@ -0,0 +1,106 @@
+package service;
+
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Checks that a statement undone for breaking a unique constraint leaves the
+ * indexes the way they were: the rows it had changed are found again by their
+ * old values (through the hash and prefix indexes), its new values aren't
+ * found, and the unique constraints still hold the old values but not the new.
+ * 
+ * Run with `java service.MemoryDBServiceTest`; it throws on the first failure.
+ */
+public class MemoryDBServiceTest {
+	private final MemoryDBService db = new MemoryDBService();
+	
+	private final String users = DBService.USERS;
+	
+	private final String[] userFields = { "Username", "Password", "Email" };
+	
+	public static void main(String[] args) {
+		MemoryDBServiceTest test = new MemoryDBServiceTest();
+		
+		test.updateRollback();
+		test.insertBatchRollback();
+		
+		System.out.println("MemoryDBServiceTest passed");
+	}
+	
+	/**
+	 * Renames two users to the same name: the first rename is made, the second
+	 * breaks the constraint, and the first has to be undone.
+	 */
+	public void updateRollback() {
+		setUp();
+		
+		String bothNames = db.where("Username") + " OR " + db.where("Username");
+		
+		boolean updated = db.update(users, db.set(new String[] { "Username" }), new Object[] { "zed" }, bothNames, new Object[] { "alice", "bob" });
+		
+		check(!updated, "the update broke a unique constraint, so it should fail");
+		
+		checkFound   ("alice", "alice@example.com");
+		checkFound   ("bob",   "bob@example.com");
+		checkNotFound("zed");
+		
+		check(db.insert(users, userFields, new Object[] { "zed", "pw", "zed@example.com" }), "\"zed\" should be free after the rollback");
+		check(!db.insert(users, userFields, new Object[] { "alice", "pw", "alice2@example.com" }), "\"alice\" should still be taken after the rollback");
+	}
+	
+	/**
+	 * Inserts two new users and then a taken one, so the two new ones have to be undone.
+	 */
+	public void insertBatchRollback() {
+		setUp();
+		
+		int[] outcomes = db.insertBatch(users, userFields, Arrays.asList(
+			new Object[] { "dave",  "pw", "dave@example.com"   },
+			new Object[] { "erin",  "pw", "erin@example.com"   },
+			new Object[] { "alice", "pw", "alice3@example.com" }));
+		
+		check(Arrays.equals(outcomes, new int[] { 0, 0, Statement.EXECUTE_FAILED }), "unexpected outcomes " + Arrays.toString(outcomes));
+		
+		checkFound   ("alice", "alice@example.com");
+		checkNotFound("dave");
+		checkNotFound("erin");
+		
+		check(db.count(users, db.where("Email"), new Object[] { "dave@example.com" }) == 0, "dave's email should be gone after the rollback");
+		
+		check(db.insert(users, userFields, new Object[] { "dave", "pw", "dave@example.com" }), "\"dave\" should be free after the rollback");
+		check(!db.insert(users, userFields, new Object[] { "bob", "pw", "bob2@example.com" }), "\"bob\" should still be taken after the rollback");
+	}
+	
+	/**
+	 * Starts from two users, with the prefix index on "Username" already built so
+	 * the rollback has to keep it up to date too.
+	 */
+	private void setUp() {
+		MemoryDBService.clear();
+		
+		check(db.insert(users, userFields, new Object[] { "alice", "pw", "alice@example.com" }), "couldn't insert alice");
+		check(db.insert(users, userFields, new Object[] { "bob",   "pw", "bob@example.com"   }), "couldn't insert bob");
+		
+		db.selectMany(users, db.like("Username", db.PREFIX), "a");
+	}
+	
+	private void checkFound(String username, String email) {
+		Map<String, Object> found = db.select(users, db.where("Username"), username);
+		
+		check(found != null && email.equals(found.get("Email")), username + " should be found by name, but got " + found);
+		
+		check(db.selectMany(users, db.like("Username", db.PREFIX), username.substring(0, 2)).size() == 1, username + " should be found by prefix");
+	}
+	
+	private void checkNotFound(String username) {
+		check(db.select(users, db.where("Username"), username) == null, username + " shouldn't be found by name");
+		
+		check(db.selectMany(users, db.like("Username", db.PREFIX), username.substring(0, 2)).isEmpty(), username + " shouldn't be found by prefix");
+	}
+	
+	private static void check(boolean condition, String message) {
+		if (!condition)
+			throw new IllegalStateException(message);
+	}
+}
@@ -0,0 +1,370 @@
+package service;
+
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A `WHERE` statement built with the query builders (`where`, `like`,
+ * `conditionals`), parsed once so MemoryDBService can evaluate it against rows
+ * and pick an index for it.
+ * 
+ * Supported predicates are `"column" op ?` (with `=`, `<>`, `!=`, `<`, `<=`,
+ * `>`, `>=`), `"column" LIKE 1?`/`2?`/`3?` (see `like`), `"column" LIKE ?`
+ * (with `%` and `_` wildcards in the value) and `TRUE`. They can be joined with
+ * `AND` and `OR`, where `AND` binds tighter. Parentheses aren't supported.
+ */
+class MemoryQuery {
+	static final int EQ       = 0;
+	static final int NE       = 1;
+	static final int LT       = 2;
+	static final int LE       = 3;
+	static final int GT       = 4;
+	static final int GE       = 5;
+	static final int PREFIX   = 6;
+	static final int POSTFIX  = 7;
+	static final int ANYWHERE = 8;
+	static final int PATTERN  = 9;
+	
+	private static final int CACHE_SIZE = 1024;
+	
+	private static final ConcurrentHashMap<String, MemoryQuery> cache = new ConcurrentHashMap<String, MemoryQuery>();
+	
+	/**
+	 * One comparison of a column with a parameter.
+	 */
+	static final class Predicate {
+		final String column;
+		final int    op;
+		final int    param;
+		
+		Predicate(String column, int op, int param) {
+			this.column = column;
+			this.op     = op;
+			this.param  = param;
+		}
+	}
+	
+	// Predicates ANDed together, ORed with each other. An empty group is always true.
+	final Predicate[][] groups;
+	final int           parameterCount;
+	
+	private MemoryQuery(Predicate[][] groups, int parameterCount) {
+		this.groups         = groups;
+		this.parameterCount = parameterCount;
+	}
+	
+	/**
+	 * @param whereStatement - The `WHERE` statement, or null for every row
+	 * 
+	 * @return The parsed statement
+	 * 
+	 * @throws IllegalArgumentException If the statement isn't one of the supported shapes
+	 */
+	static MemoryQuery parse(String whereStatement) {
+		if (whereStatement == null)
+			whereStatement = "TRUE";
+		
+		MemoryQuery query = cache.get(whereStatement);
+		
+		if (query == null) {
+			query = new Parser(whereStatement).parse();
+			
+			// Plenty for the queries an application builds; anything past it is probably built from input
+			if (cache.size() >= CACHE_SIZE)
+				cache.clear();
+			
+			cache.put(whereStatement, query);
+		}
+		
+		return query;
+	}
+	
+	/**
+	 * Parses the column names out of a `SET` statement (see `set`).
+	 * 
+	 * @param setStatement - The `SET` statement
+	 * 
+	 * @return The columns, in parameter order
+	 */
+	static String[] parseSet(String setStatement) {
+		String[] parts   = setStatement.split(",");
+		String[] columns = new String[parts.length];
+		
+		for (int i = 0; i < parts.length; i++) {
+			String part = parts[i].trim();
+			
+			if (!part.endsWith("=?"))
+				throw new IllegalArgumentException("Unsupported SET statement: " + setStatement);
+			
+			columns[i] = unquote(part.substring(0, part.length() - 2).trim());
+		}
+		
+		return columns;
+	}
+	
+	private static String unquote(String name) {
+		if (name.length() >= 2 && name.charAt(0) == '"' && name.charAt(name.length() - 1) == '"')
+			return name.substring(1, name.length() - 1);
+		
+		return name;
+	}
+	
+	/**
+	 * @param row    - The row to test
+	 * @param params - The statement's parameters
+	 * 
+	 * @return Whether the row matches
+	 */
+	boolean matches(Map<String, Object> row, Object[] params) {
+		for (Predicate[] group : groups) {
+			if (matches(group, row, params))
+				return true;
+		}
+		
+		return false;
+	}
+	
+	private static boolean matches(Predicate[] group, Map<String, Object> row, Object[] params) {
+		for (Predicate predicate : group) {
+			if (!matches(predicate, row.get(predicate.column), params[predicate.param]))
+				return false;
+		}
+		
+		return true;
+	}
+	
+	private static boolean matches(Predicate predicate, Object value, Object param) {
+		
+		// Comparisons with NULL are never true in SQL
+		if (value == null || param == null)
+			return false;
+		
+		switch (predicate.op) {
+			case EQ:       return compare(value, param) == 0;
+			case NE:       return compare(value, param) != 0;
+			case LT:       return compare(value, param) <  0;
+			case LE:       return compare(value, param) <= 0;
+			case GT:       return compare(value, param) >  0;
+			case GE:       return compare(value, param) >= 0;
+			case PREFIX:   return value.toString().startsWith(param.toString());
+			case POSTFIX:  return value.toString().endsWith  (param.toString());
+			case ANYWHERE: return value.toString().contains  (param.toString());
+			default:       return like(value.toString(), 0, param.toString(), 0);
+		}
+	}
+	
+	/**
+	 * Compares two column values the way Postgres would: numbers by value whatever
+	 * their class, and anything else by its natural order.
+	 * 
+	 * @return Negative, zero or positive, as for `compareTo`
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	static int compare(Object a, Object b) {
+		if (a instanceof Number && b instanceof Number) {
+			if (isIntegral(a) && isIntegral(b))
+				return Long.compare(((Number)a).longValue(), ((Number)b).longValue());
+			
+			return Double.compare(((Number)a).doubleValue(), ((Number)b).doubleValue());
+		}
+		
+		if (a instanceof Comparable && a.getClass().isInstance(b))
+			return ((Comparable)a).compareTo(b);
+		
+		return a.toString().compareTo(b.toString());
+	}
+	
+	/**
+	 * @return The value as it's stored in a hash index, so equal numbers of different classes share a key
+	 */
+	static Object key(Object value) {
+		if (isIntegral(value))
+			return ((Number)value).longValue();
+		
+		return value;
+	}
+	
+	private static boolean isIntegral(Object value) {
+		return value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte;
+	}
+	
+	/**
+	 * Matches an SQL `LIKE` pattern (`%` is any run of characters, `_` is any one character).
+	 */
+	private static boolean like(String value, int v, String pattern, int p) {
+		while (p < pattern.length()) {
+			char c = pattern.charAt(p);
+			
+			if (c == '%') {
+				for (int i = v; i <= value.length(); i++) {
+					if (like(value, i, pattern, p + 1))
+						return true;
+				}
+				
+				return false;
+			}
+			
+			if (v == value.length() || (c != '_' && c != value.charAt(v)))
+				return false;
+			
+			v++;
+			p++;
+		}
+		
+		return v == value.length();
+	}
+	
+	/**
+	 * A single-pass parser over the statement's tokens.
+	 */
+	private static final class Parser {
+		private final String sql;
+		private int          pos;
+		private int          params;
+		
+		Parser(String sql) {
+			this.sql = sql;
+		}
+		
+		MemoryQuery parse() {
+			ArrayList<Predicate[]> groups = new ArrayList<Predicate[]>();
+			ArrayList<Predicate>   group  = new ArrayList<Predicate>();
+			
+			while (true) {
+				Predicate predicate = predicate();
+				
+				if (predicate != null)
+					group.add(predicate);
+				
+				String connector = token();
+				
+				if (connector == null)
+					break;
+				
+				if (connector.equalsIgnoreCase("OR")) {
+					groups.add(group.toArray(new Predicate[group.size()]));
+					group.clear();
+				}
+				
+				else if (!connector.equalsIgnoreCase("AND")) {
+					throw unsupported();
+				}
+			}
+			
+			groups.add(group.toArray(new Predicate[group.size()]));
+			
+			return new MemoryQuery(groups.toArray(new Predicate[groups.size()][]), params);
+		}
+		
+		/**
+		 * @return The next predicate, or null for `TRUE`
+		 */
+		private Predicate predicate() {
+			String column = token();
+			
+			if (column == null)
+				throw unsupported();
+			
+			if (column.equalsIgnoreCase("TRUE"))
+				return null;
+			
+			column = unquote(column);
+			
+			String operator = token();
+			
+			if (operator == null)
+				throw unsupported();
+			
+			int op;
+			
+			if (operator.equalsIgnoreCase("LIKE")) {
+				String param = token();
+				
+				if ("1?".equals(param))
+					op = PREFIX;
+				
+				else if ("2?".equals(param))
+					op = POSTFIX;
+				
+				else if ("3?".equals(param))
+					op = ANYWHERE;
+				
+				else if ("?".equals(param))
+					op = PATTERN;
+				
+				else
+					throw unsupported();
+				
+				return new Predicate(column, op, params++);
+			}
+			
+			if      (operator.equals("="))                            op = EQ;
+			else if (operator.equals("<>") || operator.equals("!="))  op = NE;
+			else if (operator.equals("<"))                            op = LT;
+			else if (operator.equals("<="))                           op = LE;
+			else if (operator.equals(">"))                            op = GT;
+			else if (operator.equals(">="))                           op = GE;
+			else throw unsupported();
+			
+			if (!"?".equals(token()))
+				throw unsupported();
+			
+			return new Predicate(column, op, params++);
+		}
+		
+		/**
+		 * @return The next token (a quoted name, a word, an operator, or a parameter), or null at the end
+		 */
+		private String token() {
+			while (pos < sql.length() && Character.isWhitespace(sql.charAt(pos)))
+				pos++;
+			
+			if (pos == sql.length())
+				return null;
+			
+			int  start = pos;
+			char c     = sql.charAt(pos);
+			
+			if (c == '"') {
+				int end = sql.indexOf('"', pos + 1);
+				
+				if (end == -1)
+					throw unsupported();
+				
+				pos = end + 1;
+			}
+			
+			else if (c == '?') {
+				pos++;
+			}
+			
+			// A `LIKE` parameter (`1?`)
+			else if (Character.isDigit(c) && pos + 1 < sql.length() && sql.charAt(pos + 1) == '?') {
+				pos += 2;
+			}
+			
+			else if (Character.isLetter(c) || c == '_') {
+				while (pos < sql.length() && (Character.isLetterOrDigit(sql.charAt(pos)) || sql.charAt(pos) == '_'))
+					pos++;
+			}
+			
+			else if (c == '=' || c == '<' || c == '>' || c == '!') {
+				pos++;
+				
+				if (pos < sql.length() && (sql.charAt(pos) == '=' || sql.charAt(pos) == '>'))
+					pos++;
+			}
+			
+			else {
+				throw unsupported();
+			}
+			
+			return sql.substring(start, pos);
+		}
+		
+		private IllegalArgumentException unsupported() {
+			return new IllegalArgumentException("Unsupported WHERE statement: " + sql);
+		}
+	}
+}
@@ -0,0 +1,551 @@
+package service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiFunction;
+
+/**
+ * One table of a MemoryDBService.
+ * 
+ * Rows are immutable maps (a write replaces the whole row), so reads never
+ * lock. Equality predicates are answered from hash indexes and `LIKE 1?`
+ * (prefix) predicates from sorted indexes, each built the first time a query
+ * needs it and kept up to date from then on.
+ * 
+ * Writes lock only the stripes of the rows and unique values they touch, so
+ * writes to different rows run in parallel. Every write statement is atomic: if
+ * it breaks a unique constraint part way through, its earlier changes are undone.
+ */
+class MemoryTable {
+	private static final int STRIPES = 64;
+	
+	/**
+	 * Thrown when a write would give two rows the same value in a unique column.
+	 */
+	static final class UniqueViolation extends Exception {
+		private static final long serialVersionUID = 1L;
+		
+		final String column;
+		
+		UniqueViolation(String column) {
+			super("Duplicate value in unique column \"" + column + '"');
+			
+			this.column = column;
+		}
+	}
+	
+	/**
+	 * The previous state of every row a statement or transaction changed, so the changes can be undone.
+	 */
+	static final class UndoLog {
+		private final ArrayList<MemoryTable>         tables = new ArrayList<MemoryTable>();
+		private final ArrayList<Long>                ids    = new ArrayList<Long>();
+		private final ArrayList<Map<String, Object>> rows   = new ArrayList<Map<String, Object>>();
+		
+		void add(MemoryTable table, long id, Map<String, Object> previous) {
+			tables.add(table);
+			ids   .add(id);
+			rows  .add(previous);
+		}
+		
+		void addAll(UndoLog other) {
+			tables.addAll(other.tables);
+			ids   .addAll(other.ids);
+			rows  .addAll(other.rows);
+		}
+		
+		/**
+		 * Puts every changed row back the way it was, newest change first.
+		 */
+		void rollback() {
+			for (int i = tables.size() - 1; i >= 0; i--)
+				tables.get(i).restore(ids.get(i), rows.get(i));
+			
+			tables.clear();
+			ids   .clear();
+			rows  .clear();
+		}
+	}
+	
+	private final ConcurrentHashMap<Long, Map<String, Object>> rows = new ConcurrentHashMap<Long, Map<String, Object>>();
+	private final AtomicLong                                   nextID = new AtomicLong();
+	
+	private final ConcurrentHashMap<String, ConcurrentHashMap<Object, Set<Long>>>     hashIndexes   = new ConcurrentHashMap<String, ConcurrentHashMap<Object, Set<Long>>>();
+	private final ConcurrentHashMap<String, ConcurrentSkipListMap<String, Set<Long>>> prefixIndexes = new ConcurrentHashMap<String, ConcurrentSkipListMap<String, Set<Long>>>();
+	
+	private final Set<String> uniqueColumns = new CopyOnWriteArraySet<String>();
+	
+	// A column filled with a random UUID when an insert leaves it empty (like `DEFAULT gen_random_uuid()`)
+	private volatile String generatedColumn;
+	
+	// Writes hold the read lock, so an index is never built halfway through one
+	private final ReentrantReadWriteLock indexLock = new ReentrantReadWriteLock();
+	private final ReentrantLock[]        stripes   = new ReentrantLock[STRIPES];
+	
+	MemoryTable() {
+		for (int i = 0; i < STRIPES; i++)
+			stripes[i] = new ReentrantLock();
+	}
+	
+	/**
+	 * Adds a unique constraint. Rows that already break it are left alone.
+	 * 
+	 * @param column - The column whose values must be unique
+	 */
+	void unique(String column) {
+		hashIndex(column);
+		uniqueColumns.add(column);
+	}
+	
+	/**
+	 * @param column - The column to fill with a random UUID when an insert leaves it empty
+	 */
+	void generated(String column) {
+		generatedColumn = column;
+	}
+	
+	int size() {
+		return rows.size();
+	}
+	
+	/**
+	 * @param query  - The `WHERE` statement
+	 * @param params - Its parameters
+	 * @param limit  - The most rows to return
+	 * 
+	 * @return The matching rows (read-only)
+	 */
+	List<Map<String, Object>> select(MemoryQuery query, Object[] params, int limit) {
+		ArrayList<Map<String, Object>> found = new ArrayList<Map<String, Object>>();
+		
+		for (Long id : candidates(query, params)) {
+			if (found.size() == limit)
+				break;
+			
+			Map<String, Object> row = rows.get(id);
+			
+			if (row != null && query.matches(row, params))
+				found.add(row);
+		}
+		
+		return found;
+	}
+	
+	/**
+	 * Inserts a row.
+	 * 
+	 * @param values - The row's values by column
+	 * @param undo   - Where to record the change, or null
+	 * 
+	 * @return The row as stored (with its generated column filled in)
+	 * 
+	 * @throws UniqueViolation If a unique column's value is taken
+	 */
+	Map<String, Object> insert(Map<String, Object> values, UndoLog undo) throws UniqueViolation {
+		HashMap<String, Object> row = new HashMap<String, Object>(values);
+		
+		String generated = generatedColumn;
+		
+		if (generated != null && row.get(generated) == null)
+			row.put(generated, UUID.randomUUID());
+		
+		Map<String, Object> stored = Collections.unmodifiableMap(row);
+		
+		long id = nextID.incrementAndGet();
+		
+		int[] locked = lock(id, stored);
+		
+		try {
+			checkUnique(id, stored);
+			
+			rows.put(id, stored);
+			index(id, stored);
+		}
+		
+		finally {
+			unlock(locked);
+		}
+		
+		if (undo != null)
+			undo.add(this, id, null);
+		
+		return stored;
+	}
+	
+	/**
+	 * Updates every matching row. The update is all-or-nothing.
+	 * 
+	 * @param query   - The `WHERE` statement
+	 * @param params  - Its parameters
+	 * @param changes - The new values by column
+	 * @param undo    - Where to record the changes, or null
+	 * 
+	 * @return How many rows were updated
+	 * 
+	 * @throws UniqueViolation If a row would take a unique value another row has (nothing is updated)
+	 */
+	int update(MemoryQuery query, Object[] params, Map<String, Object> changes, UndoLog undo) throws UniqueViolation {
+		UndoLog statement = new UndoLog();
+		
+		try {
+			for (Long id : candidates(query, params)) {
+				Map<String, Object> row = rows.get(id);
+				
+				if (row == null || !query.matches(row, params))
+					continue;
+				
+				int[] locked = lock(id, changes);
+				
+				try {
+					
+					// It may have changed before the lock was taken
+					row = rows.get(id);
+					
+					if (row == null || !query.matches(row, params))
+						continue;
+					
+					HashMap<String, Object> updated = new HashMap<String, Object>(row);
+					updated.putAll(changes);
+					
+					Map<String, Object> stored = Collections.unmodifiableMap(updated);
+					
+					checkUnique(id, stored);
+					
+					unindex(id, row);
+					rows.put(id, stored);
+					index(id, stored);
+					
+					statement.add(this, id, row);
+				}
+				
+				finally {
+					unlock(locked);
+				}
+			}
+		}
+		
+		catch (UniqueViolation e) {
+			statement.rollback();
+			
+			throw e;
+		}
+		
+		int count = statement.tables.size();
+		
+		if (undo != null)
+			undo.addAll(statement);
+		
+		return count;
+	}
+	
+	/**
+	 * Deletes every matching row.
+	 * 
+	 * @param query  - The `WHERE` statement
+	 * @param params - Its parameters
+	 * @param undo   - Where to record the changes, or null
+	 * 
+	 * @return How many rows were deleted
+	 */
+	int delete(MemoryQuery query, Object[] params, UndoLog undo) {
+		int count = 0;
+		
+		for (Long id : candidates(query, params)) {
+			int[] locked = lock(id, null);
+			
+			try {
+				Map<String, Object> row = rows.get(id);
+				
+				if (row == null || !query.matches(row, params))
+					continue;
+				
+				rows.remove(id);
+				unindex(id, row);
+				
+				if (undo != null)
+					undo.add(this, id, row);
+				
+				count++;
+			}
+			
+			finally {
+				unlock(locked);
+			}
+		}
+		
+		return count;
+	}
+	
+	/**
+	 * Puts a row back the way it was (for `UndoLog`). No constraints are checked.
+	 * 
+	 * @param id       - The row's ID
+	 * @param previous - What the row was, or null if it didn't exist
+	 */
+	private void restore(long id, Map<String, Object> previous) {
+		int[] locked = lock(id, null);
+		
+		try {
+			Map<String, Object> current = previous == null ? rows.remove(id) : rows.put(id, previous);
+			
+			if (current != null)
+				unindex(id, current);
+			
+			if (previous != null)
+				index(id, previous);
+		}
+		
+		finally {
+			unlock(locked);
+		}
+	}
+	
+	/**
+	 * Finds the IDs of the rows that might match a query, from an index where every
+	 * group of the query can use one, or every row otherwise.
+	 */
+	private Collection<Long> candidates(MemoryQuery query, Object[] params) {
+		LinkedHashSet<Long> ids = new LinkedHashSet<Long>();
+		
+		for (MemoryQuery.Predicate[] group : query.groups) {
+			Collection<Long> groupIDs = candidates(group, params);
+			
+			// One group needs a scan, so the whole query does
+			if (groupIDs == null)
+				return rows.keySet();
+			
+			if (query.groups.length == 1)
+				return groupIDs;
+			
+			ids.addAll(groupIDs);
+		}
+		
+		return ids;
+	}
+	
+	/**
+	 * @return The IDs from the group's best index, or null if it can't use one
+	 */
+
+	private Collection<Long> candidates(MemoryQuery.Predicate[] group, Object[] params) {
+		for (MemoryQuery.Predicate predicate : group) {
+			Object param = params[predicate.param];
+			
+			if (predicate.op == MemoryQuery.EQ && param != null) {
+				Set<Long> ids = hashIndex(predicate.column).get(MemoryQuery.key(param));
+				
+				return ids == null ? Collections.<Long>emptyList() : new ArrayList<Long>(ids);
+			}
+		}
+		
+		for (MemoryQuery.Predicate predicate : group) {
+			Object param = params[predicate.param];
+			
+			if (predicate.op == MemoryQuery.PREFIX && param != null) {
+				String prefix = param.toString();
+				
+				ArrayList<Long> ids = new ArrayList<Long>();
+				
+				for (Set<Long> matching : prefixIndex(predicate.column).subMap(prefix, true, prefix + Character.MAX_VALUE, true).values())
+					ids.addAll(matching);
+				
+				return ids;
+			}
+		}
+		
+		return null;
+	}
+	
+	private ConcurrentHashMap<Object, Set<Long>> hashIndex(String column) {
+		ConcurrentHashMap<Object, Set<Long>> index = hashIndexes.get(column);
+		
+		if (index != null)
+			return index;
+		
+		indexLock.writeLock().lock();
+		
+		try {
+			index = hashIndexes.get(column);
+			
+			if (index == null) {
+				index = new ConcurrentHashMap<Object, Set<Long>>();
+				
+				for (Map.Entry<Long, Map<String, Object>> row : rows.entrySet())
+					add(index, MemoryQuery.key(row.getValue().get(column)), row.getKey());
+				
+				hashIndexes.put(column, index);
+			}
+			
+			return index;
+		}
+		
+		finally {
+			indexLock.writeLock().unlock();
+		}
+	}
+	
+	private ConcurrentSkipListMap<String, Set<Long>> prefixIndex(String column) {
+		ConcurrentSkipListMap<String, Set<Long>> index = prefixIndexes.get(column);
+		
+		if (index != null)
+			return index;
+		
+		indexLock.writeLock().lock();
+		
+		try {
+			index = prefixIndexes.get(column);
+			
+			if (index == null) {
+				index = new ConcurrentSkipListMap<String, Set<Long>>();
+				
+				for (Map.Entry<Long, Map<String, Object>> row : rows.entrySet())
+					add(index, prefixKey(row.getValue().get(column)), row.getKey());
+				
+				prefixIndexes.put(column, index);
+			}
+			
+			return index;
+		}
+		
+		finally {
+			indexLock.writeLock().unlock();
+		}
+	}
+	
+	private static String prefixKey(Object value) {
+		return value == null ? null : value.toString();
+	}
+	
+	private void index(long id, Map<String, Object> row) {
+		for (Map.Entry<String, ConcurrentHashMap<Object, Set<Long>>> index : hashIndexes.entrySet())
+			add(index.getValue(), MemoryQuery.key(row.get(index.getKey())), id);
+		
+		for (Map.Entry<String, ConcurrentSkipListMap<String, Set<Long>>> index : prefixIndexes.entrySet())
+			add(index.getValue(), prefixKey(row.get(index.getKey())), id);
+	}
+	
+	private void unindex(long id, Map<String, Object> row) {
+		for (Map.Entry<String, ConcurrentHashMap<Object, Set<Long>>> index : hashIndexes.entrySet())
+			remove(index.getValue(), MemoryQuery.key(row.get(index.getKey())), id);
+		
+		for (Map.Entry<String, ConcurrentSkipListMap<String, Set<Long>>> index : prefixIndexes.entrySet())
+			remove(index.getValue(), prefixKey(row.get(index.getKey())), id);
+	}
+	
+	private static <K> void add(Map<K, Set<Long>> index, K key, final long id) {
+		if (key == null)
+			return;
+		
+		index.compute(key, new BiFunction<K, Set<Long>, Set<Long>>() {
+			public Set<Long> apply(K k, Set<Long> ids) {
+				if (ids == null)
+					ids = ConcurrentHashMap.newKeySet();
+				
+				ids.add(id);
+				
+				return ids;
+			}
+		});
+	}
+	
+	private static <K> void remove(Map<K, Set<Long>> index, K key, final long id) {
+		if (key == null)
+			return;
+		
+		index.computeIfPresent(key, new BiFunction<K, Set<Long>, Set<Long>>() {
+			public Set<Long> apply(K k, Set<Long> ids) {
+				ids.remove(id);
+				
+				return ids.isEmpty() ? null : ids;
+			}
+		});
+	}
+	
+	/**
+	 * @throws UniqueViolation If another row has one of the row's unique values
+	 */
+	private void checkUnique(long id, Map<String, Object> row) throws UniqueViolation {
+		for (String column : uniqueColumns) {
+			Object value = row.get(column);
+			
+			if (value == null)
+				continue;
+			
+			Set<Long> ids = hashIndexes.get(column).get(MemoryQuery.key(value));
+			
+			if (ids == null)
+				continue;
+			
+			for (Long other : ids) {
+				if (other != id && rows.containsKey(other))
+					throw new UniqueViolation(column);
+			}
+		}
+	}
+	
+	/**
+	 * Takes the index read lock and the stripes of a row and of the unique values
+	 * it's writing, in stripe order so writers never deadlock.
+	 * 
+	 * @param id     - The row's ID
+	 * @param values - The values being written (may be null)
+	 * 
+	 * @return The stripes taken, for `unlock`
+	 */
+	private int[] lock(long id, Map<String, Object> values) {
+		int[] locked = new int[1 + uniqueColumns.size()];
+		int   count  = 0;
+		
+		locked[count++] = stripe(Long.hashCode(id));
+		
+		if (values != null) {
+			for (String column : uniqueColumns) {
+				Object value = values.get(column);
+				
+				if (value != null && count < locked.length)
+					locked[count++] = stripe(column.hashCode() * 31 + MemoryQuery.key(value).hashCode());
+			}
+		}
+		
+		locked = Arrays.copyOf(locked, count);
+		Arrays.sort(locked);
+		
+		indexLock.readLock().lock();
+		
+		for (int i = 0; i < locked.length; i++) {
+			if (i == 0 || locked[i] != locked[i - 1])
+				stripes[locked[i]].lock();
+		}
+		
+		return locked;
+	}
+	
+	private void unlock(int[] locked) {
+		for (int i = locked.length - 1; i >= 0; i--) {
+			if (i == 0 || locked[i] != locked[i - 1])
+				stripes[locked[i]].unlock();
+		}
+		
+		indexLock.readLock().unlock();
+	}
+	
+	private static int stripe(int hash) {
+		hash ^= hash >>> 16;
+		
+		return hash & (STRIPES - 1);
+	}
+}
@@ -0,0 +1,277 @@
+package service;
+
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency, row and error counts for one DBService operation (e.g. `select`).
+ * 
+ * Each call is measured by a `Call` from `begin`. Recording only touches
+ * counters and a histogram bucket, so it's cheap enough to leave on everywhere.
+ */
+public class OperationMetrics implements OperationMetricsMBean {
+	private final String       name;
+	private final SlowQueryLog slowQueries;
+	
+	// Time from `begin` to `end`, and time spent waiting for a connection
+	private final LatencyHistogram latency = new LatencyHistogram();
+	private final LatencyHistogram acquire = new LatencyHistogram();
+	
+	private final LongAdder errors   = new LongAdder();
+	private final LongAdder rows     = new LongAdder();
+	private final LongAdder inFlight = new LongAdder();
+	
+	// Calls that shared another call's result (see `SingleFlight`) instead of running
+	private final LongAdder coalesced = new LongAdder();
+	
+	private final ConcurrentHashMap<String, LongAdder> errorsByState = new ConcurrentHashMap<String, LongAdder>();
+	
+	/**
+	 * One call of an operation. Call `end` exactly once, in a `finally` block.
+	 * 
+	 * Calls that describe their statement (`statement`) and mark when it finished
+	 * executing (`executed`) are recorded in the slow query log if they take too long.
+	 */
+	public static final class Call {
+		private final OperationMetrics operation;
+		private final long             start;
+		
+		private long acquireNanos;
+		private long executedAt;
+		private long rows;
+		
+		// Only turned into a log entry if the call is slow
+		private String        sql;
+		private QueryTemplate template;
+		private Object[]      parameters;
+		private Object[]      moreParameters;
+		
+		private Call(OperationMetrics operation) {
+			this.operation = operation;
+			this.start     = System.nanoTime();
+		}
+		
+		/**
+		 * @param nanos - How long the call waited for a connection
+		 */
+		public void acquired(long nanos) {
+			acquireNanos = nanos;
+			operation.acquire.record(nanos);
+		}
+		
+		/**
+		 * Describes the statement the call runs.
+		 * 
+		 * @param sql        - The statement
+		 * @param parameters - Its parameters (may be null)
+		 */
+		public void statement(String sql, Object[] parameters) {
+			this.sql        = sql;
+			this.parameters = parameters;
+		}
+		
+		/**
+		 * Describes a statement whose parameters are split across two arrays (e.g. `SET` and `WHERE`).
+		 */
+		public void statement(String sql, Object[] parameters, Object[] moreParameters) {
+			statement(sql, parameters);
+			
+			this.moreParameters = moreParameters;
+		}
+		
+		/**
+		 * Describes a statement compiled from a template, whose parameters get its wildcards.
+		 */
+		public void statement(QueryTemplate template, Object[] parameters) {
+			statement(template.getSql(), parameters);
+			
+			this.template = template;
+		}
+		
+		/**
+		 * Marks the statement as executed. Anything after this is counted as fetching.
+		 */
+		public void executed() {
+			executedAt = System.nanoTime();
+		}
+		
+		/**
+		 * @param count - How many rows the call returned or changed
+		 */
+		public void rows(long count) {
+			rows += count;
+			operation.rows.add(count);
+		}
+		
+		/**
+		 * @param e - Why the call failed
+		 */
+		public void failed(Exception e) {
+			operation.failed(e);
+		}
+		
+		public void end() {
+			long end   = System.nanoTime();
+			long total = end - start;
+			
+			operation.inFlight.decrement();
+			operation.latency.record(total);
+			
+			SlowQueryLog log = operation.slowQueries;
+			
+			if (sql != null && log != null && total >= log.getThresholdNanos())
+				log.record(entry(end));
+		}
+		
+		private SlowQueryLog.Entry entry(long end) {
+			int first  = parameters     == null ? 0 : parameters    .length;
+			int second = moreParameters == null ? 0 : moreParameters.length;
+			
+			Object[] values = new Object[first + second];
+			
+			for (int i = 0; i < first; i++)
+				values[i] = template == null ? parameters[i] : template.transform(i, parameters[i]);
+			
+			for (int i = 0; i < second; i++)
+				values[first + i] = moreParameters[i];
+			
+			// Without a mark, the whole call after the wait counts as executing
+			long executed = executedAt == 0 ? end : executedAt;
+			
+			return new SlowQueryLog.Entry(operation.name, sql, values, acquireNanos, executed - start - acquireNanos, end - executed, rows);
+		}
+	}
+	
+	/**
+	 * @param name        - The operation's name
+	 * @param slowQueries - Where to record slow calls, or null to not record them
+	 */
+	OperationMetrics(String name, SlowQueryLog slowQueries) {
+		this.name        = name;
+		this.slowQueries = slowQueries;
+	}
+	
+	/**
+	 * @return The measurement of a call that's starting now
+	 */
+	public Call begin() {
+		inFlight.increment();
+		
+		return new Call(this);
+	}
+	
+	private void failed(Exception e) {
+		String state;
+		
+		if (e instanceof SQLException)
+			state = ((SQLException)e).getSQLState();
+		
+		// Not a database error (e.g. a unit of work that threw)
+		else
+			state = e.getClass().getSimpleName();
+		
+		if (state == null)
+			state = "unknown";
+		
+		errors.increment();
+		
+		LongAdder count = errorsByState.get(state);
+		
+		if (count == null) {
+			LongAdder added = new LongAdder();
+			
+			count = errorsByState.putIfAbsent(state, added);
+			
+			if (count == null)
+				count = added;
+		}
+		
+		count.increment();
+	}
+	
+	/**
+	 * Counts a call that shared an identical call's result instead of running.
+	 */
+	public void coalesced() {
+		coalesced.increment();
+	}
+	
+	public String getName() {
+		return name;
+	}
+	
+	public LatencyHistogram getLatency() {
+		return latency;
+	}
+	
+	public LatencyHistogram getAcquireLatency() {
+		return acquire;
+	}
+	
+	/**
+	 * @return The error counts by SQLState, sorted by state
+	 */
+	public Map<String, Long> getErrorCounts() {
+		TreeMap<String, Long> counts = new TreeMap<String, Long>();
+		
+		for (Map.Entry<String, LongAdder> entry : errorsByState.entrySet())
+			counts.put(entry.getKey(), entry.getValue().sum());
+		
+		return counts;
+	}
+	
+	public long getCalls() {
+		return latency.getCount();
+	}
+	
+	public long getErrors() {
+		return errors.sum();
+	}
+	
+	public long getRows() {
+		return rows.sum();
+	}
+	
+	public long getInFlight() {
+		return inFlight.sum();
+	}
+	
+	public long getCoalesced() {
+		return coalesced.sum();
+	}
+	
+	public long getMeanMicros() {
+		return latency.getMean() / 1000;
+	}
+	
+	public long getMaxMicros() {
+		return latency.getMax() / 1000;
+	}
+	
+	public long getP50Micros() {
+		return latency.percentile(0.5) / 1000;
+	}
+	
+	public long getP99Micros() {
+		return latency.percentile(0.99) / 1000;
+	}
+	
+	public long getP999Micros() {
+		return latency.percentile(0.999) / 1000;
+	}
+	
+	public long getAcquireP50Micros() {
+		return acquire.percentile(0.5) / 1000;
+	}
+	
+	public long getAcquireP99Micros() {
+		return acquire.percentile(0.99) / 1000;
+	}
+	
+	public String getErrorsBySqlState() {
+		return getErrorCounts().toString();
+	}
+}
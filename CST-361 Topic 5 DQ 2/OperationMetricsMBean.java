@@ -0,0 +1,23 @@
+package service;
+
+/**
+ * The JMX view of an `OperationMetrics`. Durations are in microseconds.
+ */
+public interface OperationMetricsMBean {
+	public long   getCalls();
+	public long   getErrors();
+	public long   getRows();
+	public long   getInFlight();
+	public long   getCoalesced();
+	
+	public long   getMeanMicros();
+	public long   getMaxMicros();
+	public long   getP50Micros();
+	public long   getP99Micros();
+	public long   getP999Micros();
+	
+	public long   getAcquireP50Micros();
+	public long   getAcquireP99Micros();
+	
+	public String getErrorsBySqlState();
+}
@@ -0,0 +1,43 @@
+package service;
+
+import java.util.ArrayList;
+import java.util.Map;
+
+/**
+ * One page of rows from `selectPage` or `selectAllPage`, plus the cursor to
+ * pass as `after` to get the next one.
+ */
+public class Page {
+	private final ArrayList<Map<String, Object>> rows;
+	private final Object                         nextCursor;
+	
+	/**
+	 * @param rows       - The rows of the page
+	 * @param nextCursor - The order column's value in the last row, or null if this is the last page
+	 */
+	public Page(ArrayList<Map<String, Object>> rows, Object nextCursor) {
+		this.rows       = rows;
+		this.nextCursor = nextCursor;
+	}
+	
+	/**
+	 * @return The rows of the page, in order
+	 */
+	public ArrayList<Map<String, Object>> getRows() {
+		return rows;
+	}
+	
+	/**
+	 * @return The value to pass as `after` for the next page, or null if this is the last page
+	 */
+	public Object getNextCursor() {
+		return nextCursor;
+	}
+	
+	/**
+	 * @return Whether there's another page after this one
+	 */
+	public boolean hasNext() {
+		return nextCursor != null;
+	}
+}
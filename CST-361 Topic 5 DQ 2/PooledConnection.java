@@ -0,0 +1,168 @@
+package service;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A connection owned by a ConnectionPool, along with the bookkeeping the pool
+ * needs for idle eviction and leak detection.
+ * 
+ * Each connection also keeps an LRU cache of its prepared statements, so the
+ * handful of queries DBService runs over and over are only prepared (and, with
+ * the pool's `prepareThreshold`, only parsed and planned by Postgres) once per
+ * connection.
+ */
+public class PooledConnection {
+	private final Connection     connection;
+	private final ConnectionPool pool;
+	
+	// Statements by SQL, least recently used first. Only touched by the borrowing thread.
+	private final LinkedHashMap<String, PreparedStatement> statements;
+	
+	private volatile long      lastUsed;
+	private volatile long      borrowedAt;
+	private volatile Throwable borrowTrace;
+	private volatile boolean   reportedLeak;
+	
+	// The admission slot held by the current borrower (see `AdmissionController`)
+	private volatile AdmissionController.Permit permit;
+	
+	PooledConnection(Connection connection, ConnectionPool pool, final int statementCacheSize) {
+		this.connection = connection;
+		this.pool       = pool;
+		this.lastUsed   = System.currentTimeMillis();
+		
+		statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+				if (size() <= statementCacheSize)
+					return false;
+				
+				closeStatement(eldest.getValue());
+				PooledConnection.this.pool.statementEvicted();
+				
+				return true;
+			}
+		};
+	}
+	
+	/**
+	 * @return The underlying JDBC connection. Do NOT close it; give the
+	 *         PooledConnection back to the pool instead.
+	 */
+	public Connection getConnection() {
+		return connection;
+	}
+	
+	/**
+	 * @return The pool this connection belongs to
+	 */
+	ConnectionPool getPool() {
+		return pool;
+	}
+	
+	/**
+	 * Gets a prepared statement for the SQL, reusing the cached one if there is one.
+	 * The statement belongs to the cache: do NOT close it, only its ResultSet.
+	 * 
+	 * @param sql - The SQL to prepare
+	 * 
+	 * @return The prepared statement
+	 * 
+	 * @throws SQLException If the statement could not be prepared
+	 */
+	public PreparedStatement prepare(String sql) throws SQLException {
+		PreparedStatement stmt = statements.get(sql);
+		
+		if (stmt != null && !stmt.isClosed()) {
+			pool.statementHit();
+			
+			return stmt;
+		}
+		
+		pool.statementMiss();
+		
+		stmt = connection.prepareStatement(sql);
+		statements.put(sql, stmt);
+		
+		return stmt;
+	}
+	
+	/**
+	 * Closes every cached statement. Called by the pool before the connection is closed.
+	 */
+	void closeStatements() {
+		for (PreparedStatement stmt : statements.values())
+			closeStatement(stmt);
+		
+		statements.clear();
+	}
+	
+	private static void closeStatement(PreparedStatement stmt) {
+		try {
+			stmt.close();
+		}
+		
+		catch (SQLException e) {
+			// The statement is being thrown away anyway
+		}
+	}
+	
+	/**
+	 * Marks the connection as borrowed by the current thread.
+	 * 
+	 * @param trace - Whether to record where it was borrowed (for leak reports), which costs a stack trace
+	 */
+	void lease(boolean trace) {
+		borrowedAt   = System.currentTimeMillis();
+		borrowTrace  = trace ? new Throwable("Connection borrowed by " + Thread.currentThread().getName()) : null;
+		reportedLeak = false;
+	}
+	
+	/**
+	 * Marks the connection as just returned.
+	 */
+	void touch() {
+		lastUsed    = System.currentTimeMillis();
+		borrowTrace = null;
+	}
+	
+	void reportLeak() {
+		reportedLeak = true;
+	}
+	
+	boolean isReportedLeak() {
+		return reportedLeak;
+	}
+	
+	long getLastUsed() {
+		return lastUsed;
+	}
+	
+	void setPermit(AdmissionController.Permit permit) {
+		this.permit = permit;
+	}
+	
+	/**
+	 * @return The borrower's admission slot (null if it has none), which is cleared so it's only released once
+	 */
+	AdmissionController.Permit takePermit() {
+		AdmissionController.Permit permit = this.permit;
+		this.permit = null;
+		
+		return permit;
+	}
+	
+	long getBorrowedAt() {
+		return borrowedAt;
+	}
+	
+	Throwable getBorrowTrace() {
+		return borrowTrace;
+	}
+}
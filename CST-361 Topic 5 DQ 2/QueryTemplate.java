@@ -0,0 +1,213 @@
+package service;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A query whose `LIKE 1?`/`LIKE 2?`/`LIKE 3?` tokens (see `DBService.like`)
+ * have been rewritten into plain `LIKE ?` parameters.
+ * 
+ * Parsing only happens once per distinct query; after that `compile` is a
+ * single lookup in a bounded LRU cache. The wildcards are applied when
+ * binding, so the caller's parameter array is never modified.
+ */
+public class QueryTemplate {
+	
+	// Per-parameter transforms
+	public static final int NONE     = 0;
+	public static final int PREFIX   = 1;
+	public static final int POSTFIX  = 2;
+	public static final int ANYWHERE = 3;
+	
+	private static final int CACHE_SIZE = 512;
+	
+	private static final Map<Key, QueryTemplate> cache = new LinkedHashMap<Key, QueryTemplate>(CACHE_SIZE, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+		
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Key, QueryTemplate> eldest) {
+			return size() > CACHE_SIZE;
+		}
+	};
+	
+	private final String sql;
+	private final int[]  transforms;
+	
+	private QueryTemplate(String sql, int[] transforms) {
+		this.sql        = sql;
+		this.transforms = transforms;
+	}
+	
+	/**
+	 * Gets the compiled template for a query, parsing it if it hasn't been seen recently.
+	 * The query is `head + location + " WHERE " + whereStatement + tail`, but it's only
+	 * concatenated when it has to be parsed.
+	 * 
+	 * @param head           - Everything before the location (e.g. `SELECT * FROM `)
+	 * @param location       - The location (use `createLocation`)
+	 * @param whereStatement - The `WHERE` statement (may contain `LIKE` tokens)
+	 * @param tail           - Everything after the `WHERE` statement (e.g. ` LIMIT 1`)
+	 * 
+	 * @return The compiled template
+	 */
+	public static QueryTemplate compile(String head, String location, String whereStatement, String tail) {
+		Key key = new Key(head, location, whereStatement, tail);
+		
+		QueryTemplate template;
+		
+		synchronized (cache) {
+			template = cache.get(key);
+		}
+		
+		if (template == null) {
+			template = parse(head + location + " WHERE " + whereStatement + tail);
+			
+			synchronized (cache) {
+				cache.put(key, template);
+			}
+		}
+		
+		return template;
+	}
+	
+	/**
+	 * Rewrites every `LIKE [1-3]?` token into `LIKE ?` and records which
+	 * wildcard the matching parameter needs.
+	 */
+	private static QueryTemplate parse(String query) {
+		StringBuilder b = new StringBuilder(query.length());
+		
+		// Enough room for every '?' in the query
+		int[] transforms = new int[query.length()];
+		int   paramCount = 0;
+		
+		int length = query.length();
+		
+		for (int i = 0; i < length; i++) {
+			char c = query.charAt(i);
+			
+			// `LIKE ` followed by the token digit and the parameter
+			if (c == 'L' && i + 6 < length && query.startsWith("LIKE ", i) && query.charAt(i + 6) == '?') {
+				char type = query.charAt(i + 5);
+				
+				if (type >= '1' && type <= '3') {
+					b.append("LIKE ?");
+					transforms[paramCount++] = type - '0';
+					i += 6;
+					
+					continue;
+				}
+			}
+			
+			if (c == '?')
+				transforms[paramCount++] = NONE;
+			
+			b.append(c);
+		}
+		
+		int[] trimmed = new int[paramCount];
+		System.arraycopy(transforms, 0, trimmed, 0, paramCount);
+		
+		return new QueryTemplate(b.toString(), trimmed);
+	}
+	
+	/**
+	 * @return The final SQL to prepare
+	 */
+	public String getSql() {
+		return sql;
+	}
+	
+	/**
+	 * @return The number of parameters in the query
+	 */
+	public int getParameterCount() {
+		return transforms.length;
+	}
+	
+	/**
+	 * Applies the template's wildcard (if any) to a parameter.
+	 * 
+	 * @param index - The 0-based parameter index
+	 * @param value - The value given by the caller
+	 * 
+	 * @return The value to bind
+	 */
+	public Object transform(int index, Object value) {
+		if (index >= transforms.length || value == null)
+			return value;
+		
+		switch (transforms[index]) {
+			case PREFIX:
+				return value + "%";
+			
+			case POSTFIX:
+				return "%" + value;
+			
+			case ANYWHERE:
+				return "%" + value + "%";
+			
+			default:
+				return value;
+		}
+	}
+	
+	/**
+	 * Binds the parameters onto a statement prepared from `getSql`.
+	 * 
+	 * @param stmt   - The prepared statement
+	 * @param offset - How many parameters come before these ones (0 if none)
+	 * @param values - The values to bind
+	 */
+	public void bind(PreparedStatement stmt, int offset, Object[] values) throws SQLException {
+		for (int i = 0; i < values.length; i++) {
+			stmt.setObject(offset + i + 1, transform(offset + i, values[i]));
+		}
+	}
+	
+	/**
+	 * The parts a query is built from. The heads are literals or cached by
+	 * DBService (see `selectFrom`), so comparing them is usually an identity
+	 * check; the other parts may be built per call and are compared by value.
+	 */
+	private static final class Key {
+		private final String head;
+		private final String location;
+		private final String whereStatement;
+		private final String tail;
+		private final int    hash;
+		
+		Key(String head, String location, String whereStatement, String tail) {
+			this.head           = head;
+			this.location       = location;
+			this.whereStatement = whereStatement;
+			this.tail           = tail;
+			
+			hash = ((head.hashCode() * 31 + location.hashCode()) * 31 + whereStatement.hashCode()) * 31 + tail.hashCode();
+		}
+		
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+		
+		@Override
+		public boolean equals(Object o) {
+			if (this == o)
+				return true;
+			
+			if (!(o instanceof Key))
+				return false;
+			
+			Key other = (Key)o;
+			
+			return hash == other.hash
+				&& head.equals(other.head)
+				&& location.equals(other.location)
+				&& whereStatement.equals(other.whereStatement)
+				&& tail.equals(other.tail);
+		}
+	}
+}
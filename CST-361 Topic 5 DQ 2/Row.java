@@ -0,0 +1,129 @@
+package service;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A single result row: an array of values read by column index, plus the
+ * schema it shares with every other row of the same result.
+ * 
+ * Rows can be used as a Map of column names to values. Existing columns can
+ * be overwritten with `put`, but columns can't be added or removed. If a name
+ * is repeated, the Map only holds the first column with that name (the rest
+ * can still be read by index).
+ */
+public class Row extends AbstractMap<String, Object> {
+	private final RowSchema schema;
+	private final Object[]  values;
+	
+	Row(RowSchema schema, Object[] values) {
+		this.schema = schema;
+		this.values = values;
+	}
+	
+	/**
+	 * @return The schema shared by every row of the result this row came from
+	 */
+	public RowSchema getSchema() {
+		return schema;
+	}
+	
+	/**
+	 * @param index - The 0-based column index
+	 * 
+	 * @return The value of the column
+	 */
+	public Object get(int index) {
+		return values[index];
+	}
+	
+	/**
+	 * @return A copy of this row (sharing the schema), which can be changed without affecting this one
+	 */
+	public Row copy() {
+		return new Row(schema, values.clone());
+	}
+	
+	@Override
+	public Object get(Object name) {
+		int index = schema.indexOf(name);
+		
+		return index < 0 ? null : values[index];
+	}
+	
+	@Override
+	public boolean containsKey(Object name) {
+		return schema.indexOf(name) >= 0;
+	}
+	
+	@Override
+	public Object put(String name, Object value) {
+		int index = schema.indexOf(name);
+		
+		if (index < 0)
+			throw new UnsupportedOperationException("Row has no column \"" + name + '"');
+		
+		Object old = values[index];
+		values[index] = value;
+		
+		return old;
+	}
+	
+	@Override
+	public int size() {
+		return schema.keyCount();
+	}
+	
+	@Override
+	public Set<Map.Entry<String, Object>> entrySet() {
+		return new AbstractSet<Map.Entry<String, Object>>() {
+			@Override
+			public Iterator<Map.Entry<String, Object>> iterator() {
+				return new Iterator<Map.Entry<String, Object>>() {
+					private int next = skip(0);
+					
+					private int skip(int index) {
+						while (index < values.length && !schema.isKey(index))
+							index++;
+						
+						return index;
+					}
+					
+					@Override
+					public boolean hasNext() {
+						return next < values.length;
+					}
+					
+					@Override
+					public Map.Entry<String, Object> next() {
+						if (next >= values.length)
+							throw new NoSuchElementException();
+						
+						final int index = next;
+						next = skip(next + 1);
+						
+						return new AbstractMap.SimpleEntry<String, Object>(schema.getName(index), values[index]) {
+							private static final long serialVersionUID = 1L;
+							
+							@Override
+							public Object setValue(Object value) {
+								values[index] = value;
+								
+								return super.setValue(value);
+							}
+						};
+					}
+				};
+			}
+			
+			@Override
+			public int size() {
+				return schema.keyCount();
+			}
+		};
+	}
+}
@@ -0,0 +1,176 @@
+package service;
+
+import java.io.Closeable;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Iterates over a query's rows as they arrive from a server-side cursor.
+ * 
+ * The iterator owns a pooled connection (with autocommit off, which Postgres
+ * needs to use a cursor) until it's closed or runs out of rows, so always use
+ * it in a try-with-resources block. Inside `DBService.transaction` it uses the
+ * transaction's connection instead, which it never gives back; it's closed
+ * when the transaction ends, and reading from it after that throws.
+ */
+public class RowIterator implements Iterator<Map<String, Object>>, Closeable {
+	private final DBService         db;
+	private final PooledConnection  conn;
+	private final PreparedStatement stmt;
+	private final ResultSet         res;
+	private final RowSchema         schema;
+	
+	// Whether the iterator borrowed `conn` (false for a transaction's connection)
+	private final boolean owned;
+	
+	// Whether `res` is positioned on a row that hasn't been returned yet
+	private boolean ready;
+	private boolean closed;
+	
+	// Whether it was closed because its transaction ended
+	private boolean expired;
+	
+	/**
+	 * Takes ownership of a statement that's ready to execute.
+	 * 
+	 * @param db        - The service the connection was acquired from
+	 * @param conn      - The connection the statement was prepared on
+	 * @param stmt      - The statement to execute (closed along with the iterator)
+	 * @param fetchSize - How many rows to fetch from the cursor at a time
+	 * @param owned     - Whether to give the connection back when the iterator is closed
+	 * 
+	 * @throws SQLException If the query failed (the statement is closed, but the caller still owns the connection)
+	 */
+	RowIterator(DBService db, PooledConnection conn, PreparedStatement stmt, int fetchSize, boolean owned) throws SQLException {
+		this.db    = db;
+		this.conn  = conn;
+		this.stmt  = stmt;
+		this.owned = owned;
+		
+		try {
+			conn.getConnection().setAutoCommit(false);
+			stmt.setFetchSize(fetchSize);
+			
+			res    = stmt.executeQuery();
+			schema = new RowSchema(res.getMetaData());
+		}
+		
+		catch (SQLException e) {
+			closed = true;
+			
+			try {
+				stmt.close();
+			}
+			
+			catch (SQLException closeFailure) {
+				e.addSuppressed(closeFailure);
+			}
+			
+			throw e;
+		}
+	}
+	
+	@Override
+	public boolean hasNext() {
+		if (expired)
+			throw new IllegalStateException("The stream's transaction has ended");
+		
+		if (closed)
+			return false;
+		
+		if (!ready) {
+			try {
+				ready = res.next();
+			}
+			
+			catch (SQLException e) {
+				close();
+				
+				throw new IllegalStateException("Failed to fetch the next row", e);
+			}
+			
+			// Give the connection back as soon as the cursor is exhausted
+			if (!ready)
+				close();
+		}
+		
+		return ready;
+	}
+	
+	@Override
+	public Map<String, Object> next() {
+		if (!hasNext())
+			throw new NoSuchElementException();
+		
+		ready = false;
+		
+		try {
+			return schema.read(res);
+		}
+		
+		catch (SQLException e) {
+			close();
+			
+			throw new IllegalStateException("Failed to read a row", e);
+		}
+	}
+	
+	/**
+	 * Closes the cursor and gives the connection back (if the iterator owns it). Safe to
+	 * call more than once.
+	 */
+	@Override
+	public void close() {
+		if (closed)
+			return;
+		
+		closed = true;
+		
+		try {
+			// Closing the statement also closes the result set
+			stmt.close();
+		}
+		
+		catch (SQLException e) {
+			e.printStackTrace();
+		}
+		
+		finally {
+			if (owned)
+				db.release(conn);
+		}
+	}
+	
+	/**
+	 * Closes the cursor because the transaction whose connection it uses is ending.
+	 * Any rows that weren't read can't be read any more.
+	 */
+	void expire() {
+		if (closed)
+			return;
+		
+		expired = true;
+		close();
+	}
+	
+	/**
+	 * @return A sequential stream over the remaining rows that closes this iterator when it's closed
+	 */
+	public Stream<Map<String, Object>> stream() {
+		Spliterator<Map<String, Object>> spliterator = Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL);
+		
+		return StreamSupport.stream(spliterator, false).onClose(new Runnable() {
+			public void run() {
+				close();
+			}
+		});
+	}
+}
@@ -0,0 +1,20 @@
+package service;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Turns the current row of a ResultSet straight into an object, without
+ * going through a Map. See `RowMappers` for generated mappers.
+ * 
+ * @param <T> - The type of object each row becomes
+ */
+public interface RowMapper<T> {
+	
+	/**
+	 * @param res - The result, positioned on the row to map (don't move it)
+	 * 
+	 * @return The row as an object
+	 */
+	public T map(ResultSet res) throws SQLException;
+}
@@ -0,0 +1,148 @@
+package service;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Generates RowMappers that pass a row's columns to a class's constructor.
+ * 
+ * The constructor is found once per class and column list and turned into a
+ * MethodHandle that takes an array of arguments. Column i is read by index
+ * into parameter i with the getter for the parameter's type, so mapping a row
+ * is a few indexed reads and one constructor call: no names are looked up,
+ * no reflection is done and no Map is built.
+ */
+public class RowMappers {
+	
+	// How each parameter is read
+	private static final int OBJECT  = 0;
+	private static final int STRING  = 1;
+	private static final int INT     = 2;
+	private static final int LONG    = 3;
+	private static final int DOUBLE  = 4;
+	private static final int BOOLEAN = 5;
+	
+	private static final ConcurrentHashMap<String, RowMapper<?>> cache = new ConcurrentHashMap<String, RowMapper<?>>();
+	
+	private RowMappers() {}
+	
+	/**
+	 * Gets the mapper that builds a `type` from the given columns, in order, with
+	 * its public constructor that takes that many parameters. Select exactly those
+	 * columns, in the same order, for the rows it maps.
+	 * 
+	 * @param type    - The class to build
+	 * @param columns - The columns its constructor takes, in parameter order
+	 * 
+	 * @return The mapper
+	 * 
+	 * @throws IllegalArgumentException If `type` has no public constructor with that many parameters
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> RowMapper<T> constructor(Class<T> type, String[] columns) {
+		String key = type.getName() + Arrays.toString(columns);
+		
+		RowMapper<?> mapper = cache.get(key);
+		
+		if (mapper == null) {
+			mapper = generate(type, columns.length);
+			
+			RowMapper<?> existing = cache.putIfAbsent(key, mapper);
+			
+			if (existing != null)
+				mapper = existing;
+		}
+		
+		return (RowMapper<T>)mapper;
+	}
+	
+	private static <T> RowMapper<T> generate(Class<T> type, int columnCount) {
+		for (Constructor<?> constructor : type.getConstructors()) {
+			if (constructor.getParameterCount() != columnCount)
+				continue;
+			
+			try {
+				MethodHandle handle = MethodHandles.publicLookup().unreflectConstructor(constructor)
+					.asSpreader(Object[].class, columnCount)
+					.asType(MethodType.methodType(Object.class, Object[].class));
+				
+				return new ConstructorMapper<T>(handle, constructor.getParameterTypes());
+			}
+			
+			catch (IllegalAccessException e) {
+				throw new IllegalArgumentException("Can't access the constructor of " + type.getName(), e);
+			}
+		}
+		
+		throw new IllegalArgumentException(type.getName() + " has no public constructor taking " + columnCount + " parameters");
+	}
+	
+	private static final class ConstructorMapper<T> implements RowMapper<T> {
+		private final MethodHandle constructor;
+		private final Class<?>[]   types;
+		private final int[]        readers;
+		
+		ConstructorMapper(MethodHandle constructor, Class<?>[] types) {
+			this.constructor = constructor;
+			this.types       = types;
+			this.readers     = new int[types.length];
+			
+			for (int i = 0; i < types.length; i++)
+				readers[i] = reader(types[i]);
+		}
+		
+		private static int reader(Class<?> type) {
+			if (type == String.class)
+				return STRING;
+			
+			if (type == int.class)
+				return INT;
+			
+			if (type == long.class)
+				return LONG;
+			
+			if (type == double.class)
+				return DOUBLE;
+			
+			if (type == boolean.class)
+				return BOOLEAN;
+			
+			return OBJECT;
+		}
+		
+		@Override
+		@SuppressWarnings("unchecked")
+		public T map(ResultSet res) throws SQLException {
+			Object[] args = new Object[readers.length];
+			
+			for (int i = 0; i < readers.length; i++) {
+				switch (readers[i]) {
+					case STRING:  args[i] = res.getString (i + 1);            break;
+					case INT:     args[i] = res.getInt    (i + 1);            break;
+					case LONG:    args[i] = res.getLong   (i + 1);            break;
+					case DOUBLE:  args[i] = res.getDouble (i + 1);            break;
+					case BOOLEAN: args[i] = res.getBoolean(i + 1);            break;
+					default:      args[i] = res.getObject (i + 1, types[i]);
+				}
+			}
+			
+			try {
+				return (T)constructor.invokeExact(args);
+			}
+			
+			catch (RuntimeException | Error e) {
+				throw e;
+			}
+			
+			catch (Throwable e) {
+				throw new SQLException("Failed to construct a row", e);
+			}
+		}
+	}
+}
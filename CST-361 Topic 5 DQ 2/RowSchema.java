@@ -0,0 +1,122 @@
+package service;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.HashMap;
+
+/**
+ * The column names of a result and their indexes. Built once per result from
+ * its ResultSetMetaData and shared by every Row read from it.
+ */
+public class RowSchema {
+	private final String[]                 names;
+	private final HashMap<String, Integer> indexes;
+	
+	// Whether each column is the one its name refers to (see `isKey`)
+	private final boolean[] keys;
+	
+	/**
+	 * @param metaData - The metadata of the result
+	 * 
+	 * @throws SQLException If the metadata could not be read
+	 */
+	public RowSchema(ResultSetMetaData metaData) throws SQLException {
+		names   = new String[metaData.getColumnCount()];
+		indexes = new HashMap<String, Integer>(names.length * 2);
+		keys    = new boolean[names.length];
+		
+		for (int i = 0; i < names.length; i++) {
+			names[i] = metaData.getColumnName(i + 1);
+			
+			// Like `ResultSet.findColumn`, the first column wins if a name is repeated
+			if (!indexes.containsKey(names[i])) {
+				indexes.put(names[i], i);
+				keys[i] = true;
+			}
+		}
+	}
+	
+	/**
+	 * Reads the row the result set is positioned on, by column index.
+	 * 
+	 * @param res - The result set (its metadata must be the one this schema was built from)
+	 * 
+	 * @return The row
+	 * 
+	 * @throws SQLException If a column could not be read
+	 */
+	public Row read(ResultSet res) throws SQLException {
+		Object[] values = new Object[names.length];
+		
+		for (int i = 0; i < values.length; i++) {
+			values[i] = res.getObject(i + 1);
+		}
+		
+		return new Row(this, values);
+	}
+	
+	/**
+	 * Reads the row the result set is positioned on straight into a HashMap, for the
+	 * methods that have always returned one. See `read`.
+	 * 
+	 * @param res - The result set (its metadata must be the one this schema was built from)
+	 * 
+	 * @return The row
+	 * 
+	 * @throws SQLException If a column could not be read
+	 */
+	public HashMap<String, Object> readMap(ResultSet res) throws SQLException {
+		HashMap<String, Object> row = new HashMap<String, Object>(indexes.size() * 4 / 3 + 1);
+		
+		for (int i = 0; i < names.length; i++) {
+			if (keys[i])
+				row.put(names[i], res.getObject(i + 1));
+		}
+		
+		return row;
+	}
+	
+	/**
+	 * @return The number of columns
+	 */
+	public int size() {
+		return names.length;
+	}
+	
+	/**
+	 * @return The number of distinct column names, which is what a Row holds as a Map
+	 */
+	public int keyCount() {
+		return indexes.size();
+	}
+	
+	/**
+	 * @param index - The 0-based column index
+	 * 
+	 * @return Whether the column is the one its name refers to (false for a repeated name after the first)
+	 */
+	public boolean isKey(int index) {
+		return keys[index];
+	}
+	
+	/**
+	 * @param index - The 0-based column index
+	 * 
+	 * @return The column's name
+	 */
+	public String getName(int index) {
+		return names[index];
+	}
+	
+	/**
+	 * @param name - The column name
+	 * 
+	 * @return The 0-based index of the column, or -1 if there is no such column
+	 */
+	public int indexOf(Object name) {
+		Integer index = indexes.get(name);
+		
+		return index == null ? -1 : index;
+	}
+}
@@ -0,0 +1,134 @@
+package service;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Coalesces identical concurrent calls: while a call for a key is running,
+ * other calls for the same key wait for it and share its result instead of
+ * running again.
+ * 
+ * Results are only shared between calls that overlap. Nothing is cached once
+ * the call finishes, so the next call for the key runs again.
+ * 
+ * @param <K> - The type of the keys identifying identical calls
+ * @param <V> - The type of the calls' results
+ */
+public class SingleFlight<K, V> {
+	
+	/**
+	 * A call to coalesce.
+	 */
+	public interface Call<V> {
+		public V run();
+	}
+	
+	/**
+	 * Gives each waiting caller its own copy of a shared result, for results that are mutable.
+	 */
+	public interface Copier<V> {
+		public V copy(V value);
+	}
+	
+	private static final class Flight<V> {
+		final CountDownLatch done = new CountDownLatch(1);
+		
+		V                result;
+		RuntimeException error;
+	}
+	
+	private final ConcurrentHashMap<K, Flight<V>> flights = new ConcurrentHashMap<K, Flight<V>>();
+	
+	private final Copier<V>        copier;
+	private final OperationMetrics metrics;
+	private final LongAdder        coalesced = new LongAdder();
+	
+	/**
+	 * @param copier  - Copies the result for each waiting caller, or null to share the same object
+	 * @param metrics - The operation to count coalesced calls against, or null
+	 */
+	public SingleFlight(Copier<V> copier, OperationMetrics metrics) {
+		this.copier  = copier;
+		this.metrics = metrics;
+	}
+	
+	/**
+	 * Runs the call, unless an identical one is already running, in which case
+	 * this waits for it and returns its result.
+	 * 
+	 * @param key  - Identifies the call (equal keys are identical calls)
+	 * @param call - The call to run
+	 * 
+	 * @return The call's result
+	 */
+	public V run(K key, Call<V> call) {
+		Flight<V> flight   = new Flight<V>();
+		Flight<V> existing = flights.putIfAbsent(key, flight);
+		
+		if (existing != null) {
+			coalesced.increment();
+			
+			if (metrics != null)
+				metrics.coalesced();
+			
+			return await(existing);
+		}
+		
+		try {
+			flight.result = call.run();
+			
+			return flight.result;
+		}
+		
+		catch (RuntimeException e) {
+			flight.error = e;
+			
+			throw e;
+		}
+		
+		finally {
+			flights.remove(key, flight);
+			flight.done.countDown();
+		}
+	}
+	
+	private V await(Flight<V> flight) {
+		boolean interrupted = false;
+		
+		// The call can't be abandoned halfway, so wait it out and keep the interrupt for later
+		while (true) {
+			try {
+				flight.done.await();
+				
+				break;
+			}
+			
+			catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		
+		if (interrupted)
+			Thread.currentThread().interrupt();
+		
+		if (flight.error != null)
+			throw flight.error;
+		
+		return copier == null || flight.result == null ? flight.result : copier.copy(flight.result);
+	}
+	
+	/**
+	 * @return How many calls shared another call's result instead of running
+	 */
+	public long getCoalesced() {
+		return coalesced.sum();
+	}
+	
+	/**
+	 * @return How many calls are running
+	 */
+	public int getInFlight() {
+		return flights.size();
+	}
+}
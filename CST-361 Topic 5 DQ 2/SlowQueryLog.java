@@ -0,0 +1,456 @@
+package service;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records every statement slower than a threshold, so slow queries (e.g. a
+ * `LIKE 3?` that turned into a sequential scan) show up without anyone having
+ * to notice them first.
+ * 
+ * The most recent entries are kept in a bounded ring, and each is also
+ * appended to a file if one is set. The threshold and file default to the
+ * `polyopus.db.slowQueryMillis` and `polyopus.db.slowQueryLog` system properties.
+ * The file is written by a background thread, so a slow disk never holds up
+ * the statement being recorded; if it falls more than `PENDING_CAPACITY`
+ * entries behind, new entries are only kept in the ring.
+ * 
+ * Parameter values are only kept for `SELECT`s, so `DBService.explain` can
+ * re-run them. Writes only record their parameters' types, which keeps
+ * passwords out of the log.
+ */
+public class SlowQueryLog {
+	
+	/**
+	 * One slow statement. Durations are in nanoseconds.
+	 */
+	public static final class Entry {
+		private final long     timestamp;
+		private final String   operation;
+		private final String   sql;
+		private final String   normalizedSql;
+		private final String[] parameterTypes;
+		private final Object[] parameters;
+		private final long     acquireNanos;
+		private final long     executeNanos;
+		private final long     fetchNanos;
+		private final long     rows;
+		
+		// Filled in by `DBService.explain`
+		private volatile String plan;
+		
+		Entry(String operation, String sql, Object[] parameters, long acquireNanos, long executeNanos, long fetchNanos, long rows) {
+			this.timestamp     = System.currentTimeMillis();
+			this.operation     = operation;
+			this.sql           = sql;
+			this.normalizedSql = normalize(sql);
+			this.acquireNanos  = acquireNanos;
+			this.executeNanos  = executeNanos;
+			this.fetchNanos    = fetchNanos;
+			this.rows          = rows;
+			
+			parameterTypes = new String[parameters.length];
+			
+			for (int i = 0; i < parameters.length; i++)
+				parameterTypes[i] = parameters[i] == null ? "null" : parameters[i].getClass().getSimpleName();
+			
+			this.parameters = isSelect() ? parameters : null;
+		}
+		
+		public long getTimestamp() {
+			return timestamp;
+		}
+		
+		public String getOperation() {
+			return operation;
+		}
+		
+		/**
+		 * @return The statement as it was sent
+		 */
+		public String getSql() {
+			return sql;
+		}
+		
+		/**
+		 * @return The statement with literals replaced by `?` and repeated `VALUES` rows collapsed
+		 */
+		public String getNormalizedSql() {
+			return normalizedSql;
+		}
+		
+		public String[] getParameterTypes() {
+			return parameterTypes.clone();
+		}
+		
+		/**
+		 * @return The parameter values, or null if the statement isn't a `SELECT`
+		 */
+		public Object[] getParameters() {
+			return parameters == null ? null : parameters.clone();
+		}
+		
+		public long getAcquireNanos() {
+			return acquireNanos;
+		}
+		
+		public long getExecuteNanos() {
+			return executeNanos;
+		}
+		
+		public long getFetchNanos() {
+			return fetchNanos;
+		}
+		
+		public long getTotalNanos() {
+			return acquireNanos + executeNanos + fetchNanos;
+		}
+		
+		public long getRows() {
+			return rows;
+		}
+		
+		/**
+		 * @return Whether the statement only reads, so it's safe to `EXPLAIN ANALYZE`
+		 */
+		public boolean isSelect() {
+			return sql.regionMatches(true, 0, "SELECT", 0, 6);
+		}
+		
+		/**
+		 * @return The captured plan, or null if `DBService.explain` hasn't been run on this entry
+		 */
+		public String getPlan() {
+			return plan;
+		}
+		
+		void setPlan(String plan) {
+			this.plan = plan;
+		}
+		
+		@Override
+		public String toString() {
+			StringBuilder b = new StringBuilder();
+			
+			b.append(new Date(timestamp))
+			 .append(' ').append(operation)
+			 .append(" total=")  .append(millis(getTotalNanos()))
+			 .append(" acquire=").append(millis(acquireNanos))
+			 .append(" execute=").append(millis(executeNanos))
+			 .append(" fetch=")  .append(millis(fetchNanos))
+			 .append(" rows=")   .append(rows)
+			 .append(" params=(");
+			
+			for (int i = 0; i < parameterTypes.length; i++) {
+				if (i != 0)
+					b.append(',');
+				
+				b.append(parameterTypes[i]);
+			}
+			
+			b.append(") sql=").append(normalizedSql);
+			
+			if (plan != null)
+				b.append('\n').append(plan);
+			
+			return b.toString();
+		}
+		
+		private static String millis(long nanos) {
+			return String.format("%.3fms", nanos / 1e6);
+		}
+	}
+	
+	private static SlowQueryLog instance;
+	
+	// How many entries can wait to be written to the file
+	private static final int PENDING_CAPACITY = 1024;
+	
+	private final Entry[] ring;
+	private long          recorded;
+	
+	private volatile long   thresholdNanos;
+	private volatile String file;
+	
+	// Entries waiting to be written to the file, and how many didn't fit
+	private final LinkedBlockingQueue<Entry> pending = new LinkedBlockingQueue<Entry>(PENDING_CAPACITY);
+	private final AtomicLong                 dropped = new AtomicLong();
+	
+	// Started by the first entry for the file (guarded by `this`)
+	private Thread writer;
+	
+	/**
+	 * @param capacity        - How many entries to keep in memory
+	 * @param thresholdMillis - How long (ms) a statement has to take to be recorded
+	 * @param file            - The file to append entries to, or null for none
+	 */
+	public SlowQueryLog(int capacity, long thresholdMillis, String file) {
+		this.ring = new Entry[capacity];
+		
+		setThreshold(thresholdMillis);
+		setFile(file);
+	}
+	
+	/**
+	 * @return The log shared by every DBService
+	 */
+	public static synchronized SlowQueryLog getInstance() {
+		if (instance == null)
+			instance = new SlowQueryLog(256, Long.getLong("polyopus.db.slowQueryMillis", 200), System.getProperty("polyopus.db.slowQueryLog"));
+		
+		return instance;
+	}
+	
+	/**
+	 * @return How long (ns) a statement has to take to be recorded
+	 */
+	public long getThresholdNanos() {
+		return thresholdNanos;
+	}
+	
+	/**
+	 * @param thresholdMillis - How long (ms) a statement has to take to be recorded
+	 */
+	public void setThreshold(long thresholdMillis) {
+		this.thresholdNanos = thresholdMillis * 1000000;
+	}
+	
+	/**
+	 * @param file - The file to append entries to, or null to only keep them in memory
+	 */
+	public void setFile(String file) {
+		this.file = file;
+	}
+	
+	/**
+	 * Adds an entry to the ring, and queues it for the file if there is one.
+	 * 
+	 * @param entry - The entry to add
+	 */
+	public void record(Entry entry) {
+		synchronized (ring) {
+			ring[(int)(recorded++ % ring.length)] = entry;
+		}
+		
+		if (file == null)
+			return;
+		
+		if (!pending.offer(entry)) {
+			dropped.incrementAndGet();
+			
+			return;
+		}
+		
+		startWriter();
+	}
+	
+	private synchronized void startWriter() {
+		if (writer != null)
+			return;
+		
+		writer = new Thread(new Runnable() {
+			public void run() {
+				writeEntries();
+			}
+		}, "SlowQueryLog-writer");
+		
+		writer.setDaemon(true);
+		writer.start();
+	}
+	
+	/**
+	 * Appends queued entries to the file until the thread is interrupted. Every
+	 * entry waiting at the time is written with the file opened once.
+	 */
+	private void writeEntries() {
+		ArrayList<Entry> batch = new ArrayList<Entry>();
+		
+		while (true) {
+			try {
+				batch.add(pending.take());
+			}
+			
+			catch (InterruptedException e) {
+				return;
+			}
+			
+			pending.drainTo(batch);
+			
+			String file = this.file;
+			
+			// Entries queued before the file was unset are only kept in the ring
+			if (file != null) {
+				Writer out = null;
+				
+				try {
+					out = new BufferedWriter(new FileWriter(file, true));
+					
+					for (Entry entry : batch) {
+						out.write(entry.toString());
+						out.write('\n');
+					}
+				}
+				
+				catch (IOException e) {
+					e.printStackTrace();
+				}
+				
+				finally {
+					if (out != null) {
+						try {
+							out.close();
+						}
+						
+						catch (IOException e) {
+							e.printStackTrace();
+						}
+					}
+				}
+			}
+			
+			batch.clear();
+		}
+	}
+	
+	/**
+	 * @return How many entries weren't written to the file because the writer was too far behind
+	 */
+	public long getDropped() {
+		return dropped.get();
+	}
+	
+	/**
+	 * @return The entries in the ring, oldest first
+	 */
+	public List<Entry> getEntries() {
+		synchronized (ring) {
+			int count = (int)Math.min(recorded, ring.length);
+			
+			ArrayList<Entry> entries = new ArrayList<Entry>(count);
+			
+			for (long i = recorded - count; i < recorded; i++)
+				entries.add(ring[(int)(i % ring.length)]);
+			
+			return entries;
+		}
+	}
+	
+	/**
+	 * @param count - How many entries to get
+	 * 
+	 * @return The slowest entries in the ring, slowest first
+	 */
+	public List<Entry> getSlowest(int count) {
+		List<Entry> entries = getEntries();
+		
+		Collections.sort(entries, new Comparator<Entry>() {
+			public int compare(Entry a, Entry b) {
+				return Long.compare(b.getTotalNanos(), a.getTotalNanos());
+			}
+		});
+		
+		return entries.subList(0, Math.min(count, entries.size()));
+	}
+	
+	/**
+	 * @return How many entries have been recorded, including ones since pushed out of the ring
+	 */
+	public long getRecorded() {
+		synchronized (ring) {
+			return recorded;
+		}
+	}
+	
+	public void clear() {
+		synchronized (ring) {
+			Arrays.fill(ring, null);
+			
+			recorded = 0;
+		}
+	}
+	
+	/**
+	 * Reduces a statement to its shape: whitespace is collapsed, string and number
+	 * literals become `?`, and repeated rows of a multi-row `VALUES` are collapsed,
+	 * so the same query always normalizes the same way.
+	 * 
+	 * @param sql - The statement
+	 * 
+	 * @return The normalized statement
+	 */
+	public static String normalize(String sql) {
+		StringBuilder b = new StringBuilder(sql.length());
+		
+		int length = sql.length();
+		
+		for (int i = 0; i < length; i++) {
+			char c = sql.charAt(i);
+			
+			// Quoted identifiers are kept as they are
+			if (c == '"') {
+				int end = sql.indexOf('"', i + 1);
+				
+				if (end == -1)
+					end = length - 1;
+				
+				b.append(sql, i, end + 1);
+				i = end;
+			}
+			
+			// String literals ('' is an escaped quote)
+			else if (c == '\'') {
+				int end = i + 1;
+				
+				while (end < length) {
+					if (sql.charAt(end) == '\'') {
+						if (end + 1 < length && sql.charAt(end + 1) == '\'') {
+							end += 2;
+							
+							continue;
+						}
+						
+						break;
+					}
+					
+					end++;
+				}
+				
+				b.append('?');
+				i = end;
+			}
+			
+			// Numbers that aren't part of a name
+			else if (Character.isDigit(c) && (b.length() == 0 || !isNameChar(b.charAt(b.length() - 1)))) {
+				while (i + 1 < length && (Character.isDigit(sql.charAt(i + 1)) || sql.charAt(i + 1) == '.'))
+					i++;
+				
+				b.append('?');
+			}
+			
+			else if (Character.isWhitespace(c)) {
+				if (b.length() != 0 && b.charAt(b.length() - 1) != ' ')
+					b.append(' ');
+			}
+			
+			else {
+				b.append(c);
+			}
+		}
+		
+		return b.toString().trim().replaceAll("(\\(\\?(?:, ?\\?)*\\))(?:, ?\\1)+", "$1, ...");
+	}
+	
+	private static boolean isNameChar(char c) {
+		return Character.isLetterOrDigit(c) || c == '_' || c == '$';
+	}
+}
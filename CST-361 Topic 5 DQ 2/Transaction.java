@@ -0,0 +1,27 @@
+package service;
+
+import java.util.ArrayList;
+
+/**
+ * The transaction bound to the current thread by `DBService.transaction`.
+ */
+class Transaction {
+	final ConnectionPool   pool;
+	final PooledConnection conn;
+	final boolean          readOnly;
+	
+	// Set when a statement fails, as Postgres aborts the whole transaction
+	boolean rollbackOnly;
+	
+	// Run once the transaction has committed or rolled back
+	final ArrayList<Runnable> afterCompletion = new ArrayList<Runnable>();
+	
+	// Streams opened on the transaction's connection, closed when it ends
+	final ArrayList<RowIterator> cursors = new ArrayList<RowIterator>();
+	
+	Transaction(ConnectionPool pool, PooledConnection conn, boolean readOnly) {
+		this.pool     = pool;
+		this.conn     = conn;
+		this.readOnly = readOnly;
+	}
+}
@@ -0,0 +1,21 @@
+package service;
+
+/**
+ * A multi-step operation to run in a single transaction (see `DBInterface.transaction`).
+ * 
+ * @param <T> - The type of the operation's result
+ */
+public interface UnitOfWork<T> {
+	
+	/**
+	 * Runs the operation. Every call made on `db` from this thread shares the
+	 * transaction's connection.
+	 * 
+	 * @param db - The service to run the operation's queries on
+	 * 
+	 * @return The operation's result
+	 * 
+	 * @throws Exception To roll the transaction back
+	 */
+	public T run(DBInterface db) throws Exception;
+}
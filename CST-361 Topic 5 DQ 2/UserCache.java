@@ -0,0 +1,260 @@
+package service;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+import model.User;
+
+/**
+ * An in-process cache of User objects, indexed by ID, username and email.
+ * 
+ * Entries expire `ttl` milliseconds after being cached, and the least recently
+ * used entries are evicted once there are more than `maxSize`. DBService
+ * invalidates entries whenever it writes to the user table.
+ */
+public class UserCache {
+	private static UserCache instance;
+	
+	private final int  maxSize;
+	private final long ttl;
+	
+	// Entries by username, least recently used first. Guarded by `this`.
+	private final LinkedHashMap<String, CachedUser> byUsername;
+	private final HashMap<UUID, String>             byID    = new HashMap<UUID, String>();
+	private final HashMap<String, String>           byEmail = new HashMap<String, String>();
+	
+	// Bumped on every invalidation, so a lookup that raced a write doesn't cache the old row
+	private long generation;
+	
+	private final AtomicLong hits          = new AtomicLong();
+	private final AtomicLong misses        = new AtomicLong();
+	private final AtomicLong evictions     = new AtomicLong();
+	private final AtomicLong invalidations = new AtomicLong();
+	
+	private static class CachedUser {
+		final User   user;
+		final UUID   id;
+		final String email;
+		final long   expiresAt;
+		
+		CachedUser(User user, UUID id, long expiresAt) {
+			this.user      = user;
+			this.id        = id;
+			this.email     = user.getEmail();
+			this.expiresAt = expiresAt;
+		}
+	}
+	
+	/**
+	 * @param maxSize - The most users to keep
+	 * @param ttl     - How long (ms) a user stays cached
+	 */
+	public UserCache(final int maxSize, long ttl) {
+		this.maxSize = maxSize;
+		this.ttl     = ttl;
+		
+		byUsername = new LinkedHashMap<String, CachedUser>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, CachedUser> eldest) {
+				if (size() <= UserCache.this.maxSize)
+					return false;
+				
+				unindex(eldest.getValue());
+				evictions.incrementAndGet();
+				
+				return true;
+			}
+		};
+	}
+	
+	/**
+	 * @return The cache shared by every DBService
+	 */
+	public static synchronized UserCache getInstance() {
+		if (instance == null)
+			instance = new UserCache(10000, 60000);
+		
+		return instance;
+	}
+	
+	/**
+	 * @param username - The username to look up
+	 * 
+	 * @return The cached user, or null if it isn't cached
+	 */
+	public synchronized User getByUsername(String username) {
+		return hit(username == null ? null : byUsername.get(username));
+	}
+	
+	/**
+	 * @param id - The ID to look up
+	 * 
+	 * @return The cached user, or null if it isn't cached
+	 */
+	public synchronized User getByID(UUID id) {
+		String username = id == null ? null : byID.get(id);
+		
+		return hit(username == null ? null : byUsername.get(username));
+	}
+	
+	/**
+	 * @param email - The email to look up
+	 * 
+	 * @return The cached user, or null if it isn't cached
+	 */
+	public synchronized User getByEmail(String email) {
+		String username = email == null ? null : byEmail.get(email);
+		
+		return hit(username == null ? null : byUsername.get(username));
+	}
+	
+	/**
+	 * @return The current generation. Read it before querying the database and pass it to `put`.
+	 */
+	public synchronized long getGeneration() {
+		return generation;
+	}
+	
+	/**
+	 * Caches a user, replacing any entry with the same username. Nothing is cached if
+	 * anything was invalidated since `generation` was read, as the user may be stale.
+	 * 
+	 * @param generation - The result of `getGeneration` from before the user was read
+	 * @param id         - The user's ID (null if it isn't known)
+	 * @param user       - The user
+	 */
+	public synchronized void put(long generation, UUID id, User user) {
+		if (generation != this.generation || user == null || user.getUsername() == null)
+			return;
+		
+		CachedUser old = byUsername.remove(user.getUsername());
+		
+		if (old != null)
+			unindex(old);
+		
+		CachedUser entry = new CachedUser(user, id, System.currentTimeMillis() + ttl);
+		
+		if (id != null)
+			byID.put(id, user.getUsername());
+		
+		if (entry.email != null)
+			byEmail.put(entry.email, user.getUsername());
+		
+		byUsername.put(user.getUsername(), entry);
+	}
+	
+	/**
+	 * Removes the entries for a username and an email, if they're cached.
+	 * 
+	 * @param username - The username to remove (may be null)
+	 * @param email    - The email to remove (may be null)
+	 */
+	public synchronized void invalidate(String username, String email) {
+		generation++;
+		
+		if (email != null && byEmail.containsKey(email))
+			remove(byEmail.get(email));
+		
+		if (username != null)
+			remove(username);
+	}
+	
+	/**
+	 * Removes the entry for a user ID, if it's cached.
+	 * 
+	 * @param id - The ID to remove
+	 */
+	public synchronized void invalidate(UUID id) {
+		generation++;
+		
+		String username = byID.get(id);
+		
+		if (username != null)
+			remove(username);
+	}
+	
+	/**
+	 * Removes every entry. Used when a write may have touched any user.
+	 */
+	public synchronized void invalidateAll() {
+		generation++;
+		invalidations.addAndGet(byUsername.size());
+		
+		byUsername.clear();
+		byID      .clear();
+		byEmail   .clear();
+	}
+	
+	private User hit(CachedUser entry) {
+		if (entry != null && entry.expiresAt < System.currentTimeMillis()) {
+			remove(entry.user.getUsername());
+			
+			entry = null;
+		}
+		
+		if (entry == null) {
+			misses.incrementAndGet();
+			
+			return null;
+		}
+		
+		hits.incrementAndGet();
+		
+		return entry.user;
+	}
+	
+	private void remove(String username) {
+		CachedUser entry = byUsername.remove(username);
+		
+		if (entry != null) {
+			unindex(entry);
+			invalidations.incrementAndGet();
+		}
+	}
+	
+	private void unindex(CachedUser entry) {
+		if (entry.id != null)
+			byID.remove(entry.id);
+		
+		if (entry.email != null)
+			byEmail.remove(entry.email);
+	}
+	
+	public synchronized int size() {
+		return byUsername.size();
+	}
+	
+	public long getHits() {
+		return hits.get();
+	}
+	
+	public long getMisses() {
+		return misses.get();
+	}
+	
+	/**
+	 * @return The fraction of lookups answered from the cache
+	 */
+	public double getHitRate() {
+		long hits  = this.hits.get();
+		long total = hits + misses.get();
+		
+		return total == 0 ? 0 : (double)hits / total;
+	}
+	
+	public long getEvictions() {
+		return evictions.get();
+	}
+	
+	/**
+	 * @return How many entries were removed because they expired or were invalidated
+	 */
+	public long getInvalidations() {
+		return invalidations.get();
+	}
+}
@@ -0,0 +1,334 @@
+package service;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Bloom filters of every username and email in the user table, so most
+ * `usernameExists`/`emailExists` checks (which during signups are almost
+ * always for names that don't exist) never reach the database.
+ * 
+ * The filters are filled in the background by streaming the table from the
+ * primary. Until that finishes every check is a "maybe", so nothing is
+ * answered wrongly while loading. DBService adds the username and email of
+ * every write to the user table; nothing is ever removed, as a stale "maybe"
+ * only costs a query.
+ * 
+ * The filters are only used when `polyopus.db.notifyChanges` is on, as that's
+ * the only way to hear about the other nodes' writes: their notifications
+ * carry the usernames and emails they wrote, which are added here. Only when a
+ * change doesn't say what it wrote (a COPY, or changes missed while the
+ * notifier reconnected) do the filters go back to answering "maybe" and get
+ * filled again, at most once every `RELOAD_DELAY` ms however often that
+ * happens. Another node's write may be answered "no" until its notification
+ * arrives.
+ * 
+ * Rows written to the user table without DBService (e.g. by hand or by
+ * another application) aren't heard about, so call `invalidate` after them.
+ * `insertUser` doesn't rely on a "no" either way, as the unique constraints
+ * have the final say.
+ */
+public class UserFilter {
+	private static UserFilter instance;
+	
+	// How long (ms) to wait before filling the filters again after the table changed during a fill
+	private static final long RELOAD_DELAY = 10000;
+	
+	private final BloomFilter usernames;
+	private final BloomFilter emails;
+	
+	// The service to read the table with (set by the first `load`)
+	private DBService db;
+	
+	// Guarded by `this`: whether a fill is running, and how many times the table has changed
+	private boolean loading;
+	private long    generation;
+	
+	private volatile boolean loaded;
+	
+	// Checks answered "no" without a query
+	private final AtomicLong negatives      = new AtomicLong();
+	
+	// Checks answered "maybe" that the database confirmed / denied
+	private final AtomicLong truePositives  = new AtomicLong();
+	private final AtomicLong falsePositives = new AtomicLong();
+	
+	/**
+	 * @param expectedUsers     - How many users the filters are sized for
+	 * @param falsePositiveRate - The false positive rate wanted at that size
+	 */
+	public UserFilter(long expectedUsers, double falsePositiveRate) {
+		usernames = new BloomFilter(expectedUsers, falsePositiveRate);
+		emails    = new BloomFilter(expectedUsers, falsePositiveRate);
+	}
+	
+	/**
+	 * @return The filter shared by every DBService
+	 */
+	public static synchronized UserFilter getInstance() {
+		if (instance == null)
+			instance = new UserFilter(1000000, 0.01);
+		
+		return instance;
+	}
+	
+	/**
+	 * Starts filling the filters from the user table in the background, unless
+	 * they're already filled or being filled.
+	 * 
+	 * @param db - The service to read the table with
+	 */
+	public synchronized void load(DBService db) {
+		if (this.db == null)
+			this.db = db;
+		
+		if (!loaded)
+			start();
+	}
+	
+	/**
+	 * Stops trusting the filters because the user table was changed somewhere
+	 * they didn't hear about (e.g. outside DBService), and fills them again in
+	 * the background.
+	 */
+	public synchronized void invalidate() {
+		generation++;
+		loaded = false;
+		
+		start();
+	}
+	
+	// Called holding the lock
+	private void start() {
+		if (loading || db == null)
+			return;
+		
+		loading = true;
+		
+		final DBService db = this.db;
+		
+		Thread loader = new Thread(new Runnable() {
+			public void run() {
+				long filled = generation();
+				
+				while (fill(db)) {
+					if (finished(filled))
+						return;
+					
+					// The table changed during the fill, so it may have missed a row
+					try {
+						Thread.sleep(RELOAD_DELAY);
+					}
+					
+					catch (InterruptedException e) {
+						break;
+					}
+					
+					filled = generation();
+				}
+				
+				// Leave the filters answering "maybe" and try again next time
+				synchronized (UserFilter.this) {
+					loading = false;
+				}
+			}
+		}, "UserFilter-loader");
+		
+		loader.setDaemon(true);
+		loader.start();
+	}
+	
+	private synchronized long generation() {
+		return generation;
+	}
+	
+	/**
+	 * Starts trusting the filters, unless the table changed since the fill started.
+	 * 
+	 * @param filled - The generation when the fill started
+	 * 
+	 * @return Whether the filters are now trusted
+	 */
+	private synchronized boolean finished(long filled) {
+		if (generation != filled)
+			return false;
+		
+		loaded  = true;
+		loading = false;
+		
+		return true;
+	}
+	
+	/**
+	 * Adds every username and email in the user table (read from the primary, as a
+	 * replica could be missing recent users).
+	 * 
+	 * @return Whether the whole table was read
+	 */
+	private boolean fill(DBService db) {
+		Stream<Map<String, Object>> rows = db.streamAll(DBService.USERS, true);
+		
+		if (rows == null)
+			return false;
+		
+		try {
+			Iterator<Map<String, Object>> it = rows.iterator();
+			
+			while (it.hasNext()) {
+				Map<String, Object> row = it.next();
+				
+				usernames.add((String)row.get("Username"));
+				emails   .add((String)row.get("Email"));
+			}
+			
+			return true;
+		}
+		
+		catch (RuntimeException e) {
+			e.printStackTrace();
+		}
+		
+		finally {
+			rows.close();
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * @param username - The username to check for
+	 * 
+	 * @return False if the username definitely doesn't exist, true if it might
+	 */
+	public boolean mightContainUsername(String username) {
+		return check(usernames, username);
+	}
+	
+	/**
+	 * @param email - The email to check for
+	 * 
+	 * @return False if the email definitely doesn't exist, true if it might
+	 */
+	public boolean mightContainEmail(String email) {
+		return check(emails, email);
+	}
+	
+	private boolean check(BloomFilter filter, String value) {
+		if (!loaded)
+			return true;
+		
+		if (filter.mightContain(value))
+			return true;
+		
+		negatives.incrementAndGet();
+		
+		return false;
+	}
+	
+	/**
+	 * Records what the database said about a value the filter answered "maybe" for.
+	 * 
+	 * @param exists - Whether the value actually exists
+	 */
+	public void recordPositive(boolean exists) {
+		if (!loaded)
+			return;
+		
+		if (exists)
+			truePositives.incrementAndGet();
+		
+		else
+			falsePositives.incrementAndGet();
+	}
+	
+	/**
+	 * Adds the username and email (whichever were written) of a row written to the user table.
+	 * 
+	 * @param fieldNames - The names of the columns written
+	 * @param values     - The values written, in the same order as `fieldNames`
+	 */
+	public void add(String[] fieldNames, Object[] values) {
+		for (int i = 0; i < fieldNames.length && i < values.length; i++) {
+			if (!(values[i] instanceof String))
+				continue;
+			
+			if ("Username".equals(fieldNames[i]))
+				usernames.add((String)values[i]);
+			
+			else if ("Email".equals(fieldNames[i]))
+				emails.add((String)values[i]);
+		}
+	}
+	
+	/**
+	 * Adds the usernames and emails among the values another node wrote (see `ChangeNotifier.Change`).
+	 * 
+	 * @param values - The `{ column, value }` pairs written
+	 */
+	public void add(List<String[]> values) {
+		for (String[] value : values) {
+			if ("Username".equals(value[0]))
+				usernames.add(value[1]);
+			
+			else if ("Email".equals(value[0]))
+				emails.add(value[1]);
+		}
+	}
+	
+	public void addUsername(String username) {
+		usernames.add(username);
+	}
+	
+	public void addEmail(String email) {
+		emails.add(email);
+	}
+	
+	/**
+	 * @return Whether the filters have been filled and are answering checks
+	 */
+	public boolean isLoaded() {
+		return loaded;
+	}
+	
+	/**
+	 * @return The false positive rate the filters were sized for
+	 */
+	public double getConfiguredFalsePositiveRate() {
+		return usernames.getFalsePositiveRate();
+	}
+	
+	/**
+	 * @return The false positive rate expected from how full the filters are
+	 */
+	public double getExpectedFalsePositiveRate() {
+		return Math.max(usernames.getExpectedFalsePositiveRate(), emails.getExpectedFalsePositiveRate());
+	}
+	
+	/**
+	 * @return The fraction of checks for values that don't exist which the filters answered "maybe"
+	 */
+	public double getObservedFalsePositiveRate() {
+		long falsePositives = this.falsePositives.get();
+		long total          = falsePositives + negatives.get();
+		
+		return total == 0 ? 0 : (double)falsePositives / total;
+	}
+	
+	/**
+	 * @return How many checks were answered without a query
+	 */
+	public long getNegatives() {
+		return negatives.get();
+	}
+	
+	public long getTruePositives() {
+		return truePositives.get();
+	}
+	
+	public long getFalsePositives() {
+		return falsePositives.get();
+	}
+}
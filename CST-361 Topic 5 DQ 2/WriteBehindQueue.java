@@ -0,0 +1,383 @@
+package service;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Takes inserts and updates off the request thread: they're put on a bounded
+ * queue and a background writer commits them in groups, one transaction per
+ * group instead of one per write. Each write is acknowledged through a future.
+ * 
+ * A group is written once it has `maxBatch` writes or its first write has waited
+ * `maxDelay` ms, whichever comes first. If a write in the group fails, the group
+ * is rolled back and every write in it is retried in its own transaction, so one
+ * bad write only fails its own future.
+ * 
+ * Durability:
+ * 
+ * DURABLE      = 0 (a future completes once its write is committed and flushed to disk)
+ * ASYNC_COMMIT = 1 (commits don't wait for the flush, so a server crash can lose
+ *                   the last few acknowledged groups, but never half of one)
+ * 
+ * Either way, writes still in the queue are lost if this process dies before
+ * they're written. `close` writes everything that's queued.
+ * 
+ * When the queue is full:
+ * 
+ * BLOCK  = 0 (the caller waits for room)
+ * REJECT = 1 (the write's future fails with a RejectedExecutionException)
+ */
+public class WriteBehindQueue implements Closeable {
+	public static final int DURABLE      = 0;
+	public static final int ASYNC_COMMIT = 1;
+	
+	public static final int BLOCK  = 0;
+	public static final int REJECT = 1;
+	
+	// How often (ms) the idle writer checks whether it's been closed
+	private static final long IDLE_POLL = 100;
+	
+	/**
+	 * One queued insert or update.
+	 */
+	private static final class Write {
+		final CompletableFuture<Boolean> future = new CompletableFuture<Boolean>();
+		
+		final String   location;
+		final Object[] values;
+		
+		// Only set for inserts
+		final String[] fieldNames;
+		
+		// Only set for updates
+		final String   setStatement;
+		final String   whereStatement;
+		final Object[] whereObjects;
+		
+		Write(String location, String[] fieldNames, String setStatement, Object[] values, String whereStatement, Object[] whereObjects) {
+			this.location       = location;
+			this.fieldNames     = fieldNames;
+			this.setStatement   = setStatement;
+			this.values         = values;
+			this.whereStatement = whereStatement;
+			this.whereObjects   = whereObjects;
+		}
+		
+		boolean run(DBInterface db) {
+			if (setStatement == null)
+				return db.insert(location, fieldNames, values);
+			
+			return db.update(location, setStatement, values, whereStatement, whereObjects);
+		}
+	}
+	
+	private final DBService                 db;
+	private final ArrayBlockingQueue<Write> queue;
+	private final int                       maxBatch;
+	private final long                      maxDelay;
+	private final int                       durability;
+	private final int                       overflow;
+	private final Thread                    writer;
+	
+	private volatile boolean closed;
+	
+	private final AtomicLong written  = new AtomicLong();
+	private final AtomicLong failed   = new AtomicLong();
+	private final AtomicLong rejected = new AtomicLong();
+	private final AtomicLong groups   = new AtomicLong();
+	private final AtomicLong retried  = new AtomicLong();
+	
+	/**
+	 * Creates a queue of 10000 writes, written in groups of up to 500 at most 10ms
+	 * apart, durably, blocking callers while it's full.
+	 * 
+	 * @param db - The service to write with
+	 */
+	public WriteBehindQueue(DBService db) {
+		this(db, 10000, 500, 10, DURABLE, BLOCK);
+	}
+	
+	/**
+	 * @param db         - The service to write with
+	 * @param capacity   - The most writes that can wait in the queue
+	 * @param maxBatch   - The most writes committed in one transaction
+	 * @param maxDelay   - The longest (ms) a write waits for its group to fill up
+	 * @param durability - DURABLE or ASYNC_COMMIT
+	 * @param overflow   - BLOCK or REJECT
+	 */
+	public WriteBehindQueue(DBService db, int capacity, int maxBatch, long maxDelay, int durability, int overflow) {
+		this.db         = db;
+		this.queue      = new ArrayBlockingQueue<Write>(capacity);
+		this.maxBatch   = Math.max(1, maxBatch);
+		this.maxDelay   = Math.max(0, maxDelay);
+		this.durability = durability;
+		this.overflow   = overflow;
+		
+		writer = new Thread(new Runnable() {
+			public void run() {
+				writeLoop();
+			}
+		}, "WriteBehindQueue-writer");
+		
+		writer.setDaemon(true);
+		writer.start();
+	}
+	
+	/**
+	 * Queues an insert. See `DBService.insert`.
+	 * 
+	 * @param location   - Schema and table to insert into (use `createLocation`)
+	 * @param fieldNames - An array of the names of each field
+	 * @param values     - The values, in the same order as `fieldNames`
+	 * 
+	 * @return A future completed with whether the insert succeeded once it's committed
+	 */
+	public CompletableFuture<Boolean> insert(String location, String[] fieldNames, Object[] values) {
+		return enqueue(new Write(location, fieldNames, null, values, null, null));
+	}
+	
+	/**
+	 * Queues an update. See `DBService.update`.
+	 * 
+	 * @param location       - Schema and table to search (use `createLocation`)
+	 * @param setStatement   - The `SET` statement to use (use `set`)
+	 * @param setObjects     - The values to set to
+	 * @param whereStatement - The `WHERE` statement to search by (use `where`)
+	 * @param whereObjects   - The value(s) to search by
+	 * 
+	 * @return A future completed with whether any row was updated once it's committed
+	 */
+	public CompletableFuture<Boolean> update(String location, String setStatement, Object[] setObjects, String whereStatement, Object[] whereObjects) {
+		return enqueue(new Write(location, null, setStatement, setObjects, whereStatement, whereObjects));
+	}
+	
+	private CompletableFuture<Boolean> enqueue(Write write) {
+		if (closed) {
+			write.future.completeExceptionally(new IllegalStateException("The queue is closed"));
+			
+			return write.future;
+		}
+		
+		boolean queued;
+		
+		if (overflow == BLOCK) {
+			try {
+				queue.put(write);
+				queued = true;
+			}
+			
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				write.future.completeExceptionally(e);
+				
+				return write.future;
+			}
+		}
+		
+		else {
+			queued = queue.offer(write);
+		}
+		
+		if (!queued) {
+			rejected.incrementAndGet();
+			write.future.completeExceptionally(new RejectedExecutionException("The write-behind queue is full"));
+		}
+		
+		return write.future;
+	}
+	
+	/**
+	 * Gathers writes into groups and writes them until the queue is closed and empty.
+	 */
+	private void writeLoop() {
+		ArrayList<Write> group = new ArrayList<Write>(maxBatch);
+		
+		while (true) {
+			try {
+				Write first = queue.poll(IDLE_POLL, TimeUnit.MILLISECONDS);
+				
+				if (first == null) {
+					if (closed && queue.isEmpty())
+						return;
+					
+					continue;
+				}
+				
+				group.add(first);
+				
+				long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxDelay);
+				
+				while (group.size() < maxBatch) {
+					queue.drainTo(group, maxBatch - group.size());
+					
+					long remaining = deadline - System.nanoTime();
+					
+					// Don't wait for more once closing, just write what's left
+					if (group.size() >= maxBatch || remaining <= 0 || closed)
+						break;
+					
+					Write next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+					
+					if (next == null)
+						break;
+					
+					group.add(next);
+				}
+				
+				write(group);
+			}
+			
+			catch (InterruptedException e) {
+				// Something wants the writer to stop, so take no more writes and fail the
+				// ones it was holding instead of leaving their futures hanging
+				Thread.currentThread().interrupt();
+				closed = true;
+				
+				for (Write write : group)
+					write.future.completeExceptionally(e);
+				
+				Write write;
+				
+				while ((write = queue.poll()) != null)
+					write.future.completeExceptionally(e);
+				
+				return;
+			}
+			
+			catch (RuntimeException e) {
+				e.printStackTrace();
+				
+				for (Write write : group)
+					write.future.completeExceptionally(e);
+			}
+			
+			finally {
+				group.clear();
+			}
+		}
+	}
+	
+	/**
+	 * Commits a group in one transaction, or each of its writes on its own if that fails.
+	 */
+	private void write(final ArrayList<Write> group) {
+		groups.incrementAndGet();
+		
+		boolean[] results = db.transaction(new UnitOfWork<boolean[]>() {
+			public boolean[] run(DBInterface tx) {
+				durability();
+				
+				boolean[] results = new boolean[group.size()];
+				
+				for (int i = 0; i < results.length; i++)
+					results[i] = group.get(i).run(tx);
+				
+				return results;
+			}
+		});
+		
+		if (results != null) {
+			for (int i = 0; i < results.length; i++)
+				complete(group.get(i), results[i]);
+			
+			return;
+		}
+		
+		// Something in the group failed and took the rest with it
+		for (final Write write : group) {
+			retried.incrementAndGet();
+			
+			Boolean result = db.transaction(new UnitOfWork<Boolean>() {
+				public Boolean run(DBInterface tx) {
+					durability();
+					
+					return write.run(tx);
+				}
+			});
+			
+			complete(write, result != null && result);
+		}
+	}
+	
+	private void durability() {
+		if (durability == ASYNC_COMMIT)
+			db.setSynchronousCommit(false);
+	}
+	
+	private void complete(Write write, boolean result) {
+		(result ? written : failed).incrementAndGet();
+		
+		write.future.complete(result);
+	}
+	
+	/**
+	 * Stops taking writes and waits until every queued write has been written.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		
+		try {
+			writer.join();
+		}
+		
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			
+			return;
+		}
+		
+		// Writes queued by callers that got past the `closed` check as the writer finished
+		Write write;
+		
+		while ((write = queue.poll()) != null)
+			write.future.completeExceptionally(new IllegalStateException("The queue is closed"));
+	}
+	
+	/**
+	 * @return How many writes are waiting to be written
+	 */
+	public int getQueued() {
+		return queue.size();
+	}
+	
+	/**
+	 * @return How many writes succeeded
+	 */
+	public long getWritten() {
+		return written.get();
+	}
+	
+	/**
+	 * @return How many writes failed (or, for updates, matched no rows)
+	 */
+	public long getFailed() {
+		return failed.get();
+	}
+	
+	/**
+	 * @return How many writes were turned away because the queue was full
+	 */
+	public long getRejected() {
+		return rejected.get();
+	}
+	
+	/**
+	 * @return How many groups were written
+	 */
+	public long getGroups() {
+		return groups.get();
+	}
+	
+	/**
+	 * @return How many writes were retried on their own after their group failed
+	 */
+	public long getRetried() {
+		return retried.get();
+	}
+}